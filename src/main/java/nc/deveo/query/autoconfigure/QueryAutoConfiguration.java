@@ -0,0 +1,23 @@
+package nc.deveo.query.autoconfigure;
+
+import nc.deveo.query.cache.QueryCacheConfigurer;
+import nc.deveo.query.event.EntityChangePublisher;
+import nc.deveo.query.warmup.QueryWarmUp;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Register the components of the library in the applications which do not scan the package nc.deveo.query:
+ * the change publisher (prefix and bitmap indexes, subscriptions, ETags), the change log, the warm up,
+ * the second-level cache configuration and its endpoint.
+ * Declared in META-INF/spring.factories. When the application scans the package too, the components are
+ * registered once.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnClass(EntityManagerFactory.class)
+@ComponentScan(basePackageClasses = {EntityChangePublisher.class, QueryCacheConfigurer.class, QueryWarmUp.class})
+public class QueryAutoConfiguration {
+}
@@ -0,0 +1,47 @@
+package nc.deveo.query.cache;
+
+import org.hibernate.cache.spi.access.AccessType;
+
+import java.lang.annotation.*;
+
+/**
+ * Enable the Hibernate second-level cache for the entity of a {@link nc.deveo.query.service.QueryService},
+ * in a local Caffeine JCache. The cache regions must exist before the EntityManagerFactory,
+ * so they are declared on the class of the service and read by {@link QueryCacheConfigurer} at startup.
+ * eg:
+ * &#64;Service
+ * &#64;QueryCache(collections = "factures", associatedEntities = Facture.class, queries = true, maxEntries = 5000, ttl = "PT10M")
+ * public class ContratQueryService extends QueryService&lt;Contrat, ContratRepository&gt; {
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface QueryCache {
+
+    /**
+     * The collections of the entity to cache, eg factures.
+     */
+    String[] collections() default {};
+
+    /**
+     * Other entities to cache with the same settings, typically the elements of the cached collections.
+     */
+    Class<?>[] associatedEntities() default {};
+
+    /**
+     * Cache the results of the criteria queries of the service (content and count).
+     */
+    boolean queries() default false;
+
+    AccessType accessType() default AccessType.READ_WRITE;
+
+    /**
+     * Maximum number of entries of each region.
+     */
+    long maxEntries() default 10_000;
+
+    /**
+     * Time to live of the entries of each region, as an ISO-8601 duration.
+     */
+    String ttl() default "PT10M";
+}
@@ -0,0 +1,118 @@
+package nc.deveo.query.cache;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import lombok.extern.log4j.Log4j2;
+import nc.deveo.query.service.QueryService;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.core.ResolvableType;
+import org.springframework.stereotype.Component;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Configure the Hibernate second-level cache from the {@link QueryCache} annotations of the query services:
+ * a local Caffeine JCache with one region for each cached entity and collection, sized as declared.
+ * The query results region holds the sum of the maxEntries of the services caching their queries and expires after
+ * the shortest of their ttl; the update timestamps region never expires, a missing timestamp would serve stale results.
+ * Without any annotation, the configuration of Hibernate is left unchanged.
+ * Only active when hibernate-jcache and the Caffeine JCache provider, optional dependencies, are on the classpath.
+ */
+@Log4j2
+@Component
+@ConditionalOnClass(name = {"org.hibernate.cache.jcache.ConfigSettings", "com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider"})
+public class QueryCacheConfigurer implements HibernatePropertiesCustomizer, DisposableBean {
+
+    public static final String QUERY_RESULTS_REGION = "default-query-results-region";
+    public static final String UPDATE_TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+    private final ListableBeanFactory beanFactory;
+
+    private CacheManager cacheManager;
+
+    public QueryCacheConfigurer(ListableBeanFactory beanFactory) {
+        this.beanFactory = beanFactory;
+    }
+
+    @Override
+    public void customize(Map<String, Object> hibernateProperties) {
+        String[] beanNames = beanFactory.getBeanNamesForAnnotation(QueryCache.class);
+        if (beanNames.length == 0) {
+            return;
+        }
+        // un gestionnaire de cache par contexte Spring : les régions ne sont pas partagées entre deux applications
+        cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                .getCacheManager(URI.create("query-cache-" + UUID.randomUUID()), getClass().getClassLoader());
+        long queryMaxEntries = 0;
+        Duration queryTtl = null;
+
+        for (String beanName : beanNames) {
+            Class<?> serviceType = beanFactory.getType(beanName);
+            QueryCache queryCache = beanFactory.findAnnotationOnBean(beanName, QueryCache.class);
+            Class<?> entityType = serviceType != null ? ResolvableType.forClass(serviceType).as(QueryService.class).getGeneric(0).resolve() : null;
+            if (queryCache == null || entityType == null) {
+                continue;
+            }
+            String usage = queryCache.accessType().getExternalName();
+            List<Class<?>> entityTypes = new ArrayList<>(List.of(entityType));
+            entityTypes.addAll(List.of(queryCache.associatedEntities()));
+            for (Class<?> type : entityTypes) {
+                hibernateProperties.put(AvailableSettings.CLASS_CACHE_PREFIX + "." + type.getName(), usage);
+                createRegion(type.getName(), OptionalLong.of(queryCache.maxEntries()), Duration.parse(queryCache.ttl()));
+            }
+            for (String collection : queryCache.collections()) {
+                String role = entityType.getName() + "." + collection;
+                hibernateProperties.put(AvailableSettings.COLLECTION_CACHE_PREFIX + "." + role, usage);
+                createRegion(role, OptionalLong.of(queryCache.maxEntries()), Duration.parse(queryCache.ttl()));
+            }
+            if (queryCache.queries()) {
+                queryMaxEntries += queryCache.maxEntries();
+                Duration ttl = Duration.parse(queryCache.ttl());
+                queryTtl = queryTtl == null || ttl.compareTo(queryTtl) < 0 ? ttl : queryTtl;
+            }
+            log.info("Cache de second niveau activé pour {} (entités {}, listes {}, requêtes {})", entityType.getSimpleName(),
+                    entityTypes.stream().map(Class::getSimpleName).toList(), List.of(queryCache.collections()), queryCache.queries());
+        }
+        boolean queries = queryTtl != null;
+        if (queries) {
+            createRegion(QUERY_RESULTS_REGION, OptionalLong.of(queryMaxEntries), queryTtl);
+            createRegion(UPDATE_TIMESTAMPS_REGION, OptionalLong.empty(), null);
+        }
+
+        hibernateProperties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, true);
+        hibernateProperties.put(AvailableSettings.USE_QUERY_CACHE, queries);
+        hibernateProperties.put(AvailableSettings.CACHE_REGION_FACTORY, "jcache");
+        hibernateProperties.put(ConfigSettings.CACHE_MANAGER, cacheManager);
+        hibernateProperties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "create");
+        hibernateProperties.put(AvailableSettings.GENERATE_STATISTICS, true);
+    }
+
+    private void createRegion(String name, OptionalLong maxEntries, Duration ttl) {
+        if (cacheManager.getCache(name) != null) {
+            return;
+        }
+        CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+        configuration.setStatisticsEnabled(true);
+        configuration.setMaximumSize(maxEntries);
+        if (ttl != null) {
+            configuration.setExpireAfterWrite(OptionalLong.of(ttl.toNanos()));
+        }
+        cacheManager.createCache(name, configuration);
+    }
+
+    @Override
+    public void destroy() {
+        if (cacheManager != null) {
+            cacheManager.close();
+        }
+    }
+}
@@ -1,19 +1,280 @@
 package nc.deveo.query.controller;
 
+import nc.deveo.query.json.QueryFormat;
+import nc.deveo.query.service.ChangeSet;
+import nc.deveo.query.service.EstimatedPage;
+import nc.deveo.query.service.FacetBucket;
+import nc.deveo.query.service.QueryCancellation;
+import nc.deveo.query.service.QueryExplanation;
+import nc.deveo.query.service.QueryOptions;
 import nc.deveo.query.service.QueryService;
+import nc.deveo.query.service.ScrollPage;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
 
 public interface QueryController<E, T extends QueryService<E, ?>> {
 
+    /**
+     * Header allowing the client to limit the duration of its request, in milliseconds.
+     */
+    String TIMEOUT_HEADER = "X-Query-Timeout";
+
+    /**
+     * Header set to true when the total of the page is not counted ({@link EstimatedPage}).
+     */
+    String TOTAL_ESTIMATED_HEADER = "X-Total-Estimated";
+
     T getQueryService();
 
+    /**
+     * Execute the request, or answer 304 Not Modified without any query when the If-None-Match header
+     * of the client matches the ETag of the request (nothing committed since its last call).
+     * The page is written in JSON, CBOR or Smile depending on the Accept header.
+     * The statement is bounded by the timeout of the service and of the {@value #TIMEOUT_HEADER} header only:
+     * a blocking servlet request is not notified when its client disconnects, use {@link #queryAsync} to cancel
+     * the statement on disconnect.
+     */
     @GetMapping(path = "/query")
-    default Page<E> query(@RequestParam final Map<String, String> allParams, final Pageable pageable) {
-        return getQueryService().findByCriteria(allParams, pageable);
+    default Page<E> query(@RequestParam final Map<String, String> allParams, final Pageable pageable,
+                          @RequestHeader(name = TIMEOUT_HEADER, required = false) final Long timeout,
+                          final WebRequest webRequest, final HttpServletResponse response) {
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        String etag = computeETag(allParams, pageable, QueryFormat.negotiate(webRequest.getHeader(HttpHeaders.ACCEPT)));
+        if (etag != null && webRequest.checkNotModified(etag)) {
+            return null;
+        }
+        QueryOptions options = QueryOptions.builder()
+                .timeout(timeout != null ? Duration.ofMillis(timeout) : null)
+                .build();
+        return markEstimated(getQueryService().findByCriteria(allParams, pageable, options), response);
+    }
+
+    /**
+     * Asynchronous variant of {@link #query}: the request is executed on the executor of the service
+     * ({@link QueryService#findByCriteriaAsync}), the servlet thread is released while it waits for the database.
+     * The statement is cancelled when the client disconnects or when the asynchronous request times out.
+     * eg: /query/async?nom|startsWith=ol
+     */
+    @GetMapping(path = "/query/async")
+    default DeferredResult<Page<E>> queryAsync(@RequestParam final Map<String, String> allParams, final Pageable pageable,
+                                               @RequestHeader(name = TIMEOUT_HEADER, required = false) final Long timeout,
+                                               final WebRequest webRequest, final HttpServletResponse response) {
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        String etag = computeETag(allParams, pageable, QueryFormat.negotiate(webRequest.getHeader(HttpHeaders.ACCEPT)));
+        if (etag != null && webRequest.checkNotModified(etag)) {
+            return null;
+        }
+        QueryCancellation cancellation = new QueryCancellation();
+        QueryOptions options = QueryOptions.builder()
+                .timeout(timeout != null ? Duration.ofMillis(timeout) : null)
+                .cancellation(cancellation)
+                .build();
+        DeferredResult<Page<E>> result = new DeferredResult<>();
+        result.onTimeout(cancellation::cancel);
+        result.onError(error -> cancellation.cancel());
+        getQueryService().findByCriteriaAsync(allParams, pageable, options).whenComplete((page, error) -> {
+            if (error != null) {
+                result.setErrorResult(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            } else {
+                result.setResult(markEstimated(page, response));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The changes of the result of the request since the token of a previous call: the matching entities inserted
+     * or updated since, the identifiers of the entities deleted or no longer matching, and the token of the next call.
+     * With an empty token only the current token is returned, to be taken before the initial load of the result.
+     * The attributes cannot be selected with "fields".
+     * eg: /query?since=1234&statut=ACTIF
+     */
+    @GetMapping(path = "/query", params = "since")
+    default ChangeSet<E> queryChanges(@RequestParam final Map<String, String> allParams,
+                                      @RequestParam(name = "since") final String since, final Pageable pageable,
+                                      @RequestHeader(name = TIMEOUT_HEADER, required = false) final Long timeout) {
+        if (allParams.containsKey("fields")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Le paramètre fields n'est pas supporté avec since");
+        }
+        QueryOptions options = QueryOptions.builder()
+                .timeout(timeout != null ? Duration.ofMillis(timeout) : null)
+                .build();
+        return getQueryService().findChanges(allParams, since, pageable.getSort(), options);
+    }
+
+    /**
+     * Subscribe to the changes of the result of the request over Server-Sent Events: "enter" and "change" events
+     * with the entity, written with the requested attributes, and "leave" events with its identifier.
+     * eg: /query/subscribe?statut=ACTIF&fields=id,nom
+     */
+    @GetMapping(path = "/query/subscribe", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    default SseEmitter subscribe(@RequestParam final Map<String, String> allParams,
+                                 @RequestParam(name = "fields", required = false) final List<String> fields) {
+        Map<String, String> filterParams = new HashMap<>(allParams);
+        filterParams.remove("fields");
+        return getQueryService().subscribe(filterParams, fields != null ? fields : List.of());
+    }
+
+    /**
+     * Execute the request and stream the page with the pre-built writer of the requested attributes,
+     * which never loads a lazy association.
+     * The format depends on the Accept header: JSON, CBOR, Smile or columnar (application/x-query-columnar).
+     * eg: /query?fields=id,nom,factures&nom|startsWith=ol
+     */
+    @GetMapping(path = "/query", params = {"fields", "!since"})
+    default void queryFields(@RequestParam final Map<String, String> allParams,
+                             @RequestParam(name = "fields") final List<String> fields, final Pageable pageable,
+                             @RequestHeader(name = TIMEOUT_HEADER, required = false) final Long timeout,
+                             final WebRequest webRequest, final HttpServletResponse response) throws IOException {
+        QueryFormat format = QueryFormat.negotiate(webRequest.getHeader(HttpHeaders.ACCEPT));
+        response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        String etag = computeETag(allParams, pageable, format);
+        if (etag != null && webRequest.checkNotModified(etag)) {
+            return;
+        }
+        Map<String, String> filterParams = new HashMap<>(allParams);
+        filterParams.remove("fields");
+        QueryOptions options = QueryOptions.builder()
+                .timeout(timeout != null ? Duration.ofMillis(timeout) : null)
+                .build();
+        Page<E> page = markEstimated(getQueryService().findByCriteria(filterParams, pageable, options), response);
+        response.setContentType(format.getMediaType().toString());
+        getQueryService().write(page, fields, format, response.getOutputStream());
+    }
+
+    private Page<E> markEstimated(Page<E> page, HttpServletResponse response) {
+        if (page instanceof EstimatedPage) {
+            response.setHeader(TOTAL_ESTIMATED_HEADER, "true");
+        }
+        return page;
+    }
+
+    /**
+     * The ETag of the request, distinct for each format of the response.
+     */
+    private String computeETag(Map<String, String> allParams, Pageable pageable, QueryFormat format) {
+        String etag = getQueryService().computeETag(allParams, pageable);
+        return etag != null && format != QueryFormat.JSON ? etag + "-" + format.name().toLowerCase() : etag;
+    }
+
+    /**
+     * Execute a named query of the service with the given parameters.
+     * eg: /query/named/contratsByNomPrefix?p=ol&page=0&size=20
+     */
+    @GetMapping(path = "/query/named/{name}")
+    default Page<E> namedQuery(@PathVariable final String name, @RequestParam final Map<String, String> allParams,
+                               final Pageable pageable,
+                               @RequestHeader(name = TIMEOUT_HEADER, required = false) final Long timeout) {
+        QueryOptions options = QueryOptions.builder()
+                .timeout(timeout != null ? Duration.ofMillis(timeout) : null)
+                .build();
+        return getQueryService().findByNamedQuery(name, allParams, pageable, options);
+    }
+
+    /**
+     * Open a scroll session on the result of the request and return its first page, with the token
+     * to read the next pages from the same result.
+     * eg: /query/scroll?nom|startsWith=ol&sort=nom&size=500
+     */
+    @GetMapping(path = "/query/scroll")
+    default ScrollPage<E> openScroll(@RequestParam final Map<String, String> allParams, final Pageable pageable,
+                                     @RequestHeader(name = TIMEOUT_HEADER, required = false) final Long timeout) {
+        QueryOptions options = QueryOptions.builder()
+                .timeout(timeout != null ? Duration.ofMillis(timeout) : null)
+                .build();
+        return getQueryService().openScroll(allParams, pageable, options);
+    }
+
+    /**
+     * eg: /query/scroll/8a3c...?page=3
+     */
+    @GetMapping(path = "/query/scroll/{token}")
+    default ScrollPage<E> scroll(@PathVariable final String token, @RequestParam(name = "page", defaultValue = "0") final int page) {
+        if (page < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Le paramètre page ne doit pas être négatif");
+        }
+        return getQueryService().scroll(token, page);
+    }
+
+    @DeleteMapping(path = "/query/scroll/{token}")
+    default void closeScroll(@PathVariable final String token) {
+        getQueryService().closeScroll(token);
+    }
+
+    /**
+     * Count the entities matching the filters.
+     * eg: /query/count?statut|in=ACTIF,SUSPENDU&signe=true
+     */
+    @GetMapping(path = "/query/count")
+    default long count(@RequestParam final Map<String, String> allParams,
+                       @RequestHeader(name = TIMEOUT_HEADER, required = false) final Long timeout) {
+        QueryOptions options = QueryOptions.builder()
+                .timeout(timeout != null ? Duration.ofMillis(timeout) : null)
+                .build();
+        return getQueryService().countByCriteria(allParams, options);
+    }
+
+    /**
+     * Describe how the request would be executed, with the generated SQL and the plans of the database,
+     * without executing it. Answers 404 unless the service enables it ({@code isExplainEnabled()}).
+     * eg: /query/explain?factures.libelle|contains=loyer&sort=nom
+     */
+    @GetMapping(path = "/query/explain")
+    default QueryExplanation explain(@RequestParam final Map<String, String> allParams, final Pageable pageable) {
+        return getQueryService().explain(allParams, pageable);
+    }
+
+    /**
+     * Count the entities matching the filters by value of each facet.
+     * eg: /query/facets?nom|startsWith=a&facet=statut&facet=agence.code&facetSize=5
+     */
+    @GetMapping(path = "/query/facets")
+    default Map<String, List<FacetBucket>> facets(@RequestParam final Map<String, String> allParams,
+                                                  @RequestParam(name = "facet") final List<String> facets,
+                                                  @RequestParam(name = "facetSize", defaultValue = "10") final int facetSize,
+                                                  @RequestHeader(name = TIMEOUT_HEADER, required = false) final Long timeout) {
+        if (facetSize <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Le paramètre facetSize doit être positif");
+        }
+        Map<String, String> filterParams = new HashMap<>(allParams);
+        filterParams.remove("facet");
+        filterParams.remove("facetSize");
+        QueryOptions options = QueryOptions.builder()
+                .timeout(timeout != null ? Duration.ofMillis(timeout) : null)
+                .build();
+        return getQueryService().findFacets(filterParams, facets, facetSize, options);
+    }
+
+    /**
+     * The values of an attribute starting with the given prefix, for the typeahead fields.
+     * eg: /query/suggest?field=nom&prefix=ol&size=10
+     */
+    @GetMapping(path = "/query/suggest")
+    default List<String> suggest(@RequestParam final String field, @RequestParam final String prefix,
+                                 @RequestParam(name = "size", defaultValue = "10") final int size) {
+        if (size <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Le paramètre size doit être positif");
+        }
+        return getQueryService().suggest(field, prefix, size);
     }
 }
@@ -0,0 +1,23 @@
+package nc.deveo.query.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+
+/**
+ * Measure the replication lag of a replica, with a connection of this replica.
+ * eg for PostgreSQL:
+ * <code>
+ * connection -> {
+ * try (ResultSet rs = connection.createStatement().executeQuery("select extract(epoch from now() - pg_last_xact_replay_timestamp()) * 1000")) {
+ * rs.next();
+ * return Duration.ofMillis(rs.getLong(1));
+ * }
+ * }
+ * </code>
+ */
+@FunctionalInterface
+public interface ReplicaLagProbe {
+
+    Duration measure(Connection connection) throws SQLException;
+}
@@ -0,0 +1,94 @@
+package nc.deveo.query.datasource;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A replica connection pool, with its last known health, replication lag and number of connections in use.
+ */
+@Getter
+@Log4j2
+public class ReplicaPool extends DelegatingDataSource {
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String name;
+    private final AtomicInteger load = new AtomicInteger();
+
+    private volatile boolean healthy = true;
+    private volatile Duration lag = Duration.ZERO;
+
+    public ReplicaPool(String name, DataSource dataSource) {
+        super(dataSource);
+        this.name = name;
+    }
+
+    /**
+     * <p>Number of connections in use, used by the least loaded selection.</p>
+     *
+     * @return an int.
+     */
+    public int getLoad() {
+        return load.get();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return track(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return track(super.getConnection(username, password));
+    }
+
+    /**
+     * <p>Check the connection of the replica and measure its lag.</p>
+     *
+     * @param lagProbe the probe measuring the lag, null to skip the measure.
+     */
+    public void checkHealth(ReplicaLagProbe lagProbe) {
+        try (Connection connection = obtainTargetDataSource().getConnection()) {
+            boolean valid = connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            if (valid && lagProbe != null) {
+                lag = lagProbe.measure(connection);
+            }
+            setHealthy(valid);
+        } catch (Exception ex) {
+            log.warn("Replica {} indisponible : {}", name, ex.getMessage());
+            setHealthy(false);
+        }
+    }
+
+    void setHealthy(boolean healthy) {
+        if (this.healthy != healthy) {
+            log.info("Replica {} : healthy={}", name, healthy);
+        }
+        this.healthy = healthy;
+    }
+
+    private Connection track(Connection connection) {
+        load.incrementAndGet();
+        AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+            if (method.getName().equals("close") && closed.compareAndSet(false, true)) {
+                load.decrementAndGet();
+            }
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getTargetException();
+            }
+        });
+    }
+}
@@ -0,0 +1,151 @@
+package nc.deveo.query.datasource;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Data source sending the read-only transactions (such as the ones of the QueryService) to the replicas,
+ * and all the other connections to the primary.
+ * A replica is skipped while it is unhealthy or late by more than {@link #getMaxLag()}; the primary is used
+ * when no replica is available.
+ * <p>
+ * The read-only flag of a transaction is only known after its connection has been requested, so this data source
+ * must be wrapped in a {@link LazyConnectionDataSourceProxy}, see {@link #lazy()}.
+ * eg:
+ * <code>
+ * &#64;Bean
+ * public ReplicaRoutingDataSource routingDataSource() {
+ * return new ReplicaRoutingDataSource(primary, List.of(new ReplicaPool("replica-1", replica)));
+ * }
+ * &#64;Bean
+ * &#64;Primary
+ * public DataSource dataSource(ReplicaRoutingDataSource routingDataSource) {
+ * return routingDataSource.lazy();
+ * }
+ * </code>
+ */
+@Log4j2
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    public enum Selection {
+        ROUND_ROBIN,
+        LEAST_LOADED
+    }
+
+    private static final String PRIMARY_KEY = "primary";
+
+    @Getter
+    private final List<ReplicaPool> replicas;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+
+    @Getter
+    @Setter
+    private Selection selection = Selection.ROUND_ROBIN;
+
+    /**
+     * Replicas late by more than this lag are skipped, null to ignore the lag.
+     */
+    @Getter
+    @Setter
+    private Duration maxLag = Duration.ofSeconds(30);
+
+    /**
+     * Interval between two health checks of the replicas, null to disable the scheduled checks.
+     */
+    @Getter
+    @Setter
+    private Duration healthCheckInterval = Duration.ofSeconds(10);
+
+    @Getter
+    @Setter
+    private ReplicaLagProbe lagProbe;
+
+    private ScheduledExecutorService healthCheckExecutor;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<ReplicaPool> replicas) {
+        this.replicas = List.copyOf(replicas);
+        Map<Object, Object> targetDataSources = new HashMap<>();
+        targetDataSources.put(PRIMARY_KEY, primary);
+        this.replicas.forEach(replica -> targetDataSources.put(replica.getName(), replica));
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(primary);
+    }
+
+    /**
+     * <p>Wrap this data source so that the connection is only fetched at the first statement.</p>
+     *
+     * @return a {@link LazyConnectionDataSourceProxy} object.
+     */
+    public DataSource lazy() {
+        return new LazyConnectionDataSourceProxy(this);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        super.afterPropertiesSet();
+        if (healthCheckInterval != null && !replicas.isEmpty()) {
+            healthCheckExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replica-health-check");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = healthCheckInterval.toMillis();
+            healthCheckExecutor.scheduleWithFixedDelay(this::checkReplicas, 0, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (healthCheckExecutor != null) {
+            healthCheckExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * <p>Check the health and the lag of all the replicas.</p>
+     */
+    public void checkReplicas() {
+        replicas.forEach(replica -> replica.checkHealth(lagProbe));
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return PRIMARY_KEY;
+        }
+        ReplicaPool replica = selectReplica();
+        return replica != null ? replica.getName() : PRIMARY_KEY;
+    }
+
+    private ReplicaPool selectReplica() {
+        List<ReplicaPool> available = new ArrayList<>(replicas.size());
+        for (ReplicaPool replica : replicas) {
+            if (replica.isHealthy() && (maxLag == null || replica.getLag().compareTo(maxLag) <= 0)) {
+                available.add(replica);
+            }
+        }
+        if (available.isEmpty()) {
+            if (!replicas.isEmpty()) {
+                log.debug("Aucune replica disponible, utilisation de la base primaire");
+            }
+            return null;
+        }
+        if (selection == Selection.LEAST_LOADED) {
+            return available.stream().min(Comparator.comparingInt(ReplicaPool::getLoad)).orElseThrow();
+        }
+        return available.get(Math.floorMod(nextReplica.getAndIncrement(), available.size()));
+    }
+}
@@ -0,0 +1,76 @@
+package nc.deveo.query.datasource;
+
+import lombok.Getter;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Data source sending the connections to one of the shards (for example one database per region),
+ * selected for the current thread by {@link #executeOn(String, Supplier)}. The first shard is used outside of
+ * {@link #executeOn(String, Supplier)}.
+ * <p>
+ * The entity manager factory of this data source sees the entities of all the shards: the entities whose
+ * identifiers are not unique across the shards must not be in the second-level cache.
+ * eg:
+ * <code>
+ * &#64;Bean
+ * &#64;Primary
+ * public ShardRoutingDataSource dataSource() {
+ * return new ShardRoutingDataSource(Map.of("nord", nord, "sud", sud));
+ * }
+ * </code>
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final ThreadLocal<String> CURRENT_SHARD = new ThreadLocal<>();
+
+    @Getter
+    private final List<String> shards;
+
+    public ShardRoutingDataSource(Map<String, DataSource> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("Aucun shard");
+        }
+        Map<String, DataSource> orderedShards = new LinkedHashMap<>(shards);
+        this.shards = List.copyOf(orderedShards.keySet());
+        setTargetDataSources(new HashMap<>(orderedShards));
+        setDefaultTargetDataSource(orderedShards.values().iterator().next());
+        afterPropertiesSet();
+    }
+
+    /**
+     * <p>Execute the action with the connections of the shard. The transactions must begin inside the action.</p>
+     *
+     * @param shard  the name of the shard.
+     * @param action the action.
+     * @param <T>    the type of the result.
+     * @return the result of the action.
+     */
+    public <T> T executeOn(String shard, Supplier<T> action) {
+        if (!shards.contains(shard)) {
+            throw new IllegalArgumentException("Shard inconnu : " + shard);
+        }
+        String previousShard = CURRENT_SHARD.get();
+        CURRENT_SHARD.set(shard);
+        try {
+            return action.get();
+        } finally {
+            if (previousShard != null) {
+                CURRENT_SHARD.set(previousShard);
+            } else {
+                CURRENT_SHARD.remove();
+            }
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return CURRENT_SHARD.get();
+    }
+}
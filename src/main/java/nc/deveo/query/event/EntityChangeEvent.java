@@ -0,0 +1,37 @@
+package nc.deveo.query.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A committed change of an entity, published by the {@link EntityChangePublisher}.
+ */
+@Getter
+@AllArgsConstructor
+public class EntityChangeEvent {
+
+    public enum Operation {
+        INSERT,
+        UPDATE,
+        DELETE
+    }
+
+    private final Class<?> entityType;
+    private final Object id;
+    private final Object entity;
+    private final Operation operation;
+
+    /**
+     * The version of the entity after the change, null if the entity is not versioned.
+     */
+    private final Object version;
+
+    public EntityChangeEvent(Class<?> entityType, Object id, Object entity, Operation operation) {
+        this(entityType, id, entity, operation, null);
+    }
+
+    @Override
+    public String toString() {
+        return "EntityChangeEvent [" + operation + " " + entityType.getSimpleName() + "#" + id + "]";
+    }
+}
@@ -0,0 +1,15 @@
+package nc.deveo.query.event;
+
+/**
+ * Listener of the committed entity changes, registered on the {@link EntityChangePublisher}.
+ */
+@FunctionalInterface
+public interface EntityChangeListener {
+
+    /**
+     * <p>Called after the commit of the transaction which changed the entity, on the committing thread.</p>
+     *
+     * @param event the change.
+     */
+    void onChange(EntityChangeEvent event);
+}
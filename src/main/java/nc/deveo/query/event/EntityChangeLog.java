@@ -0,0 +1,295 @@
+package nc.deveo.query.event;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Change-tracking log of the entity types registered with {@link #track(Class)}: each committed insert, update and
+ * delete published by the {@link EntityChangePublisher} is appended to the table {@value #TABLE} with an increasing
+ * sequence, read back with {@link #read} to answer the "changed since" requests.
+ * The table is created by the application, eg with liquibase:
+ * <code>
+ * CREATE TABLE query_change_log (
+ * seq BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+ * entity_type VARCHAR(255) NOT NULL,
+ * entity_id VARCHAR(255) NOT NULL,
+ * entity_version VARCHAR(255),
+ * operation VARCHAR(10) NOT NULL,
+ * changed_at TIMESTAMP NOT NULL);
+ * CREATE INDEX idx_query_change_log_type_seq ON query_change_log (entity_type, seq);
+ * CREATE INDEX idx_query_change_log_changed_at ON query_change_log (changed_at);
+ * </code>
+ * The changes are written after the commit by a single thread per instance, with the time of the database.
+ * With several instances, a sequence can be committed after a greater one of another instance: the log is only read
+ * up to a safe horizon, the last sequence before the first change written less than the settle delay ago
+ * (query.change-log.settle-delay, 5 seconds by default). The settle delay must be greater than twice the longest
+ * write of a batch of changes, the changes are returned to the readers after this delay.
+ * A change committed just before a crash of the application can be lost, the clients must fully reload their result
+ * from time to time. The changes not written yet are kept in memory, at most query.change-log.max-pending (100000 by
+ * default) when the database is unavailable: beyond, they are dropped and a reset entry is written, which expires all
+ * the previous sequences.
+ * The entries older than the retention (query.change-log.retention, 7 days by default) are purged,
+ * the latest entry is always kept to detect the expired sequences.
+ */
+@Log4j2
+@Component
+public class EntityChangeLog implements DisposableBean {
+
+    public static final String TABLE = "query_change_log";
+
+    private static final long FLUSH_INTERVAL_MS = 200;
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final Duration PURGE_INTERVAL = Duration.ofHours(1);
+
+    /**
+     * Entity type of the reset entries, written after changes were dropped.
+     */
+    private static final String RESET_TYPE = "*";
+
+    private static final String INSERT = "INSERT INTO " + TABLE
+            + " (entity_type, entity_id, entity_version, operation, changed_at) VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)";
+
+    /**
+     * A change read from the log.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    public static class Entry {
+
+        private final long sequence;
+        private final String id;
+        private final EntityChangeEvent.Operation operation;
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final EntityChangePublisher entityChangePublisher;
+
+    private final Duration retention;
+
+    /**
+     * Minimum age of the changes returned to the readers, see the class documentation.
+     */
+    @Getter
+    @Setter
+    private volatile Duration settleDelay;
+
+    /**
+     * Maximum number of changes waiting to be written, see the class documentation.
+     */
+    @Getter
+    @Setter
+    private volatile int maxPending;
+
+    private final Set<Class<?>> trackedTypes = ConcurrentHashMap.newKeySet();
+
+    // guarded by pending
+    private final Deque<Object[]> pending = new ArrayDeque<>();
+    private boolean dropped;
+
+    private ScheduledExecutorService writer;
+
+    private Instant lastPurge = Instant.EPOCH;
+
+    public EntityChangeLog(JdbcTemplate jdbcTemplate, EntityChangePublisher entityChangePublisher,
+                           @Value("${query.change-log.retention:P7D}") Duration retention,
+                           @Value("${query.change-log.settle-delay:PT5S}") Duration settleDelay,
+                           @Value("${query.change-log.max-pending:100000}") int maxPending) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityChangePublisher = entityChangePublisher;
+        this.retention = retention;
+        this.settleDelay = settleDelay;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Record the committed changes of an entity type and of its subclasses, from now on.
+     */
+    public synchronized void track(Class<?> entityType) {
+        trackedTypes.add(entityType);
+        if (writer == null) {
+            entityChangePublisher.subscribe(this::onChange);
+            writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "query-change-log");
+                thread.setDaemon(true);
+                return thread;
+            });
+            writer.scheduleWithFixedDelay(this::flushAndPurge, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isTracked(Class<?> entityType) {
+        return trackedTypes.contains(entityType);
+    }
+
+    private void onChange(EntityChangeEvent event) {
+        int size;
+        synchronized (pending) {
+            for (Class<?> trackedType : trackedTypes) {
+                if (trackedType.isAssignableFrom(event.getEntityType())) {
+                    pending.addLast(new Object[]{trackedType.getName(), String.valueOf(event.getId()),
+                            event.getVersion() != null ? event.getVersion().toString() : null, event.getOperation().name()});
+                }
+            }
+            dropIfFull();
+            size = pending.size();
+        }
+        if (size >= BATCH_SIZE && writer != null) {
+            writer.execute(this::flushAndPurge);
+        }
+    }
+
+    /**
+     * <p>Write the pending changes in the table, in their commit order. A batch which cannot be written is put back
+     * at the head of the pending changes, for the next flush.</p>
+     */
+    public synchronized void flush() {
+        while (true) {
+            boolean reset;
+            List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+            synchronized (pending) {
+                reset = dropped;
+                dropped = false;
+                while (batch.size() < BATCH_SIZE && !pending.isEmpty()) {
+                    batch.add(pending.pollFirst());
+                }
+            }
+            if (!reset && batch.isEmpty()) {
+                return;
+            }
+            try {
+                if (reset) {
+                    jdbcTemplate.update(INSERT, RESET_TYPE, RESET_TYPE, null, "RESET");
+                    reset = false;
+                }
+                if (!batch.isEmpty()) {
+                    jdbcTemplate.batchUpdate(INSERT, batch);
+                }
+            } catch (RuntimeException ex) {
+                synchronized (pending) {
+                    dropped |= reset;
+                    for (int i = batch.size() - 1; i >= 0; i--) {
+                        pending.addFirst(batch.get(i));
+                    }
+                    dropIfFull();
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Beyond maxPending, drop the pending changes: the reset entry written by the next flush expires the sequences
+     * read before, whose changes would be missing.
+     */
+    private void dropIfFull() {
+        if (pending.size() > maxPending) {
+            log.error("{} changements non écrits perdus : le journal est réinitialisé, les clients rechargeront leur résultat", pending.size());
+            pending.clear();
+            dropped = true;
+        }
+    }
+
+    private void flushAndPurge() {
+        try {
+            flush();
+            if (Instant.now().isAfter(lastPurge.plus(PURGE_INTERVAL))) {
+                lastPurge = Instant.now();
+                int purged = jdbcTemplate.update("DELETE FROM " + TABLE + " WHERE changed_at < ? AND seq < (SELECT MAX(seq) FROM " + TABLE + ")",
+                        Timestamp.from(lastPurge.minus(retention)));
+                if (purged > 0) {
+                    log.info("{} changements de plus de {} purgés du journal", purged, retention);
+                }
+            }
+        } catch (RuntimeException ex) {
+            // les changements non écrits restent en attente jusqu'au prochain passage
+            log.error("Erreur lors de l'écriture du journal des changements", ex);
+        }
+    }
+
+    /**
+     * @return the safe horizon of the log: the sequence before the first change written less than the settle delay
+     * ago, the latest sequence if there is none, 0 if the log is empty. All the changes up to it are committed.
+     */
+    public long getLatestSequence() {
+        // la dernière ligne, lue par la clé primaire, donne aussi l'heure de la base
+        List<Object[]> latest = jdbcTemplate.query("SELECT CURRENT_TIMESTAMP, seq FROM " + TABLE + " WHERE seq = (SELECT MAX(seq) FROM " + TABLE + ")",
+                (resultSet, rowNum) -> new Object[]{resultSet.getTimestamp(1), resultSet.getLong(2)});
+        if (latest.isEmpty()) {
+            return 0;
+        }
+        Timestamp horizon = Timestamp.from(((Timestamp) latest.get(0)[0]).toInstant().minus(settleDelay));
+        Long firstRecent = jdbcTemplate.queryForObject("SELECT MIN(seq) FROM " + TABLE + " WHERE changed_at > ?", Long.class, horizon);
+        return firstRecent != null ? firstRecent - 1 : (long) latest.get(0)[1];
+    }
+
+    /**
+     * @param sequence a sequence returned by the log.
+     * @return true if the changes after the sequence are still in the log: not purged, not dropped before a reset
+     * and not from another database.
+     */
+    public boolean isAvailable(long sequence) {
+        return jdbcTemplate.query("SELECT MIN(seq), MAX(seq), (SELECT MAX(seq) FROM " + TABLE + " WHERE entity_type = ?) FROM " + TABLE, resultSet -> {
+            resultSet.next();
+            long oldest = resultSet.getLong(1);
+            if (resultSet.wasNull()) {
+                return sequence == 0;
+            }
+            long lastReset = resultSet.getLong(3);
+            if (!resultSet.wasNull() && sequence < lastReset) {
+                return false;
+            }
+            return sequence >= oldest - 1 && sequence <= resultSet.getLong(2);
+        }, RESET_TYPE);
+    }
+
+    /**
+     * @param entityType the tracked entity type.
+     * @param sequence   the changes after this sequence are read.
+     * @param upTo       the last sequence read, the safe horizon given by {@link #getLatestSequence()}.
+     * @param limit      the maximum number of changes read.
+     * @return the changes in their order, at most limit + 1 to know if there are more.
+     */
+    public List<Entry> read(Class<?> entityType, long sequence, long upTo, int limit) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "SELECT seq, entity_id, operation FROM " + TABLE + " WHERE entity_type = ? AND seq > ? AND seq <= ? ORDER BY seq");
+            statement.setString(1, entityType.getName());
+            statement.setLong(2, sequence);
+            statement.setLong(3, upTo);
+            statement.setMaxRows(limit + 1);
+            return statement;
+        }, (resultSet, rowNum) -> new Entry(resultSet.getLong(1), resultSet.getString(2),
+                EntityChangeEvent.Operation.valueOf(resultSet.getString(3))));
+    }
+
+    @Override
+    public void destroy() {
+        if (writer != null) {
+            writer.shutdown();
+            flushAndPurge();
+        }
+    }
+}
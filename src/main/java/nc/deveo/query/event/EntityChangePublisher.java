@@ -0,0 +1,113 @@
+package nc.deveo.query.event;
+
+import lombok.extern.log4j.Log4j2;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publish the committed inserts, updates and deletes of all the entities to the registered
+ * {@link EntityChangeListener}, through the Hibernate post-commit event listeners.
+ * It also maintains a change version per entity type, incremented at each committed change.
+ */
+@Log4j2
+@Component
+public class EntityChangePublisher implements PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+    private final List<EntityChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final Map<Class<?>, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    public EntityChangePublisher(EntityManagerFactory entityManagerFactory) {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class)
+                .getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+    }
+
+    public void subscribe(EntityChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void unsubscribe(EntityChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * The change version of an entity type, including the changes of its subclasses.
+     * The versions start at 0 at each startup of the application.
+     *
+     * @param entityType the entity type.
+     * @return the number of committed changes of the type since the startup.
+     */
+    public long getVersion(Class<?> entityType) {
+        AtomicLong version = versions.get(entityType);
+        return version != null ? version.get() : 0;
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        publish(new EntityChangeEvent(event.getPersister().getMappedClass(), event.getId(), event.getEntity(), EntityChangeEvent.Operation.INSERT,
+                getEntityVersion(event.getPersister(), event.getEntity())));
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        publish(new EntityChangeEvent(event.getPersister().getMappedClass(), event.getId(), event.getEntity(), EntityChangeEvent.Operation.UPDATE,
+                getEntityVersion(event.getPersister(), event.getEntity())));
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        publish(new EntityChangeEvent(event.getPersister().getMappedClass(), event.getId(), event.getEntity(), EntityChangeEvent.Operation.DELETE,
+                getEntityVersion(event.getPersister(), event.getEntity())));
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+        // rien n'a été commité, rien à publier
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        // rien n'a été commité, rien à publier
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+        // rien n'a été commité, rien à publier
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return true;
+    }
+
+    private static Object getEntityVersion(EntityPersister persister, Object entity) {
+        return persister.isVersioned() ? persister.getVersion(entity) : null;
+    }
+
+    private void publish(EntityChangeEvent event) {
+        for (Class<?> type = event.getEntityType(); type != null && type != Object.class; type = type.getSuperclass()) {
+            versions.computeIfAbsent(type, t -> new AtomicLong()).incrementAndGet();
+        }
+        for (EntityChangeListener listener : listeners) {
+            try {
+                listener.onChange(event);
+            } catch (RuntimeException ex) {
+                log.error("Erreur lors de la publication de {}", event, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package nc.deveo.query.index;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * In-memory bitmap index of low cardinality attributes (enums, booleans).
+ * Each entity is given a dense row ordinal; each attribute has one bitmap per value and one for the null values,
+ * so that the counts of combinations of equals / in / notIn / specified are computed with AND / OR / ANDNOT
+ * on the bitmaps, without reading any row.
+ * <p>
+ * The ordinals are dense and reused after a delete, so a plain {@link BitSet} (one bit per row) is already compact.
+ */
+public class BitmapIndex {
+
+    /**
+     * Read-only view of the bitmaps, given to {@link #count(Function)}. All the returned bitmaps are copies.
+     */
+    public interface Bitmaps {
+
+        /**
+         * @return the rows of all the indexed entities.
+         */
+        BitSet all();
+
+        /**
+         * @return the rows whose attribute has one of the given values.
+         */
+        BitSet values(String field, Collection<?> values);
+
+        /**
+         * @return the rows whose attribute is null.
+         */
+        BitSet nulls(String field);
+    }
+
+    private final Map<String, Map<Object, BitSet>> bitmapsByField = new HashMap<>();
+    private final Map<String, BitSet> nullsByField = new HashMap<>();
+    private final Map<Object, Integer> rowById = new HashMap<>();
+    private final Deque<Integer> freeRows = new ArrayDeque<>();
+    private final Map<Object, Map<String, Object>> changedBeforeWarm = new HashMap<>();
+    private final BitSet live = new BitSet();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private int rowCount;
+    private volatile boolean warm;
+
+    private final Bitmaps view = new Bitmaps() {
+        @Override
+        public BitSet all() {
+            return (BitSet) live.clone();
+        }
+
+        @Override
+        public BitSet values(String field, Collection<?> values) {
+            Map<Object, BitSet> bitmaps = getBitmaps(field);
+            BitSet result = new BitSet();
+            for (Object value : values) {
+                BitSet bitmap = bitmaps.get(value);
+                if (bitmap != null) {
+                    result.or(bitmap);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public BitSet nulls(String field) {
+            getBitmaps(field);
+            return (BitSet) nullsByField.get(field).clone();
+        }
+    };
+
+    public BitmapIndex(Collection<String> fields) {
+        fields.forEach(field -> {
+            bitmapsByField.put(field, new HashMap<>());
+            nullsByField.put(field, new BitSet());
+        });
+    }
+
+    public boolean isIndexed(String field) {
+        return bitmapsByField.containsKey(field);
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * <p>Index or re-index the values of an entity.</p>
+     *
+     * @param id            the identifier of the entity.
+     * @param valueByField  the value of each indexed attribute.
+     */
+    public void put(Object id, Map<String, Object> valueByField) {
+        lock.writeLock().lock();
+        try {
+            if (!warm) {
+                changedBeforeWarm.put(id, valueByField);
+            }
+            write(id, valueByField);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Object id) {
+        lock.writeLock().lock();
+        try {
+            if (!warm) {
+                changedBeforeWarm.put(id, null);
+            }
+            Integer row = rowById.remove(id);
+            if (row != null) {
+                clearRow(row);
+                live.clear(row);
+                freeRows.push(row);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>Replace the whole content of the index, read from the database, and mark it as warm.
+     * The changes received while the content was read take precedence over it.</p>
+     *
+     * @param valuesById the values of the indexed attributes of each entity.
+     */
+    public void warm(Map<Object, Map<String, Object>> valuesById) {
+        lock.writeLock().lock();
+        try {
+            Map<Object, Map<String, Object>> merged = new HashMap<>(valuesById);
+            changedBeforeWarm.forEach((id, valueByField) -> {
+                if (valueByField == null) {
+                    merged.remove(id);
+                } else {
+                    merged.put(id, valueByField);
+                }
+            });
+            bitmapsByField.values().forEach(Map::clear);
+            nullsByField.values().forEach(BitSet::clear);
+            rowById.clear();
+            freeRows.clear();
+            live.clear();
+            rowCount = 0;
+            merged.forEach(this::write);
+            changedBeforeWarm.clear();
+            warm = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>Count the rows selected by a combination of bitmaps, computed under a consistent view of the index.</p>
+     *
+     * @param query combine the bitmaps into the selected rows.
+     * @return the number of selected rows.
+     */
+    public long count(Function<Bitmaps, BitSet> query) {
+        lock.readLock().lock();
+        try {
+            BitSet rows = query.apply(view);
+            rows.and(live);
+            return rows.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Object id, Map<String, Object> valueByField) {
+        Integer row = rowById.get(id);
+        if (row == null) {
+            row = freeRows.isEmpty() ? rowCount++ : freeRows.pop();
+            rowById.put(id, row);
+        } else {
+            clearRow(row);
+        }
+        for (Map.Entry<String, Map<Object, BitSet>> entry : bitmapsByField.entrySet()) {
+            Object value = valueByField.get(entry.getKey());
+            if (value == null) {
+                nullsByField.get(entry.getKey()).set(row);
+            } else {
+                entry.getValue().computeIfAbsent(value, v -> new BitSet()).set(row);
+            }
+        }
+        live.set(row);
+    }
+
+    private void clearRow(int row) {
+        bitmapsByField.values().forEach(bitmaps -> bitmaps.values().forEach(bitmap -> bitmap.clear(row)));
+        nullsByField.values().forEach(nulls -> nulls.clear(row));
+    }
+
+    private Map<Object, BitSet> getBitmaps(String field) {
+        Map<Object, BitSet> bitmaps = bitmapsByField.get(field);
+        if (bitmaps == null) {
+            throw new IllegalArgumentException("Le champ " + field + " n'est pas indexé");
+        }
+        return bitmaps;
+    }
+}
@@ -0,0 +1,197 @@
+package nc.deveo.query.index;
+
+import nc.deveo.query.service.QueryService;
+
+import java.util.*;
+
+/**
+ * In-memory prefix index of a string attribute, for the typeahead requests.
+ * The distinct normalized (upper case) values are kept in a sorted array, with the number of identifiers having
+ * each value. A lookup is a binary search followed by a sequential scan.
+ * <p>
+ * The arrays are immutable and replaced on each change (copy-on-write), so the lookups never lock
+ * and the index is meant for read-mostly attributes.
+ */
+public class PrefixIndex {
+
+    /**
+     * Immutable content of the index.
+     */
+    private static final class Snapshot {
+        private final String[] keys;
+        private final String[] values;
+        private final int[] counts;
+
+        private Snapshot(String[] keys, String[] values, int[] counts) {
+            this.keys = keys;
+            this.values = values;
+            this.counts = counts;
+        }
+    }
+
+    private final Map<Long, String> valueById = new HashMap<>();
+    private final Set<Long> changedBeforeWarm = new HashSet<>();
+    private volatile Snapshot snapshot = new Snapshot(new String[0], new String[0], new int[0]);
+    private volatile boolean warm;
+
+    /**
+     * <p>Normalize a value like the startsWith operator of the QueryService.</p>
+     *
+     * @param value a {@link String} object.
+     * @return the upper case value.
+     */
+    public static String normalize(String value) {
+        return value.toUpperCase(QueryService.UPPER_CASE_LOCALE);
+    }
+
+    /**
+     * <p>Whether the index has been loaded, the lookups must not be served before.</p>
+     *
+     * @return a boolean.
+     */
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public int size() {
+        synchronized (valueById) {
+            return valueById.size();
+        }
+    }
+
+    /**
+     * <p>Index or re-index the value of an identifier, null to remove it.</p>
+     *
+     * @param id    the identifier of the entity.
+     * @param value the value of the attribute.
+     */
+    public void put(long id, String value) {
+        synchronized (valueById) {
+            if (!warm) {
+                changedBeforeWarm.add(id);
+            }
+            String oldValue = value != null ? valueById.put(id, value) : valueById.remove(id);
+            String oldKey = oldValue != null ? normalize(oldValue) : null;
+            String newKey = value != null ? normalize(value) : null;
+            if (Objects.equals(oldKey, newKey)) {
+                return;
+            }
+            Snapshot current = snapshot;
+            if (oldKey != null) {
+                current = removeValue(current, oldKey);
+            }
+            if (newKey != null) {
+                current = addValue(current, newKey, value);
+            }
+            snapshot = current;
+        }
+    }
+
+    public void remove(long id) {
+        put(id, null);
+    }
+
+    /**
+     * <p>Load the whole content of the index, read from the database, and mark it as warm.
+     * The changes received while the content was read take precedence over it.</p>
+     *
+     * @param loadedValueById the value of each identifier.
+     */
+    public void warm(Map<Long, String> loadedValueById) {
+        synchronized (valueById) {
+            Map<Long, String> merged = new HashMap<>(loadedValueById);
+            merged.keySet().removeAll(changedBeforeWarm);
+            merged.putAll(valueById);
+            merged.values().removeIf(Objects::isNull);
+
+            TreeMap<String, String> valueByKey = new TreeMap<>();
+            Map<String, Integer> countByKey = new HashMap<>();
+            merged.values().forEach(value -> {
+                String key = normalize(value);
+                valueByKey.putIfAbsent(key, value);
+                countByKey.merge(key, 1, Integer::sum);
+            });
+
+            int size = valueByKey.size();
+            String[] keys = new String[size];
+            String[] values = new String[size];
+            int[] counts = new int[size];
+            int i = 0;
+            for (Map.Entry<String, String> entry : valueByKey.entrySet()) {
+                keys[i] = entry.getKey();
+                values[i] = entry.getValue();
+                counts[i] = countByKey.get(entry.getKey());
+                i++;
+            }
+            valueById.clear();
+            valueById.putAll(merged);
+            changedBeforeWarm.clear();
+            snapshot = new Snapshot(keys, values, counts);
+            warm = true;
+        }
+    }
+
+    /**
+     * <p>The values starting with the given prefix, case insensitive, in the order of their normalized form.</p>
+     *
+     * @param prefix the searched prefix.
+     * @param limit  the maximum number of values.
+     * @return the values, as first indexed.
+     */
+    public List<String> suggest(String prefix, int limit) {
+        Snapshot current = snapshot;
+        String normalizedPrefix = normalize(prefix);
+        int position = Arrays.binarySearch(current.keys, normalizedPrefix);
+        int start = position >= 0 ? position : -position - 1;
+
+        List<String> suggestions = new ArrayList<>(Math.min(limit, 16));
+        for (int i = start; i < current.keys.length && suggestions.size() < limit && current.keys[i].startsWith(normalizedPrefix); i++) {
+            suggestions.add(current.values[i]);
+        }
+        return suggestions;
+    }
+
+    private static Snapshot addValue(Snapshot current, String key, String value) {
+        int position = Arrays.binarySearch(current.keys, key);
+        if (position >= 0) {
+            int[] counts = current.counts.clone();
+            counts[position]++;
+            return new Snapshot(current.keys, current.values, counts);
+        }
+        int insertion = -position - 1;
+        int[] counts = new int[current.counts.length + 1];
+        System.arraycopy(current.counts, 0, counts, 0, insertion);
+        counts[insertion] = 1;
+        System.arraycopy(current.counts, insertion, counts, insertion + 1, current.counts.length - insertion);
+        return new Snapshot(insert(current.keys, insertion, key), insert(current.values, insertion, value), counts);
+    }
+
+    private static Snapshot removeValue(Snapshot current, String key) {
+        int position = Arrays.binarySearch(current.keys, key);
+        if (position < 0) {
+            return current;
+        }
+        if (current.counts[position] == 1) {
+            int[] counts = new int[current.counts.length - 1];
+            System.arraycopy(current.counts, 0, counts, 0, position);
+            System.arraycopy(current.counts, position + 1, counts, position, current.counts.length - position - 1);
+            return new Snapshot(delete(current.keys, position), delete(current.values, position), counts);
+        }
+        int[] counts = current.counts.clone();
+        counts[position]--;
+        return new Snapshot(current.keys, current.values, counts);
+    }
+
+    private static <T> T[] insert(T[] array, int position, T element) {
+        T[] result = Arrays.copyOf(array, array.length + 1);
+        System.arraycopy(array, position, result, position + 1, array.length - position);
+        result[position] = element;
+        return result;
+    }
+
+    private static <T> T[] delete(T[] array, int position) {
+        T[] result = Arrays.copyOf(array, array.length - 1);
+        System.arraycopy(array, position + 1, result, position, array.length - position - 1);
+        return result;
+    }
+}
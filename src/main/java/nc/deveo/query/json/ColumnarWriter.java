@@ -0,0 +1,158 @@
+package nc.deveo.query.json;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.springframework.data.domain.Page;
+import org.springframework.lang.Nullable;
+
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Columnar binary writer of an entity type and projection, built once from the JPA metamodel.
+ * All the numbers are big-endian:
+ * <pre>
+ * long  totalElements
+ * int   page number
+ * int   page size
+ * int   row count
+ * int   column count
+ * for each column:
+ *   utf   name (DataOutput.writeUTF)
+ *   byte  type: 0 string, 1 long, 2 double, 3 boolean
+ *   bytes null bitmap: (row count + 7) / 8 bytes, bit i of byte i / 8 set when the value of the row i is null
+ *   the values of the non null rows: long and double on 8 bytes, boolean on 1 byte,
+ *   string as an int length followed by the UTF-8 bytes
+ * </pre>
+ * The single-valued associations are written as their identifier, the collections cannot be written.
+ *
+ * @param <E> the type of the written entities.
+ */
+public final class ColumnarWriter<E> {
+
+    static final byte STRING = 0;
+    static final byte LONG = 1;
+    static final byte DOUBLE = 2;
+    static final byte BOOLEAN = 3;
+
+    private record Column(String name, byte type, Field field, boolean association) {
+    }
+
+    private final List<Column> columns = new ArrayList<>();
+    private final PersistenceUnitUtil unitUtil;
+
+    /**
+     * @param type       the written entity type.
+     * @param fields     the written attributes, all the attributes but the collections if null.
+     * @param metamodel  the JPA metamodel.
+     * @param unitUtil   to read the identifiers of the proxies without initializing them.
+     */
+    public ColumnarWriter(Class<E> type, @Nullable Collection<String> fields, Metamodel metamodel, PersistenceUnitUtil unitUtil) {
+        this.unitUtil = unitUtil;
+        ManagedType<E> managedType = metamodel.managedType(type);
+        if (fields != null) {
+            for (String fieldName : fields) {
+                if (FieldUtils.getField(type, fieldName, true) == null) {
+                    throw new IllegalArgumentException("Impossible de trouver le champ " + fieldName);
+                }
+            }
+        }
+        for (Field field : FieldUtils.getAllFieldsList(type)) {
+            if ((fields != null && !fields.contains(field.getName())) || Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            Attribute<?, ?> attribute;
+            try {
+                attribute = managedType.getAttribute(field.getName());
+            } catch (IllegalArgumentException ex) {
+                // champ non persistant
+                continue;
+            }
+            if (attribute instanceof PluralAttribute) {
+                if (fields != null) {
+                    throw new IllegalArgumentException("Le champ " + field.getName() + " est une liste, il ne peut pas être écrit en colonnes");
+                }
+                continue;
+            }
+            field.setAccessible(true);
+            Class<?> valueType = attribute.isAssociation()
+                    ? metamodel.entity(attribute.getJavaType()).getIdType().getJavaType()
+                    : attribute.getJavaType();
+            columns.add(new Column(field.getName(), typeOf(valueType), field, attribute.isAssociation()));
+        }
+    }
+
+    public void writePage(Page<E> page, OutputStream output) throws IOException {
+        DataOutputStream data = new DataOutputStream(output);
+        List<E> content = page.getContent();
+        data.writeLong(page.getTotalElements());
+        data.writeInt(page.getNumber());
+        data.writeInt(page.getSize());
+        data.writeInt(content.size());
+        data.writeInt(columns.size());
+
+        Object[] values = new Object[content.size()];
+        for (Column column : columns) {
+            byte[] nulls = new byte[(content.size() + 7) / 8];
+            for (int row = 0; row < values.length; row++) {
+                values[row] = read(column, content.get(row));
+                if (values[row] == null) {
+                    nulls[row / 8] |= (byte) (1 << (row % 8));
+                }
+            }
+            data.writeUTF(column.name());
+            data.writeByte(column.type());
+            data.write(nulls);
+            for (Object value : values) {
+                if (value != null) {
+                    writeValue(data, column.type(), value);
+                }
+            }
+        }
+        data.flush();
+    }
+
+    @Nullable
+    private Object read(Column column, E entity) {
+        try {
+            Object value = column.field().get(entity);
+            return value != null && column.association() ? unitUtil.getIdentifier(value) : value;
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void writeValue(DataOutputStream data, byte type, Object value) throws IOException {
+        switch (type) {
+            case LONG -> data.writeLong(((Number) value).longValue());
+            case DOUBLE -> data.writeDouble(((Number) value).doubleValue());
+            case BOOLEAN -> data.writeBoolean((Boolean) value);
+            default -> {
+                byte[] bytes = (value instanceof Enum ? ((Enum<?>) value).name() : value.toString()).getBytes(StandardCharsets.UTF_8);
+                data.writeInt(bytes.length);
+                data.write(bytes);
+            }
+        }
+    }
+
+    private static byte typeOf(Class<?> valueType) {
+        if (valueType == Long.class || valueType == long.class || valueType == Integer.class || valueType == int.class
+                || valueType == Short.class || valueType == short.class) {
+            return LONG;
+        } else if (valueType == Double.class || valueType == double.class || valueType == Float.class || valueType == float.class) {
+            return DOUBLE;
+        } else if (valueType == Boolean.class || valueType == boolean.class) {
+            return BOOLEAN;
+        }
+        return STRING;
+    }
+}
@@ -0,0 +1,198 @@
+package nc.deveo.query.json;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import nc.deveo.query.service.EstimatedPage;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.hibernate.Hibernate;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.springframework.data.domain.Page;
+import org.springframework.lang.Nullable;
+
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * JSON writer of an entity type and projection, built once from the JPA metamodel and reused for every response.
+ * <p>
+ * The writer never initializes a lazy association: a single-valued association is written as its identifier,
+ * a collection is written only if it is already initialized, and omitted otherwise.
+ * The collections of the entities of a collection are never written.
+ *
+ * @param <E> the type of the written entities.
+ */
+public final class EntityJsonWriter<E> {
+
+    private static final SerializedString CONTENT = new SerializedString("content");
+    private static final SerializedString TOTAL_ELEMENTS = new SerializedString("totalElements");
+    private static final SerializedString TOTAL_ESTIMATED = new SerializedString("totalEstimated");
+    private static final SerializedString TOTAL_PAGES = new SerializedString("totalPages");
+    private static final SerializedString SIZE = new SerializedString("size");
+    private static final SerializedString NUMBER = new SerializedString("number");
+    private static final SerializedString NUMBER_OF_ELEMENTS = new SerializedString("numberOfElements");
+    private static final SerializedString FIRST = new SerializedString("first");
+    private static final SerializedString LAST = new SerializedString("last");
+    private static final SerializedString EMPTY = new SerializedString("empty");
+
+    private interface PropertyWriter {
+        void write(Object entity, JsonGenerator generator) throws IOException, IllegalAccessException;
+    }
+
+    private final List<PropertyWriter> propertyWriters = new ArrayList<>();
+
+    /**
+     * @param type       the written entity type.
+     * @param fields     the written attributes, all the attributes if null.
+     * @param metamodel  the JPA metamodel.
+     * @param unitUtil   to read the identifiers of the proxies without initializing them.
+     */
+    public EntityJsonWriter(Class<E> type, @Nullable Collection<String> fields, Metamodel metamodel, PersistenceUnitUtil unitUtil) {
+        this(type, fields, Set.of(), true, metamodel, unitUtil);
+    }
+
+    private EntityJsonWriter(Class<?> type, @Nullable Collection<String> fields, Set<String> ignoredFields,
+                             boolean withCollections, Metamodel metamodel, PersistenceUnitUtil unitUtil) {
+        ManagedType<?> managedType = metamodel.managedType(type);
+        if (fields != null) {
+            for (String fieldName : fields) {
+                if (FieldUtils.getField(type, fieldName, true) == null) {
+                    throw new IllegalArgumentException("Impossible de trouver le champ " + fieldName);
+                }
+            }
+        }
+        for (Field field : FieldUtils.getAllFieldsList(type)) {
+            if ((fields != null && !fields.contains(field.getName())) || ignoredFields.contains(field.getName())
+                    || field.isAnnotationPresent(JsonIgnore.class) || Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            Attribute<?, ?> attribute;
+            try {
+                attribute = managedType.getAttribute(field.getName());
+            } catch (IllegalArgumentException ex) {
+                // champ non persistant
+                continue;
+            }
+            field.setAccessible(true);
+            SerializedString name = new SerializedString(field.getName());
+
+            if (attribute instanceof PluralAttribute) {
+                if (!withCollections) {
+                    continue;
+                }
+                JsonIgnoreProperties ignoreProperties = field.getAnnotation(JsonIgnoreProperties.class);
+                EntityJsonWriter<?> elementWriter = new EntityJsonWriter<>(((PluralAttribute<?, ?, ?>) attribute).getElementType().getJavaType(),
+                        null, ignoreProperties != null ? Set.of(ignoreProperties.value()) : Set.of(), false, metamodel, unitUtil);
+                propertyWriters.add((entity, generator) -> {
+                    Object value = field.get(entity);
+                    if (value == null || !Hibernate.isInitialized(value)) {
+                        return;
+                    }
+                    generator.writeFieldName(name);
+                    generator.writeStartArray();
+                    for (Object element : (Collection<?>) value) {
+                        elementWriter.writeEntity(element, generator);
+                    }
+                    generator.writeEndArray();
+                });
+            } else if (attribute.isAssociation()) {
+                propertyWriters.add((entity, generator) -> {
+                    Object value = field.get(entity);
+                    generator.writeFieldName(name);
+                    if (value == null) {
+                        generator.writeNull();
+                    } else {
+                        generator.writeObject(unitUtil.getIdentifier(value));
+                    }
+                });
+            } else {
+                propertyWriters.add((entity, generator) -> {
+                    generator.writeFieldName(name);
+                    writeValue(field.get(entity), generator);
+                });
+            }
+        }
+    }
+
+    /**
+     * Write a page of entities, with the same main properties as the default serialization of a {@link Page}.
+     */
+    public void writePage(Page<E> page, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(CONTENT);
+        generator.writeStartArray();
+        for (E entity : page.getContent()) {
+            writeEntity(entity, generator);
+        }
+        generator.writeEndArray();
+        generator.writeFieldName(TOTAL_ELEMENTS);
+        generator.writeNumber(page.getTotalElements());
+        if (page instanceof EstimatedPage) {
+            generator.writeFieldName(TOTAL_ESTIMATED);
+            generator.writeBoolean(true);
+        }
+        generator.writeFieldName(TOTAL_PAGES);
+        generator.writeNumber(page.getTotalPages());
+        generator.writeFieldName(SIZE);
+        generator.writeNumber(page.getSize());
+        generator.writeFieldName(NUMBER);
+        generator.writeNumber(page.getNumber());
+        generator.writeFieldName(NUMBER_OF_ELEMENTS);
+        generator.writeNumber(page.getNumberOfElements());
+        generator.writeFieldName(FIRST);
+        generator.writeBoolean(page.isFirst());
+        generator.writeFieldName(LAST);
+        generator.writeBoolean(page.isLast());
+        generator.writeFieldName(EMPTY);
+        generator.writeBoolean(page.isEmpty());
+        generator.writeEndObject();
+    }
+
+    public void writeEntity(Object entity, JsonGenerator generator) throws IOException {
+        if (entity instanceof HibernateProxy) {
+            LazyInitializer initializer = ((HibernateProxy) entity).getHibernateLazyInitializer();
+            if (initializer.isUninitialized()) {
+                generator.writeObject(initializer.getIdentifier());
+                return;
+            }
+            entity = initializer.getImplementation();
+        }
+        generator.writeStartObject();
+        try {
+            for (PropertyWriter propertyWriter : propertyWriters) {
+                propertyWriter.write(entity, generator);
+            }
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeValue(@Nullable Object value, JsonGenerator generator) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Enum) {
+            generator.writeString(((Enum<?>) value).name());
+        } else {
+            // dates, UUID, embeddables... : sérialisation du codec (ObjectMapper de l'application)
+            generator.writeObject(value);
+        }
+    }
+}
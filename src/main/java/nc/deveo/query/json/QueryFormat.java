@@ -0,0 +1,51 @@
+package nc.deveo.query.json;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.lang.Nullable;
+
+import java.util.List;
+
+/**
+ * The formats of the query responses, chosen from the Accept header of the request.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum QueryFormat {
+    JSON(MediaType.APPLICATION_JSON),
+    CBOR(MediaType.APPLICATION_CBOR),
+    SMILE(new MediaType("application", "x-jackson-smile")),
+    /**
+     * Length-prefixed columns, see {@link ColumnarWriter}. Only for the projections.
+     */
+    COLUMNAR(new MediaType("application", "x-query-columnar"));
+
+    private final MediaType mediaType;
+
+    /**
+     * @param accept the Accept header of the request.
+     * @return the preferred format of the client, JSON by default.
+     */
+    public static QueryFormat negotiate(@Nullable String accept) {
+        if (accept == null) {
+            return JSON;
+        }
+        List<MediaType> mediaTypes;
+        try {
+            mediaTypes = MediaType.parseMediaTypes(accept);
+        } catch (InvalidMediaTypeException ex) {
+            return JSON;
+        }
+        MediaType.sortBySpecificityAndQuality(mediaTypes);
+        for (MediaType mediaType : mediaTypes) {
+            for (QueryFormat format : values()) {
+                if (mediaType.includes(format.mediaType)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,130 @@
+package nc.deveo.query.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * AIMD limit of the executions in progress, see {@link ConcurrencyLimitPolicy}.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final ConcurrencyLimitPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    private final Condition released = lock.newCondition();
+
+    /**
+     * Fractional, to grow by one per window of {@code limit} successful executions.
+     */
+    private double limit;
+
+    private int inFlight;
+
+    /**
+     * Time of the last decrease: the executions started before are from the same window and do not decrease it again.
+     */
+    private long lastDecrease;
+
+    private boolean decreased;
+
+    private int queued;
+
+    public AdaptiveConcurrencyLimiter(ConcurrencyLimitPolicy policy) {
+        this.policy = policy;
+        this.limit = Math.max(policy.getMinLimit(), Math.min(policy.getMaxLimit(), policy.getInitialLimit()));
+    }
+
+    /**
+     * Wait for a slot, at most {@link ConcurrencyLimitPolicy#getQueueTimeout()}.
+     *
+     * @return the start of the execution, to give to {@link #release(long, boolean)}.
+     * @throws QueryRejectedException if the queue is full or no slot is released in time.
+     */
+    public long acquire() {
+        lock.lock();
+        try {
+            if (inFlight >= (int) limit) {
+                if (queued >= policy.getMaxQueue()) {
+                    throw new QueryRejectedException("Trop de requêtes en cours (limite " + (int) limit + "), file d'attente pleine");
+                }
+                queued++;
+                try {
+                    long remaining = policy.getQueueTimeout().toNanos();
+                    while (inFlight >= (int) limit) {
+                        if (remaining <= 0) {
+                            throw new QueryRejectedException("Trop de requêtes en cours (limite " + (int) limit + "), aucune place disponible");
+                        }
+                        remaining = released.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new QueryRejectedException("Trop de requêtes en cours (limite " + (int) limit + "), attente interrompue");
+                } finally {
+                    queued--;
+                }
+            }
+            inFlight++;
+            return System.nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Release the slot and adapt the limit to the latency of the execution.
+     *
+     * @param start    the value returned by {@link #acquire()}.
+     * @param overload true if the execution failed because the database is overloaded (timeout).
+     */
+    public void release(long start, boolean overload) {
+        long latency = System.nanoTime() - start;
+        lock.lock();
+        try {
+            // la limite n'augmente que si elle est atteinte, sinon elle n'est pas la contrainte
+            boolean limited = inFlight >= (int) limit;
+            inFlight--;
+            if (overload || latency > policy.getLatencyThreshold().toNanos()) {
+                // une seule diminution par fenêtre : les exécutions en cours ont subi la même surcharge
+                if (!decreased || start - lastDecrease > 0) {
+                    limit = Math.max(policy.getMinLimit(), limit * policy.getBackoffRatio());
+                    lastDecrease = System.nanoTime();
+                    decreased = true;
+                }
+            } else if (limited) {
+                limit = Math.min(policy.getMaxLimit(), limit + 1 / limit);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package nc.deveo.query.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.logging.log4j.ThreadContext;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded executor of the asynchronous requests of a {@link QueryService}.
+ * The locale, the request attributes and the logging context of the caller are set on the executing thread,
+ * then the {@link AsyncQueryPolicy#getTaskDecorator()} carries the other contexts.
+ * The transaction of the caller is never shared: the request is executed in its own transaction.
+ */
+@Log4j2
+final class AsyncQueryExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    private final TaskDecorator taskDecorator;
+
+    AsyncQueryExecutor(String name, AsyncQueryPolicy policy) {
+        ThreadFactory threadFactory = policy.isVirtualThreads() ? virtualThreadFactory(name) : null;
+        if (threadFactory == null) {
+            CustomizableThreadFactory platformThreadFactory = new CustomizableThreadFactory(name + "-");
+            platformThreadFactory.setDaemon(true);
+            threadFactory = platformThreadFactory;
+        }
+        executor = new ThreadPoolExecutor(policy.getMaxThreads(), policy.getMaxThreads(), 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(policy.getMaxQueue()), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        taskDecorator = policy.getTaskDecorator();
+    }
+
+    /**
+     * The factory of virtual threads, null if the JDK does not support them.
+     */
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException ex) {
+            log.debug("Threads virtuels indisponibles pour {}", name);
+            return null;
+        }
+    }
+
+    /**
+     * @throws QueryRejectedException if the queue of the executor is full.
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> supplier) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        LocaleContext localeContext = LocaleContextHolder.getLocaleContext();
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        Map<String, String> loggingContext = ThreadContext.getImmutableContext();
+        Runnable task = taskDecorator.decorate(() -> {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+        });
+        try {
+            executor.execute(() -> {
+                LocaleContextHolder.setLocaleContext(localeContext);
+                RequestContextHolder.setRequestAttributes(requestAttributes);
+                ThreadContext.putAll(loggingContext);
+                try {
+                    task.run();
+                } finally {
+                    ThreadContext.clearMap();
+                    RequestContextHolder.resetRequestAttributes();
+                    LocaleContextHolder.resetLocaleContext();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            throw new QueryRejectedException("File d'attente des requêtes asynchrones pleine");
+        }
+        return future;
+    }
+
+    int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,43 @@
+package nc.deveo.query.service;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * Execution of the asynchronous requests of a {@link QueryService} ({@link QueryService#findByCriteriaAsync}):
+ * the request is executed on a bounded executor of the service instead of the servlet thread.
+ * eg:
+ * protected AsyncQueryPolicy getAsyncQueryPolicy() {
+ * return AsyncQueryPolicy.builder().maxThreads(100).taskDecorator(DelegatingSecurityContextRunnable::new).build();
+ * }
+ */
+@Getter
+@Builder
+public class AsyncQueryPolicy {
+
+    /**
+     * Maximum number of requests executed at the same time, it should not exceed the size of the connection pool.
+     */
+    @Builder.Default
+    private final int maxThreads = 50;
+
+    /**
+     * Maximum number of requests waiting for a thread, the next ones are rejected.
+     */
+    @Builder.Default
+    private final int maxQueue = 200;
+
+    /**
+     * Use virtual threads when the JDK supports them, platform threads otherwise.
+     */
+    @Builder.Default
+    private final boolean virtualThreads = true;
+
+    /**
+     * Decorator applied to each request, after the propagation of the locale, the request attributes and the
+     * logging context of the caller: it carries the other thread-bound contexts, eg: the security context.
+     */
+    @Builder.Default
+    private final TaskDecorator taskDecorator = runnable -> runnable;
+}
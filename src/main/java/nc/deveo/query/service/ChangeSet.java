@@ -0,0 +1,35 @@
+package nc.deveo.query.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+/**
+ * The changes of the result of a request since a token ({@link QueryService#findChanges}).
+ */
+@Getter
+@RequiredArgsConstructor
+public class ChangeSet<E> {
+
+    /**
+     * The entities inserted or updated since the token which match the request.
+     */
+    private final List<E> content;
+
+    /**
+     * The identifiers of the entities deleted since the token, or updated and no longer matching the request.
+     * They can include entities never returned to the client.
+     */
+    private final List<Object> removedIds;
+
+    /**
+     * The token of the next call.
+     */
+    private final String token;
+
+    /**
+     * True if more changes are available: the next call with the new token returns them.
+     */
+    private final boolean hasMore;
+}
@@ -0,0 +1,1041 @@
+package nc.deveo.query.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Transient;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * In-memory columnar copy of a small, read-mostly entity, on which the filters, the sort and the paging
+ * of a {@link QueryService} are evaluated without any database round trip.
+ * <p>
+ * Each basic attribute of the entity is stored in a column: primitive arrays for the numbers, the booleans and
+ * the dates, dictionary-encoded arrays for the strings and the enums. A filter is evaluated column by column
+ * into a {@link BitSet} of the matching rows, with the semantics of the SQL generated by the QueryService
+ * (case insensitive equals and like on the strings, equals on a whole day for the dates, null values never
+ * matching but for specified=false...).
+ * <p>
+ * The order of the null values and of the strings depends on the database: the sorts on a column holding null values
+ * need {@link QueryService#getNullOrdering()}, the sorts and the ranges on strings need
+ * {@link QueryService#getCollation()}. Without them such requests are executed by the database.
+ * <p>
+ * The filters on associations, the sorts on associations and the operators which cannot be evaluated exactly
+ * in memory are not supported: {@link #query(List, Pageable)} then returns an empty optional and the request
+ * must be executed by the database.
+ * <p>
+ * The returned entities are the instances loaded in the snapshot: they are shared between the requests
+ * and must not be modified.
+ */
+@Log4j2
+@SuppressWarnings("unchecked")
+public class ColumnarSnapshot<E> {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private enum Op {
+        EQUALS, NOT_EQUALS, IN, NOT_IN, GREATER_THAN, GREATER_THAN_OR_EQUAL, LESS_THAN, LESS_THAN_OR_EQUAL, LIKE, NOT_LIKE
+    }
+
+    /**
+     * Thrown while evaluating a request which cannot be answered exactly by the snapshot.
+     */
+    private static class UnsupportedRequestException extends RuntimeException {
+        UnsupportedRequestException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final QueryService<E, ?> queryService;
+    private final Sort.NullHandling nullOrdering;
+    private final Field idField;
+    private final Map<String, Column> columns = new LinkedHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Set<Object> pendingChanges = ConcurrentHashMap.newKeySet();
+    private final Object refreshLock = new Object();
+
+    private Object[] ids;
+    private Object[] entities;
+    private final Map<Object, Integer> rowById = new HashMap<>();
+    private final Deque<Integer> freeRows = new ArrayDeque<>();
+    private final BitSet live = new BitSet();
+    private int rowCount;
+    private volatile boolean warm;
+
+    public ColumnarSnapshot(QueryService<E, ?> queryService) {
+        this.queryService = queryService;
+        this.nullOrdering = queryService.getNullOrdering();
+        Comparator<String> collation = queryService.getCollation();
+        Class<E> type = queryService.getType();
+        this.idField = FieldUtils.getField(type, "id", true);
+        if (idField == null) {
+            throw new IllegalArgumentException("Impossible de trouver le champ id de " + type.getSimpleName());
+        }
+        for (Field field : FieldUtils.getAllFields(type)) {
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers()) || field.isAnnotationPresent(Transient.class)) {
+                continue;
+            }
+            field.setAccessible(true);
+            Column column = createColumn(field, collation);
+            if (column != null) {
+                columns.put(field.getName(), column);
+            }
+        }
+        columns.values().forEach(column -> column.grow(INITIAL_CAPACITY));
+        ids = new Object[INITIAL_CAPACITY];
+        entities = new Object[INITIAL_CAPACITY];
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * <p>Replace the whole content of the snapshot and mark it as warm.</p>
+     *
+     * @param all all the entities.
+     */
+    public void load(List<E> all) {
+        lock.writeLock().lock();
+        try {
+            rowById.clear();
+            freeRows.clear();
+            live.clear();
+            rowCount = 0;
+            int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, all.size())) << 1);
+            ids = new Object[capacity];
+            entities = new Object[capacity];
+            columns.values().forEach(column -> column.reset(capacity));
+            all.forEach(this::write);
+            warm = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * <p>Record that an entity has been changed, it will be reloaded by the next {@link #refresh(Function)}.</p>
+     *
+     * @param id the identifier of the changed entity.
+     */
+    public void markChanged(Object id) {
+        pendingChanges.add(id);
+    }
+
+    /**
+     * <p>Reload the entities changed since the last refresh. The refreshes are serialized, so that an older load
+     * never overwrites a newer one, and the changes whose load fails are reloaded by the next refresh.</p>
+     *
+     * @param loader loads the entities which still exist among the given identifiers.
+     */
+    public void refresh(Function<Collection<Object>, List<E>> loader) {
+        if (pendingChanges.isEmpty()) {
+            return;
+        }
+        synchronized (refreshLock) {
+            // retirés avant le chargement : un changement commité pendant celui-ci reste à recharger
+            List<Object> changedIds = new ArrayList<>(pendingChanges);
+            if (changedIds.isEmpty()) {
+                return;
+            }
+            pendingChanges.removeAll(changedIds);
+            List<E> changed;
+            try {
+                changed = loader.apply(changedIds);
+            } catch (RuntimeException ex) {
+                pendingChanges.addAll(changedIds);
+                throw ex;
+            }
+
+            lock.writeLock().lock();
+            try {
+                Set<Object> deleted = new HashSet<>(changedIds);
+                for (E entity : changed) {
+                    deleted.remove(write(entity));
+                }
+                deleted.forEach(this::delete);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * <p>Evaluate a request on the snapshot.</p>
+     *
+     * @param filters the parsed filters.
+     * @param page    the requested page, with its sort.
+     * @return the page, or an empty optional when the request cannot be answered exactly in memory.
+     */
+    public Optional<Page<E>> query(List<GenericFilter<?>> filters, Pageable page) {
+        lock.readLock().lock();
+        try {
+            Comparator<Integer> comparator = buildComparator(page.getSort());
+            BitSet rows = (BitSet) live.clone();
+            for (GenericFilter<?> filter : filters) {
+                if (rows.isEmpty()) {
+                    break;
+                }
+                rows.and(evaluateFilter(filter, rows));
+            }
+
+            Integer[] matched = rows.stream().boxed().toArray(Integer[]::new);
+            Arrays.sort(matched, comparator);
+
+            int from = page.isPaged() ? (int) Math.min(page.getOffset(), matched.length) : 0;
+            int to = page.isPaged() ? Math.min(from + page.getPageSize(), matched.length) : matched.length;
+            List<E> content = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                content.add((E) entities[matched[i]]);
+            }
+            return Optional.of(new PageImpl<>(content, page, matched.length));
+        } catch (UnsupportedRequestException ex) {
+            log.debug("Requête non supportée en mémoire sur {} : {}", queryService.getType().getSimpleName(), ex.getMessage());
+            return Optional.empty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Object write(E entity) {
+        try {
+            Object id = idField.get(entity);
+            Integer row = rowById.get(id);
+            if (row == null) {
+                row = freeRows.isEmpty() ? rowCount++ : freeRows.pop();
+                if (row >= ids.length) {
+                    int capacity = ids.length * 2;
+                    ids = Arrays.copyOf(ids, capacity);
+                    entities = Arrays.copyOf(entities, capacity);
+                    columns.values().forEach(column -> column.grow(capacity));
+                }
+                rowById.put(id, row);
+            }
+            ids[row] = id;
+            entities[row] = entity;
+            for (Column column : columns.values()) {
+                column.set(row, column.field.get(entity));
+            }
+            live.set(row);
+            return id;
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void delete(Object id) {
+        Integer row = rowById.remove(id);
+        if (row != null) {
+            live.clear(row);
+            ids[row] = null;
+            entities[row] = null;
+            freeRows.push(row);
+        }
+    }
+
+    private Comparator<Integer> buildComparator(Sort sort) {
+        Comparator<Integer> comparator = null;
+        for (Sort.Order order : sort) {
+            Column column = columns.get(order.getProperty());
+            if (column == null) {
+                throw new UnsupportedRequestException("tri sur " + order.getProperty());
+            }
+            Comparator<Integer> columnComparator = (a, b) -> {
+                boolean nullA = column.isNull(a);
+                boolean nullB = column.isNull(b);
+                if (!nullA && !nullB) {
+                    return column.compare(a, b);
+                }
+                if (nullA && nullB) {
+                    return 0;
+                }
+                // l'ordre ne dépend des valeurs nulles que si une ligne nulle est comparée
+                return switch (nullOrdering) {
+                    case NULLS_FIRST -> nullA ? -1 : 1;
+                    case NULLS_LAST -> nullA ? 1 : -1;
+                    case NATIVE -> throw new UnsupportedRequestException("tri sur " + order.getProperty() + " avec des valeurs nulles");
+                };
+            };
+            if (order.isDescending()) {
+                columnComparator = columnComparator.reversed();
+            }
+            comparator = comparator == null ? columnComparator : comparator.thenComparing(columnComparator);
+        }
+        Comparator<Integer> byId = (a, b) -> ((Comparable<Object>) ids[a]).compareTo(ids[b]);
+        return comparator == null ? byId : comparator.thenComparing(byId);
+    }
+
+    private BitSet evaluateFilter(GenericFilter<?> filter, BitSet rows) {
+        BitSet result = new BitSet();
+        for (Pair<List<String>, List<String>> propertyToSearch : filter.getPropertiesToSearch()) {
+            if (propertyToSearch.getKey().size() != 1) {
+                throw new UnsupportedRequestException("filtre sur " + String.join(".", propertyToSearch.getKey()));
+            }
+            List<String> subProperties = propertyToSearch.getValue();
+            if (subProperties != null && subProperties.size() > 1) {
+                result.or(evaluateConcatenation(filter, subProperties, rows));
+            } else {
+                result.or(evaluateColumn(filter, getColumn(propertyToSearch.getKey().get(0)), rows));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Same semantics as {@link QueryService#buildSpecification}.
+     */
+    private BitSet evaluateColumn(GenericFilter<?> filter, Column column, BitSet rows) {
+        if (filter.getEquals() != null) {
+            return column.select(rows, Op.EQUALS, filter.getEquals());
+        } else if (filter.getIn() != null) {
+            return column.select(rows, Op.IN, filter.getIn());
+        }
+
+        BitSet result = (BitSet) rows.clone();
+        if (filter.getNotEquals() != null) {
+            result.and(column.select(result, Op.NOT_EQUALS, filter.getNotEquals()));
+        }
+        if (filter.getSpecified() != null) {
+            BitSet nulls = column.selectNulls(result);
+            if (filter.getSpecified()) {
+                result.andNot(nulls);
+            } else {
+                result.and(nulls);
+            }
+        }
+        if (filter.getNotIn() != null) {
+            result.and(column.select(result, Op.NOT_IN, filter.getNotIn()));
+        }
+        if (filter.getGreaterThan() != null) {
+            result.and(column.select(result, Op.GREATER_THAN, filter.getGreaterThan()));
+        }
+        if (filter.getGreaterThanOrEqual() != null) {
+            result.and(column.select(result, Op.GREATER_THAN_OR_EQUAL, filter.getGreaterThanOrEqual()));
+        }
+        if (filter.getLessThan() != null) {
+            result.and(column.select(result, Op.LESS_THAN, filter.getLessThan()));
+        }
+        if (filter.getLessThanOrEqual() != null) {
+            result.and(column.select(result, Op.LESS_THAN_OR_EQUAL, filter.getLessThanOrEqual()));
+        }
+        if (filter.getContains() != null) {
+            result.and(column.select(result, Op.LIKE, queryService.wrapLikeQuery(filter.getContains())));
+        }
+        if (filter.getStartsWith() != null) {
+            result.and(column.select(result, Op.LIKE, queryService.wrapStartsWithQuery(filter.getStartsWith())));
+        }
+        if (filter.getEndsWith() != null) {
+            result.and(column.select(result, Op.LIKE, queryService.wrapEndsWithQuery(filter.getEndsWith())));
+        }
+        if (filter.getContainsIn() != null) {
+            for (String value : filter.getContainsIn()) {
+                result.and(column.select(result, Op.LIKE, queryService.wrapLikeQuery(value)));
+            }
+        }
+        if (filter.getDoesNotContain() != null) {
+            result.and(column.select(result, Op.NOT_LIKE, queryService.wrapLikeQuery(filter.getDoesNotContain())));
+        }
+        return result;
+    }
+
+    /**
+     * Same semantics as {@link QueryService#buildStringPredicateMultiField}: like on the concatenation
+     * of the upper case values, the null values being replaced by an empty string.
+     */
+    private BitSet evaluateConcatenation(GenericFilter<?> filter, List<String> subProperties, BitSet rows) {
+        if (filter.getContainsIn() == null) {
+            throw new UnsupportedRequestException("concaténation sans containsIn");
+        }
+        List<StringColumn> concatenated = new ArrayList<>();
+        for (String subProperty : subProperties) {
+            Column column = getColumn(subProperty);
+            if (!(column instanceof StringColumn)) {
+                throw new UnsupportedRequestException("concaténation de " + subProperty);
+            }
+            concatenated.add((StringColumn) column);
+        }
+        List<String> patterns = filter.getContainsIn().stream().map(value -> queryService.wrapLikeQuery(value.toString())).toList();
+        BitSet result = new BitSet();
+        StringBuilder builder = new StringBuilder();
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            builder.setLength(0);
+            for (StringColumn column : concatenated) {
+                builder.append(column.upperValue(row));
+            }
+            String text = builder.toString();
+            if (patterns.stream().allMatch(pattern -> like(text, pattern))) {
+                result.set(row);
+            }
+        }
+        return result;
+    }
+
+    private Column getColumn(String property) {
+        Column column = columns.get(property);
+        if (column == null) {
+            throw new UnsupportedRequestException("filtre sur " + property);
+        }
+        return column;
+    }
+
+    /**
+     * <p>Evaluate a SQL LIKE pattern, '%' matching any sequence and '_' any character.</p>
+     *
+     * @param text    the text.
+     * @param pattern the pattern.
+     * @return true if the text matches the pattern.
+     */
+    static boolean like(String text, String pattern) {
+        int t = 0;
+        int p = 0;
+        int starPattern = -1;
+        int starText = -1;
+        while (t < text.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '_' || pattern.charAt(p) == text.charAt(t))) {
+                t++;
+                p++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '%') {
+                starPattern = p++;
+                starText = t;
+            } else if (starPattern >= 0) {
+                p = starPattern + 1;
+                t = ++starText;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '%') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    private Column createColumn(Field field, Comparator<String> collation) {
+        Class<?> fieldType = field.getType();
+        if (Collection.class.isAssignableFrom(fieldType) || Map.class.isAssignableFrom(fieldType)
+                || fieldType.isAnnotationPresent(Entity.class) || fieldType.isAnnotationPresent(Embeddable.class)) {
+            return null;
+        }
+        if (fieldType == String.class) {
+            return new StringColumn(field, collation);
+        }
+        if (fieldType.isEnum()) {
+            Enumerated enumerated = field.getAnnotation(Enumerated.class);
+            return new EnumColumn(field, enumerated != null && enumerated.value() == EnumType.STRING, collation);
+        }
+        if (fieldType == Double.class || fieldType == double.class || fieldType == Float.class || fieldType == float.class) {
+            return new DoubleColumn(field);
+        }
+        for (NumberKind kind : NumberKind.values()) {
+            if (kind.types.contains(fieldType)) {
+                return new NumberColumn(field, kind);
+            }
+        }
+        if (Comparable.class.isAssignableFrom(fieldType)) {
+            return new ObjectColumn(field);
+        }
+        return null;
+    }
+
+    /**
+     * A column of the snapshot.
+     */
+    private abstract static class Column {
+
+        protected final Field field;
+
+        Column(Field field) {
+            this.field = field;
+        }
+
+        abstract void reset(int capacity);
+
+        abstract void grow(int capacity);
+
+        abstract void set(int row, Object value);
+
+        abstract boolean isNull(int row);
+
+        /**
+         * Compare two rows whose values are not null, in ascending order.
+         */
+        abstract int compare(int a, int b);
+
+        /**
+         * The rows among the given ones matching the operator, null values never matching.
+         */
+        abstract BitSet select(BitSet rows, Op op, Object value);
+
+        BitSet selectNulls(BitSet rows) {
+            BitSet result = new BitSet();
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                if (isNull(row)) {
+                    result.set(row);
+                }
+            }
+            return result;
+        }
+
+        protected UnsupportedRequestException unsupported(Op op, Object value) {
+            return new UnsupportedRequestException(op + " " + value + " sur " + field.getName());
+        }
+    }
+
+    /**
+     * Encoding of the integral numbers, the booleans and the dates in a long.
+     */
+    private enum NumberKind {
+        INTEGRAL(Set.of(Long.class, long.class, Integer.class, int.class, Short.class, short.class, Byte.class, byte.class)) {
+            @Override
+            long encode(Object value) {
+                return ((Number) value).longValue();
+            }
+        },
+        BOOLEAN(Set.of(Boolean.class, boolean.class)) {
+            @Override
+            long encode(Object value) {
+                return ((Boolean) value) ? 1 : 0;
+            }
+        },
+        LOCAL_DATE(Set.of(LocalDate.class)) {
+            @Override
+            long encode(Object value) {
+                return ((LocalDate) value).toEpochDay();
+            }
+
+            @Override
+            Object plusOneDay(Object value) {
+                return ((LocalDate) value).plusDays(1);
+            }
+        },
+        LOCAL_DATE_TIME(Set.of(LocalDateTime.class)) {
+            @Override
+            long encode(Object value) {
+                return nanos(((LocalDateTime) value).toInstant(ZoneOffset.UTC));
+            }
+        },
+        INSTANT(Set.of(Instant.class)) {
+            @Override
+            long encode(Object value) {
+                return nanos((Instant) value);
+            }
+
+            @Override
+            Object plusOneDay(Object value) {
+                return ((Instant) value).plusSeconds(60 * 60 * 24);
+            }
+        },
+        ZONED_DATE_TIME(Set.of(ZonedDateTime.class)) {
+            @Override
+            long encode(Object value) {
+                return nanos(((ZonedDateTime) value).toInstant());
+            }
+
+            @Override
+            Object plusOneDay(Object value) {
+                return ((ZonedDateTime) value).plusDays(1);
+            }
+        };
+
+        private final Set<Class<?>> types;
+
+        NumberKind(Set<Class<?>> types) {
+            this.types = types;
+        }
+
+        abstract long encode(Object value);
+
+        /**
+         * The value one day later, for the equals on a whole day, null if equals is not a day range.
+         */
+        Object plusOneDay(Object value) {
+            return null;
+        }
+
+        boolean isDate() {
+            return this == LOCAL_DATE || this == LOCAL_DATE_TIME || this == INSTANT || this == ZONED_DATE_TIME;
+        }
+
+        private static long nanos(Instant instant) {
+            return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+        }
+    }
+
+    private static final class NumberColumn extends Column {
+
+        private final NumberKind kind;
+        private long[] values;
+        private final BitSet nulls = new BitSet();
+
+        NumberColumn(Field field, NumberKind kind) {
+            super(field);
+            this.kind = kind;
+        }
+
+        @Override
+        void reset(int capacity) {
+            values = new long[capacity];
+            nulls.clear();
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = values == null ? new long[capacity] : Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void set(int row, Object value) {
+            nulls.set(row, value == null);
+            values[row] = value == null ? 0 : kind.encode(value);
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        @Override
+        int compare(int a, int b) {
+            return Long.compare(values[a], values[b]);
+        }
+
+        private long encode(Op op, Object value) {
+            if (kind == NumberKind.BOOLEAN && value instanceof String && op == Op.EQUALS && field.getType() == boolean.class) {
+                return QueryService.parseBoolean((String) value) ? 1 : 0;
+            }
+            try {
+                return kind.encode(value);
+            } catch (ClassCastException ex) {
+                throw unsupported(op, value);
+            }
+        }
+
+        @Override
+        BitSet select(BitSet rows, Op op, Object value) {
+            long low;
+            long high;
+            Set<Long> set = null;
+            switch (op) {
+                case EQUALS -> {
+                    if (kind.isDate()) {
+                        Object nextDay = kind.plusOneDay(value);
+                        if (nextDay == null) {
+                            // la requête SQL ne supporte pas ce type de date
+                            throw unsupported(op, value);
+                        }
+                        low = encode(op, value);
+                        high = encode(op, nextDay) - 1;
+                    } else {
+                        low = encode(op, value);
+                        high = low;
+                    }
+                }
+                case NOT_EQUALS -> low = high = encode(op, value);
+                case IN, NOT_IN -> {
+                    set = new HashSet<>();
+                    for (Object element : (Collection<?>) value) {
+                        set.add(encode(op, element));
+                    }
+                    low = high = 0;
+                }
+                case GREATER_THAN -> {
+                    low = encode(op, value);
+                    if (low == Long.MAX_VALUE) {
+                        return new BitSet();
+                    }
+                    low++;
+                    high = Long.MAX_VALUE;
+                }
+                case GREATER_THAN_OR_EQUAL -> {
+                    low = encode(op, value);
+                    high = Long.MAX_VALUE;
+                }
+                case LESS_THAN -> {
+                    high = encode(op, value);
+                    if (high == Long.MIN_VALUE) {
+                        return new BitSet();
+                    }
+                    high--;
+                    low = Long.MIN_VALUE;
+                }
+                case LESS_THAN_OR_EQUAL -> {
+                    high = encode(op, value);
+                    low = Long.MIN_VALUE;
+                }
+                default -> throw unsupported(op, value);
+            }
+
+            BitSet result = new BitSet();
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                if (nulls.get(row)) {
+                    continue;
+                }
+                long current = values[row];
+                boolean matches = switch (op) {
+                    case NOT_EQUALS -> current != low;
+                    case IN -> set.contains(current);
+                    case NOT_IN -> !set.contains(current);
+                    default -> current >= low && current <= high;
+                };
+                if (matches) {
+                    result.set(row);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+
+        private double[] values;
+        private final BitSet nulls = new BitSet();
+
+        DoubleColumn(Field field) {
+            super(field);
+        }
+
+        @Override
+        void reset(int capacity) {
+            values = new double[capacity];
+            nulls.clear();
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = values == null ? new double[capacity] : Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void set(int row, Object value) {
+            nulls.set(row, value == null);
+            values[row] = value == null ? 0 : ((Number) value).doubleValue();
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return nulls.get(row);
+        }
+
+        @Override
+        int compare(int a, int b) {
+            return Double.compare(values[a], values[b]);
+        }
+
+        private double encode(Op op, Object value) {
+            if (!(value instanceof Number)) {
+                throw unsupported(op, value);
+            }
+            return ((Number) value).doubleValue();
+        }
+
+        @Override
+        BitSet select(BitSet rows, Op op, Object value) {
+            double target = 0;
+            Set<Double> set = null;
+            if (op == Op.IN || op == Op.NOT_IN) {
+                set = new HashSet<>();
+                for (Object element : (Collection<?>) value) {
+                    set.add(encode(op, element));
+                }
+            } else if (op == Op.LIKE || op == Op.NOT_LIKE) {
+                throw unsupported(op, value);
+            } else {
+                target = encode(op, value);
+            }
+
+            BitSet result = new BitSet();
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                if (nulls.get(row)) {
+                    continue;
+                }
+                double current = values[row];
+                boolean matches = switch (op) {
+                    case EQUALS -> current == target;
+                    case NOT_EQUALS -> current != target;
+                    case IN -> set.contains(current);
+                    case NOT_IN -> !set.contains(current);
+                    case GREATER_THAN -> current > target;
+                    case GREATER_THAN_OR_EQUAL -> current >= target;
+                    case LESS_THAN -> current < target;
+                    case LESS_THAN_OR_EQUAL -> current <= target;
+                    default -> false;
+                };
+                if (matches) {
+                    result.set(row);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Dictionary-encoded column: each row holds the code of its value in the dictionary, -1 for null.
+     * The operators are evaluated once per distinct value, then the codes are scanned.
+     */
+    private abstract static class DictionaryColumn<V> extends Column {
+
+        protected int[] codes;
+        protected final List<V> dictionary = new ArrayList<>();
+        private final Map<V, Integer> codeByValue = new HashMap<>();
+
+        DictionaryColumn(Field field) {
+            super(field);
+        }
+
+        @Override
+        void reset(int capacity) {
+            codes = new int[capacity];
+            dictionary.clear();
+            codeByValue.clear();
+            onDictionaryReset();
+        }
+
+        @Override
+        void grow(int capacity) {
+            codes = codes == null ? new int[capacity] : Arrays.copyOf(codes, capacity);
+        }
+
+        @Override
+        void set(int row, Object value) {
+            if (value == null) {
+                codes[row] = -1;
+                return;
+            }
+            codes[row] = codeByValue.computeIfAbsent((V) value, v -> {
+                dictionary.add(v);
+                onDictionaryAdd(v);
+                return dictionary.size() - 1;
+            });
+        }
+
+        protected void onDictionaryReset() {
+        }
+
+        protected void onDictionaryAdd(V value) {
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return codes[row] < 0;
+        }
+
+        @Override
+        int compare(int a, int b) {
+            return compareValues(dictionary.get(codes[a]), dictionary.get(codes[b]));
+        }
+
+        abstract int compareValues(V a, V b);
+
+        /**
+         * Whether the value of the given code matches the operator.
+         */
+        abstract boolean matches(int code, Op op, Object value);
+
+        @Override
+        BitSet select(BitSet rows, Op op, Object value) {
+            boolean[] matchByCode = new boolean[dictionary.size()];
+            for (int code = 0; code < matchByCode.length; code++) {
+                matchByCode[code] = matches(code, op, value);
+            }
+            BitSet result = new BitSet();
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                int code = codes[row];
+                if (code >= 0 && matchByCode[code]) {
+                    result.set(row);
+                }
+            }
+            return result;
+        }
+    }
+
+    private static final class StringColumn extends DictionaryColumn<String> {
+
+        private final List<String> upperDictionary = new ArrayList<>();
+        private final Comparator<String> collation;
+
+        StringColumn(Field field, Comparator<String> collation) {
+            super(field);
+            this.collation = collation;
+        }
+
+        @Override
+        protected void onDictionaryReset() {
+            upperDictionary.clear();
+        }
+
+        @Override
+        protected void onDictionaryAdd(String value) {
+            upperDictionary.add(value.toUpperCase(QueryService.UPPER_CASE_LOCALE));
+        }
+
+        /**
+         * The upper case value, empty for null, like upper(coalesce(value, '')).
+         */
+        String upperValue(int row) {
+            return codes[row] < 0 ? "" : upperDictionary.get(codes[row]);
+        }
+
+        @Override
+        int compareValues(String a, String b) {
+            if (collation == null) {
+                throw new UnsupportedRequestException("tri sur " + field.getName() + " sans collation");
+            }
+            return collation.compare(a, b);
+        }
+
+        @Override
+        BitSet select(BitSet rows, Op op, Object value) {
+            if (collation == null && (op == Op.GREATER_THAN || op == Op.GREATER_THAN_OR_EQUAL || op == Op.LESS_THAN || op == Op.LESS_THAN_OR_EQUAL)) {
+                throw unsupported(op, value);
+            }
+            return super.select(rows, op, value);
+        }
+
+        @Override
+        boolean matches(int code, Op op, Object value) {
+            String current = dictionary.get(code);
+            return switch (op) {
+                case EQUALS -> upperDictionary.get(code).equals(value.toString().toUpperCase(QueryService.UPPER_CASE_LOCALE));
+                case NOT_EQUALS -> !upperDictionary.get(code).equals(value.toString().toUpperCase(QueryService.UPPER_CASE_LOCALE));
+                case IN -> ((Collection<?>) value).contains(current);
+                case NOT_IN -> !((Collection<?>) value).contains(current);
+                case GREATER_THAN -> collation.compare(current, value.toString()) > 0;
+                case GREATER_THAN_OR_EQUAL -> collation.compare(current, value.toString()) >= 0;
+                case LESS_THAN -> collation.compare(current, value.toString()) < 0;
+                case LESS_THAN_OR_EQUAL -> collation.compare(current, value.toString()) <= 0;
+                case LIKE -> like(upperDictionary.get(code), value.toString());
+                case NOT_LIKE -> !like(upperDictionary.get(code), value.toString());
+            };
+        }
+    }
+
+    private static final class EnumColumn extends DictionaryColumn<Enum<?>> {
+
+        private final boolean storedAsString;
+        private final Comparator<String> collation;
+
+        EnumColumn(Field field, boolean storedAsString, Comparator<String> collation) {
+            super(field);
+            this.storedAsString = storedAsString;
+            this.collation = collation;
+        }
+
+        @Override
+        int compareValues(Enum<?> a, Enum<?> b) {
+            if (!storedAsString) {
+                return Integer.compare(a.ordinal(), b.ordinal());
+            }
+            if (collation == null) {
+                throw new UnsupportedRequestException("tri sur " + field.getName() + " sans collation");
+            }
+            return collation.compare(a.name(), b.name());
+        }
+
+        @Override
+        boolean matches(int code, Op op, Object value) {
+            Enum<?> current = dictionary.get(code);
+            return switch (op) {
+                case EQUALS -> current == value;
+                case NOT_EQUALS -> current != value;
+                case IN -> ((Collection<?>) value).contains(current);
+                case NOT_IN -> !((Collection<?>) value).contains(current);
+                default -> throw unsupported(op, value);
+            };
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+
+        private Object[] values;
+
+        ObjectColumn(Field field) {
+            super(field);
+        }
+
+        @Override
+        void reset(int capacity) {
+            values = new Object[capacity];
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = values == null ? new Object[capacity] : Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void set(int row, Object value) {
+            values[row] = value;
+        }
+
+        @Override
+        boolean isNull(int row) {
+            return values[row] == null;
+        }
+
+        @Override
+        int compare(int a, int b) {
+            return ((Comparable<Object>) values[a]).compareTo(values[b]);
+        }
+
+        private int compareTo(Object current, Op op, Object value) {
+            if (!field.getType().isInstance(value)) {
+                throw unsupported(op, value);
+            }
+            return ((Comparable<Object>) current).compareTo(value);
+        }
+
+        @Override
+        BitSet select(BitSet rows, Op op, Object value) {
+            if (op == Op.LIKE || op == Op.NOT_LIKE) {
+                throw unsupported(op, value);
+            }
+            BitSet result = new BitSet();
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                Object current = values[row];
+                if (current == null) {
+                    continue;
+                }
+                boolean matches = switch (op) {
+                    case EQUALS -> compareTo(current, op, value) == 0;
+                    case NOT_EQUALS -> compareTo(current, op, value) != 0;
+                    case IN -> ((Collection<?>) value).stream().anyMatch(element -> compareTo(current, op, element) == 0);
+                    case NOT_IN -> ((Collection<?>) value).stream().noneMatch(element -> compareTo(current, op, element) == 0);
+                    case GREATER_THAN -> compareTo(current, op, value) > 0;
+                    case GREATER_THAN_OR_EQUAL -> compareTo(current, op, value) >= 0;
+                    case LESS_THAN -> compareTo(current, op, value) < 0;
+                    case LESS_THAN_OR_EQUAL -> compareTo(current, op, value) <= 0;
+                    default -> false;
+                };
+                if (matches) {
+                    result.set(row);
+                }
+            }
+            return result;
+        }
+    }
+}
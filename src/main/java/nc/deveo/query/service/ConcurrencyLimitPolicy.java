@@ -0,0 +1,46 @@
+package nc.deveo.query.service;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Adaptive limit of the queries executed at the same time by a {@link QueryService} (AIMD): the limit grows by one
+ * per window of successful queries, and is multiplied by {@link #getBackoffRatio()} when a query is slower than
+ * {@link #getLatencyThreshold()} or times out, once per window: the queries started before the last decrease
+ * do not decrease it again. Beyond the limit, the requests wait in a short queue, then are
+ * rejected with a {@link QueryRejectedException}.
+ * eg:
+ * protected ConcurrencyLimitPolicy getConcurrencyLimitPolicy() {
+ * return ConcurrencyLimitPolicy.builder().maxLimit(8).latencyThreshold(Duration.ofMillis(200)).build();
+ * }
+ */
+@Getter
+@Builder
+public class ConcurrencyLimitPolicy {
+
+    @Builder.Default
+    private final int initialLimit = 10;
+
+    @Builder.Default
+    private final int minLimit = 1;
+
+    /**
+     * The sum of the maximum limits of the services should stay below the size of the connection pool.
+     */
+    @Builder.Default
+    private final int maxLimit = 20;
+
+    @Builder.Default
+    private final Duration latencyThreshold = Duration.ofSeconds(1);
+
+    @Builder.Default
+    private final double backoffRatio = 0.9;
+
+    @Builder.Default
+    private final int maxQueue = 20;
+
+    @Builder.Default
+    private final Duration queueTimeout = Duration.ofMillis(200);
+}
@@ -0,0 +1,24 @@
+package nc.deveo.query.service;
+
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+/**
+ * A page executed without the count query ({@link QueryCostPolicy.Action#DOWNGRADE}): the total is not counted,
+ * it is the offset plus the rows read, one more than the page when a next page exists.
+ */
+public class EstimatedPage<E> extends PageImpl<E> {
+
+    public EstimatedPage(List<E> content, Pageable pageable, long total) {
+        super(content, pageable, total);
+    }
+
+    /**
+     * @return always true, serialized with the page.
+     */
+    public boolean isTotalEstimated() {
+        return true;
+    }
+}
@@ -0,0 +1,15 @@
+package nc.deveo.query.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a request is explained on a service which does not enable it.
+ */
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class ExplainDisabledException extends RuntimeException {
+
+    public ExplainDisabledException(String message) {
+        super(message);
+    }
+}
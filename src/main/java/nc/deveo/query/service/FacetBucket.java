@@ -0,0 +1,20 @@
+package nc.deveo.query.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Number of distinct entities having a given value for a facet.
+ */
+@Getter
+@RequiredArgsConstructor
+public class FacetBucket {
+
+    private final Object value;
+    private final long count;
+
+    @Override
+    public String toString() {
+        return "FacetBucket [value=" + value + ", count=" + count + "]";
+    }
+}
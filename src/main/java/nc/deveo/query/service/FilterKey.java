@@ -0,0 +1,131 @@
+package nc.deveo.query.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Key of a filter parameter, tokenized in one pass without regular expression:
+ * <code>
+ * key      = term ( "/" term )* ( "|" operator )?
+ * term     = name ( "." name )* ( "," name )*
+ * name     = [A-Za-z0-9_]+
+ * operator = [A-Za-z0-9_]+
+ * </code>
+ * eg: factures.libelle,reference/nom|contains is the OR of the terms factures.libelle,reference and nom,
+ * the first one on the sub properties libelle and reference of factures.
+ * The parsed keys are immutable, to be shared between the requests.
+ */
+@Getter
+@RequiredArgsConstructor
+final class FilterKey {
+
+    /**
+     * One property path of the key, with its sub properties searched with the OR operator.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    static final class Term {
+
+        /**
+         * The path, ending with the first sub property. eg: [factures, libelle]
+         */
+        private final List<String> path;
+
+        /**
+         * The sub properties of the last element of the path, at least one. eg: [libelle, reference]
+         */
+        private final List<String> subProperties;
+    }
+
+    private final List<Term> terms;
+
+    /**
+     * The operator after "|", null if none.
+     */
+    private final String operator;
+
+    /**
+     * @param key the key of the parameter.
+     * @return true if the key only has characters of the grammar, the other parameters are not filters.
+     */
+    static boolean isCandidate(String key) {
+        if (key.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (!isNameChar(c) && c != '.' && c != ',' && c != '/' && c != '|') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param key the key of the parameter.
+     * @return the parsed key.
+     * @throws FilterSyntaxException with the position of the first invalid character.
+     */
+    static FilterKey parse(String key) {
+        List<Term> terms = new ArrayList<>(1);
+        List<String> path = new ArrayList<>(2);
+        List<String> subProperties = null;
+        int length = key.length();
+        int start = 0;
+        int i = 0;
+        while (true) {
+            while (i < length && isNameChar(key.charAt(i))) {
+                i++;
+            }
+            if (i == start) {
+                throw new FilterSyntaxException(key, i, i < length ? "nom attendu avant '" + key.charAt(i) + "'" : "nom attendu");
+            }
+            String name = key.substring(start, i);
+            char separator = i < length ? key.charAt(i) : 0;
+            if (separator != 0 && separator != '.' && separator != ',' && separator != '/' && separator != '|') {
+                throw new FilterSyntaxException(key, i, "caractère '" + separator + "' invalide");
+            }
+            if (subProperties != null) {
+                subProperties.add(name);
+            } else if (separator == ',') {
+                path.add(name);
+                subProperties = new ArrayList<>(2);
+                subProperties.add(name);
+            } else {
+                path.add(name);
+            }
+            if (separator == '.' && subProperties != null) {
+                throw new FilterSyntaxException(key, i, "'.' après une liste de sous-propriétés");
+            }
+            if (separator == 0 || separator == '/' || separator == '|') {
+                terms.add(new Term(List.copyOf(path), subProperties != null ? List.copyOf(subProperties) : List.of(path.get(path.size() - 1))));
+                path.clear();
+                subProperties = null;
+            }
+            if (separator == 0) {
+                return new FilterKey(List.copyOf(terms), null);
+            }
+            if (separator == '|') {
+                int operatorStart = ++i;
+                while (i < length && isNameChar(key.charAt(i))) {
+                    i++;
+                }
+                if (i == operatorStart) {
+                    throw new FilterSyntaxException(key, i, "opérateur attendu");
+                }
+                if (i < length) {
+                    throw new FilterSyntaxException(key, i, "fin attendue après l'opérateur");
+                }
+                return new FilterKey(List.copyOf(terms), key.substring(operatorStart));
+            }
+            start = ++i;
+        }
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
@@ -0,0 +1,242 @@
+package nc.deveo.query.service;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Simplify the parsed filters of a request before building the SQL:
+ * <ul>
+ *     <li>the duplicated values of in / notIn and the duplicated OR branches are removed,</li>
+ *     <li>the filters on the same single-valued attribute are merged: the ranges into one range (a BETWEEN when both
+ *     bounds are inclusive), the equals and in into the intersection of their values, the notEquals and notIn
+ *     into one notIn,</li>
+ *     <li>the contradictory filters are detected, the request has no result without executing it.</li>
+ * </ul>
+ * Only the filters whose values have a plain SQL comparison (numbers, booleans, enums, UUID, and only numbers
+ * for the ranges) are merged, the equals on strings (case insensitive) and dates (whole day) are kept as is.
+ * The given filters are never modified.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
+final class FilterOptimizer {
+
+    private FilterOptimizer() {
+    }
+
+    /**
+     * @param filters         the parsed filters.
+     * @param isSingleValued  tell if a property path has no collection: the filters on a collection
+     *                        are separate joins and cannot be merged.
+     * @return the simplified filters, empty if they cannot match any row.
+     */
+    static Optional<List<GenericFilter<?>>> optimize(List<GenericFilter<?>> filters, Predicate<List<String>> isSingleValued) {
+        List<GenericFilter<?>> result = new ArrayList<>();
+        Map<List<String>, List<GenericFilter<?>>> mergeableByPath = new LinkedHashMap<>();
+
+        for (GenericFilter<?> filter : filters) {
+            GenericFilter<?> copy = deduplicate(filter);
+            List<String> path = getMergeablePath(copy, isSingleValued);
+            if (path != null) {
+                mergeableByPath.computeIfAbsent(path, p -> new ArrayList<>()).add(copy);
+            } else {
+                result.add(copy);
+            }
+        }
+        for (List<GenericFilter<?>> group : mergeableByPath.values()) {
+            Optional<GenericFilter> merged = merge((List) group);
+            if (merged.isEmpty()) {
+                return Optional.empty();
+            }
+            result.add(merged.get());
+        }
+        return Optional.of(result);
+    }
+
+    private static GenericFilter<?> deduplicate(GenericFilter<?> filter) {
+        GenericFilter copy = filter.copy();
+        if (copy.getIn() != null) {
+            copy.setIn(new ArrayList<>(new LinkedHashSet<>(copy.getIn())));
+        }
+        if (copy.getNotIn() != null) {
+            copy.setNotIn(new ArrayList<>(new LinkedHashSet<>(copy.getNotIn())));
+        }
+        if (copy.getPropertiesToSearch() != null && copy.getPropertiesToSearch().size() > 1) {
+            copy.setPropertiesToSearch(new ArrayList<>(new LinkedHashSet<>(copy.getPropertiesToSearch())));
+        }
+        return copy;
+    }
+
+    /**
+     * @return the path of the attribute of the filter if it can be merged with the other filters on this path, null otherwise.
+     */
+    private static List<String> getMergeablePath(GenericFilter<?> filter, Predicate<List<String>> isSingleValued) {
+        if (filter.getPropertiesToSearch() == null || filter.getPropertiesToSearch().size() != 1) {
+            return null;
+        }
+        Pair<List<String>, List<String>> propertyToSearch = filter.getPropertiesToSearch().get(0);
+        if ((propertyToSearch.getValue() != null && propertyToSearch.getValue().size() > 1) || !isSingleValued.test(propertyToSearch.getKey())) {
+            return null;
+        }
+        if (filter.getContains() != null || filter.getDoesNotContain() != null || filter.getStartsWith() != null
+                || filter.getEndsWith() != null || filter.getContainsIn() != null) {
+            return null;
+        }
+        // les enums sont comparés par leur ordre en Java, par leur nom en base quand ils sont stockés en texte
+        for (Object bound : Arrays.asList(filter.getGreaterThan(), filter.getGreaterThanOrEqual(), filter.getLessThan(), filter.getLessThanOrEqual())) {
+            if (bound != null && !(bound instanceof Number)) {
+                return null;
+            }
+        }
+        List<Object> values = new ArrayList<>(Arrays.asList(filter.getEquals(), filter.getNotEquals()));
+        if (filter.getIn() != null) {
+            values.addAll(filter.getIn());
+        }
+        if (filter.getNotIn() != null) {
+            values.addAll(filter.getNotIn());
+        }
+        return values.stream().allMatch(FilterOptimizer::hasPlainComparison) ? propertyToSearch.getKey() : null;
+    }
+
+    private static boolean hasPlainComparison(Object value) {
+        return value == null || value instanceof Number || value instanceof Boolean || value instanceof Enum || value instanceof UUID;
+    }
+
+    /**
+     * Merge the filters on the same attribute, with the semantics of {@link QueryService#buildSpecification}:
+     * equals, then in, ignore the other operators of their filter.
+     */
+    private static <F extends Comparable<? super F>> Optional<GenericFilter<F>> merge(List<GenericFilter<F>> group) {
+        Set<F> allowed = null;
+        Set<F> excluded = new LinkedHashSet<>();
+        Boolean specified = null;
+        boolean hasValueCondition = false;
+        F lower = null;
+        boolean lowerInclusive = true;
+        F upper = null;
+        boolean upperInclusive = true;
+
+        for (GenericFilter<F> filter : group) {
+            List<F> values = filter.getEquals() != null ? List.of(filter.getEquals()) : filter.getIn();
+            if (values != null) {
+                hasValueCondition = true;
+                if (allowed == null) {
+                    allowed = new LinkedHashSet<>(values);
+                } else {
+                    allowed.retainAll(values);
+                }
+                continue;
+            }
+            if (filter.getSpecified() != null) {
+                if (specified != null && !specified.equals(filter.getSpecified())) {
+                    return Optional.empty();
+                }
+                specified = filter.getSpecified();
+            }
+            if (filter.getNotEquals() != null) {
+                hasValueCondition = true;
+                excluded.add(filter.getNotEquals());
+            }
+            if (filter.getNotIn() != null) {
+                hasValueCondition = true;
+                excluded.addAll(filter.getNotIn());
+            }
+            if (filter.getGreaterThan() != null) {
+                hasValueCondition = true;
+                int comparison = lower == null ? 1 : filter.getGreaterThan().compareTo(lower);
+                if (comparison > 0 || (comparison == 0 && lowerInclusive)) {
+                    lower = filter.getGreaterThan();
+                    lowerInclusive = false;
+                }
+            }
+            if (filter.getGreaterThanOrEqual() != null) {
+                hasValueCondition = true;
+                if (lower == null || filter.getGreaterThanOrEqual().compareTo(lower) > 0) {
+                    lower = filter.getGreaterThanOrEqual();
+                    lowerInclusive = true;
+                }
+            }
+            if (filter.getLessThan() != null) {
+                hasValueCondition = true;
+                int comparison = upper == null ? -1 : filter.getLessThan().compareTo(upper);
+                if (comparison < 0 || (comparison == 0 && upperInclusive)) {
+                    upper = filter.getLessThan();
+                    upperInclusive = false;
+                }
+            }
+            if (filter.getLessThanOrEqual() != null) {
+                hasValueCondition = true;
+                if (upper == null || filter.getLessThanOrEqual().compareTo(upper) < 0) {
+                    upper = filter.getLessThanOrEqual();
+                    upperInclusive = true;
+                }
+            }
+        }
+
+        // null ne vérifie aucune comparaison
+        if (Boolean.FALSE.equals(specified) && hasValueCondition) {
+            return Optional.empty();
+        }
+        if (lower != null && upper != null) {
+            int comparison = lower.compareTo(upper);
+            if (comparison > 0 || (comparison == 0 && !(lowerInclusive && upperInclusive))) {
+                return Optional.empty();
+            }
+        }
+
+        GenericFilter<F> merged = new GenericFilter<>();
+        merged.setPropertiesToSearch(group.get(0).getPropertiesToSearch());
+        if (allowed != null) {
+            allowed.removeAll(excluded);
+            for (Iterator<F> iterator = allowed.iterator(); iterator.hasNext(); ) {
+                F value = iterator.next();
+                if (!isInRange(value, lower, lowerInclusive, upper, upperInclusive)) {
+                    iterator.remove();
+                }
+            }
+            if (allowed.isEmpty()) {
+                return Optional.empty();
+            }
+            if (allowed.size() == 1) {
+                merged.setEquals(allowed.iterator().next());
+            } else {
+                merged.setIn(new ArrayList<>(allowed));
+            }
+            return Optional.of(merged);
+        }
+
+        merged.setSpecified(specified);
+        if (!excluded.isEmpty()) {
+            merged.setNotIn(new ArrayList<>(excluded));
+        }
+        if (lower != null) {
+            if (lowerInclusive) {
+                merged.setGreaterThanOrEqual(lower);
+            } else {
+                merged.setGreaterThan(lower);
+            }
+        }
+        if (upper != null) {
+            if (upperInclusive) {
+                merged.setLessThanOrEqual(upper);
+            } else {
+                merged.setLessThan(upper);
+            }
+        }
+        return Optional.of(merged);
+    }
+
+    private static <F extends Comparable<? super F>> boolean isInRange(F value, F lower, boolean lowerInclusive, F upper, boolean upperInclusive) {
+        if (lower != null) {
+            int comparison = value.compareTo(lower);
+            if (comparison < 0 || (comparison == 0 && !lowerInclusive)) {
+                return false;
+            }
+        }
+        if (upper != null) {
+            int comparison = value.compareTo(upper);
+            return comparison < 0 || (comparison == 0 && upperInclusive);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,26 @@
+package nc.deveo.query.service;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when the key of a filter parameter does not follow the grammar of {@link FilterKey}.
+ */
+@Getter
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class FilterSyntaxException extends RuntimeException {
+
+    private final String key;
+
+    /**
+     * Position of the first invalid character in the key, from 0.
+     */
+    private final int position;
+
+    public FilterSyntaxException(String key, int position, String reason) {
+        super("Filtre invalide : " + key + " (position " + position + " : " + reason + ")");
+        this.key = key;
+        this.position = position;
+    }
+}
@@ -0,0 +1,98 @@
+package nc.deveo.query.service;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.data.domain.Sort;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A query template registered by a {@link QueryService}, with the syntax of the query parameters (URL-encoded)
+ * and named parameters as values.
+ * eg: nom|startsWith=:p&statut=ACTIF&factures.libelle=JEAN%20PAUL&sort=nom,asc
+ */
+@Getter
+public class NamedQuery {
+
+    private static final Pattern PARAMETER = Pattern.compile("^:(\\w+)$");
+
+    private final String name;
+
+    /**
+     * The filters whose value is a parameter, by filter key.
+     */
+    private final Map<String, String> parameterByFilter = new LinkedHashMap<>();
+
+    /**
+     * The filters whose value is fixed, by filter key.
+     */
+    private final Map<String, String> valueByFilter = new LinkedHashMap<>();
+
+    private Sort sort = Sort.unsorted();
+
+    /**
+     * The fixed filters, parsed once at startup.
+     */
+    @Setter(AccessLevel.PACKAGE)
+    private List<GenericFilter<?>> staticFilters = List.of();
+
+    /**
+     * The parameterized filters, resolved once at startup: they only convert the value of their parameter.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.PACKAGE)
+    private Map<String, Function<String, GenericFilter<?>>> filterBinders = Map.of();
+
+    NamedQuery(String name, String template) {
+        this.name = name;
+        for (String part : template.split("&")) {
+            if (part.isBlank()) {
+                continue;
+            }
+            int separator = part.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalStateException("Requête nommée " + name + " invalide : " + part);
+            }
+            String key = URLDecoder.decode(part.substring(0, separator), StandardCharsets.UTF_8).trim();
+            String value = URLDecoder.decode(part.substring(separator + 1), StandardCharsets.UTF_8).trim();
+            if (key.equals("sort")) {
+                String[] sortParts = value.split(",");
+                Sort.Direction direction = sortParts.length > 1 ? Sort.Direction.fromString(sortParts[1]) : Sort.Direction.ASC;
+                sort = sort.and(Sort.by(direction, sortParts[0]));
+                continue;
+            }
+            Matcher matcher = PARAMETER.matcher(value);
+            if (matcher.matches()) {
+                parameterByFilter.put(key, matcher.group(1));
+            } else {
+                valueByFilter.put(key, value);
+            }
+        }
+    }
+
+    public Set<String> getParameters() {
+        return new LinkedHashSet<>(parameterByFilter.values());
+    }
+
+    /**
+     * @param values the values of the parameters, decoded.
+     * @return the parameterized filters with their values.
+     */
+    List<GenericFilter<?>> bind(Map<String, String> values) {
+        List<GenericFilter<?>> filters = new ArrayList<>();
+        parameterByFilter.forEach((key, parameter) -> {
+            String value = values.get(parameter);
+            if (value == null) {
+                throw new NamedQueryException("Paramètre manquant pour la requête " + name + " : " + parameter);
+            }
+            filters.add(filterBinders.get(key).apply(value));
+        });
+        return filters;
+    }
+}
@@ -0,0 +1,15 @@
+package nc.deveo.query.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a named query is unknown or called without all its parameters.
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class NamedQueryException extends RuntimeException {
+
+    public NamedQueryException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,66 @@
+package nc.deveo.query.service;
+
+import org.hibernate.Session;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+/**
+ * Token allowing to cancel the JDBC statement executed by a {@link QueryService} from another thread.
+ * It can be registered on an asynchronous request to cancel the statement when the response is aborted:
+ * <code>
+ * request.getAsyncContext().addListener(cancellation);
+ * </code>
+ * A blocking request is never notified of the disconnection of its client, only an asynchronous one can be cancelled.
+ */
+public class QueryCancellation implements AsyncListener {
+
+    private volatile Session session;
+    private volatile boolean cancelled;
+
+    /**
+     * <p>Cancel the in-flight statement, and the ones which would be executed after.</p>
+     */
+    public void cancel() {
+        cancelled = true;
+        Session current = session;
+        if (current != null) {
+            current.cancelQuery();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void attach(Session session) {
+        this.session = session;
+        if (cancelled) {
+            throw new QueryCancelledException("Requête annulée");
+        }
+    }
+
+    void detach() {
+        this.session = null;
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        detach();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        cancel();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        cancel();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        event.getAsyncContext().addListener(this);
+    }
+}
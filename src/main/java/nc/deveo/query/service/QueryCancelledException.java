@@ -0,0 +1,15 @@
+package nc.deveo.query.service;
+
+/**
+ * Thrown when the statement of a {@link QueryService} has been cancelled through its {@link QueryCancellation}.
+ */
+public class QueryCancelledException extends RuntimeException {
+
+    public QueryCancelledException(String message) {
+        super(message);
+    }
+
+    public QueryCancelledException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
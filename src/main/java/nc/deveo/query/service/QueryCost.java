@@ -0,0 +1,61 @@
+package nc.deveo.query.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Static estimation of the cost of a parsed request, computed before any SQL is executed.
+ * Each component counts one of the constructs known to make the generated query expensive.
+ */
+@Getter
+@RequiredArgsConstructor
+public class QueryCost {
+
+    /**
+     * Number of joins on plural attributes (List, Set...), in filters and sorts.
+     */
+    private final int pluralJoins;
+
+    /**
+     * Number of OR branches ("/" between properties or "," between concatenated sub properties).
+     */
+    private final int orBranches;
+
+    /**
+     * Number of LIKE clauses starting with a wildcard (contains, notContains, containsIn, endsWith).
+     */
+    private final int leadingWildcards;
+
+    /**
+     * Total number of values in the in / notIn clauses.
+     */
+    private final int inValues;
+
+    /**
+     * Offset of the requested page.
+     */
+    private final long offset;
+
+    /**
+     * <p>Compute the score of this cost with the weights of the given policy.</p>
+     *
+     * @param policy a {@link QueryCostPolicy} object.
+     * @return the weighted score.
+     */
+    public long getScore(QueryCostPolicy policy) {
+        return pluralJoins * policy.getPluralJoinWeight()
+                + orBranches * policy.getOrBranchWeight()
+                + leadingWildcards * policy.getLeadingWildcardWeight()
+                + inValues * policy.getInValueWeight()
+                + (offset / policy.getOffsetUnit()) * policy.getOffsetWeight();
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCost [pluralJoins=" + pluralJoins
+                + ", orBranches=" + orBranches
+                + ", leadingWildcards=" + leadingWildcards
+                + ", inValues=" + inValues
+                + ", offset=" + offset + "]";
+    }
+}
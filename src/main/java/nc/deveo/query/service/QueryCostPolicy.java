@@ -0,0 +1,72 @@
+package nc.deveo.query.service;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Admission control policy applied by a {@link QueryService} to the requests whose {@link QueryCost} score
+ * exceeds {@link #getMaxScore()}.
+ * eg:
+ * protected QueryCostPolicy getQueryCostPolicy() {
+ * return QueryCostPolicy.builder().maxScore(100).action(QueryCostPolicy.Action.QUEUE).build();
+ * }
+ */
+@Getter
+@Builder
+public class QueryCostPolicy {
+
+    /**
+     * What to do with a request which is too expensive.
+     */
+    public enum Action {
+        /**
+         * The request is rejected with a {@link QueryRejectedException}.
+         */
+        REJECT,
+        /**
+         * The request waits until one of the {@link #getQueueConcurrency()} slots reserved
+         * to the expensive requests is free, or is rejected after {@link #getQueueTimeout()}.
+         */
+        QUEUE,
+        /**
+         * The request is executed without the count query: an {@link EstimatedPage} is returned, whose total
+         * only tells if a next page exists.
+         */
+        DOWNGRADE
+    }
+
+    @Builder.Default
+    private final long maxScore = 100;
+
+    @Builder.Default
+    private final Action action = Action.REJECT;
+
+    @Builder.Default
+    private final int queueConcurrency = 2;
+
+    @Builder.Default
+    private final Duration queueTimeout = Duration.ofSeconds(5);
+
+    @Builder.Default
+    private final long pluralJoinWeight = 10;
+
+    @Builder.Default
+    private final long orBranchWeight = 5;
+
+    @Builder.Default
+    private final long leadingWildcardWeight = 10;
+
+    @Builder.Default
+    private final long inValueWeight = 1;
+
+    /**
+     * Number of skipped rows counted as one offset unit.
+     */
+    @Builder.Default
+    private final long offsetUnit = 1000;
+
+    @Builder.Default
+    private final long offsetWeight = 10;
+}
@@ -0,0 +1,57 @@
+package nc.deveo.query.service;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Diagnostic of a request built by {@link QueryService#explain(Map, org.springframework.data.domain.Pageable)},
+ * without executing it.
+ */
+@Getter
+@Builder
+public class QueryExplanation {
+
+    /**
+     * How the request would be answered: IDENTIFIER_LOOKUP, IN_MEMORY_SNAPSHOT (when the snapshot supports the filters),
+     * NO_RESULT (contradictory filters) or SQL.
+     */
+    private final String strategy;
+
+    private final List<String> filters;
+
+    /**
+     * The filters after {@link QueryService#optimizeFilters(List)}, empty if they cannot match any row.
+     */
+    private final List<String> optimizedFilters;
+
+    /**
+     * For each filtered property path, LEFT JOIN when it crosses a collection (the count is then distinct),
+     * PATH otherwise.
+     */
+    private final Map<String, String> joins;
+
+    private final QueryCost cost;
+
+    private final String contentJpql;
+
+    /**
+     * The SQL of the content query, without the limit and offset of the page added by the dialect.
+     */
+    private final String contentSql;
+
+    private final List<String> contentPlan;
+
+    private final String countJpql;
+
+    private final String countSql;
+
+    private final List<String> countPlan;
+
+    /**
+     * Duration of each phase in microseconds: parse, optimize, build, translate, explain.
+     */
+    private final Map<String, Long> timings;
+}
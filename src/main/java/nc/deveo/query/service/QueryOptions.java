@@ -0,0 +1,30 @@
+package nc.deveo.query.service;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+
+/**
+ * Per-request execution options of a {@link QueryService}.
+ */
+@Getter
+@Builder
+public class QueryOptions {
+
+    public static final QueryOptions DEFAULT = QueryOptions.builder().build();
+
+    /**
+     * Timeout of the request, applied to the content and to the count queries.
+     * It cannot exceed the timeout of the entity ({@link QueryService#getQueryTimeout()}).
+     */
+    @Nullable
+    private final Duration timeout;
+
+    /**
+     * Token used to cancel the in-flight statement from another thread.
+     */
+    @Nullable
+    private final QueryCancellation cancellation;
+}
@@ -1,95 +1,2018 @@
 package nc.deveo.query.service;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
 import lombok.extern.log4j.Log4j2;
+import nc.deveo.query.cache.QueryCache;
+import nc.deveo.query.event.EntityChangeEvent;
+import nc.deveo.query.event.EntityChangeLog;
+import nc.deveo.query.event.EntityChangePublisher;
+import nc.deveo.query.index.BitmapIndex;
+import nc.deveo.query.json.ColumnarWriter;
+import nc.deveo.query.json.EntityJsonWriter;
+import nc.deveo.query.json.QueryFormat;
+import nc.deveo.query.index.PrefixIndex;
+import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.commons.lang3.tuple.MutablePair;
 import org.apache.commons.lang3.tuple.Pair;
-import org.springframework.beans.PropertyAccessor;
+import org.hibernate.QueryTimeoutException;
+import org.hibernate.Session;
+import org.hibernate.annotations.QueryHints;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.hql.spi.ParameterInformation;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.hql.spi.QueryTranslatorFactory;
 import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.support.PageableExecutionUtils;
 import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.*;
+import javax.persistence.criteria.CriteriaBuilder.In;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.PluralAttribute;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Base service for constructing and executing complex queries.
+ *
+ * @param <E> the type of the E which is queried.
+ * @param <R> the type of bean extending JpaSpecificationExecutor.
+ *            Most of the time, should be a repository.
+ */
+@Transactional(readOnly = true)
+@Log4j2
+@RequiredArgsConstructor
+@SuppressWarnings("unchecked")
+public abstract class QueryService<E, R extends JpaSpecificationExecutor<E>> {
+
+    public static final List<String> LIST_ARRAY_OPERATOR = List.of("in", "notIn", "containsIn");
+    /**
+     * Locale of the upper case values compared with upper() by the case insensitive operators.
+     */
+    public static final Locale UPPER_CASE_LOCALE = Locale.FRANCE;
+    public static final String SEARCH_PARAMS_REGEX = "^([\\w.,/]+?)(?>\\|(\\w+))??$";
+
+    @Getter(AccessLevel.PROTECTED)
+    private final R repository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired(required = false)
+    private EntityChangePublisher entityChangePublisher;
+
+    @Autowired(required = false)
+    private EntityChangeLog entityChangeLog;
+
+    private Semaphore expensiveQueryPermits;
+
+    private final Map<String, PrefixIndex> prefixIndexes = new ConcurrentHashMap<>();
+
+    private ColumnarSnapshot<E> columnarSnapshot;
+
+    private BitmapIndex bitmapIndex;
+
+    /**
+     * Distinguish the ETags of two runs of the application, the change versions restarting at 0.
+     */
+    private static final String ETAG_EPOCH = UUID.randomUUID().toString();
+
+    private Set<Class<?>> versionedTypes;
+
+    /**
+     * Serialize the values without the ObjectMapper of the application, outside of Spring Boot.
+     */
+    private static final ObjectMapper DEFAULT_OBJECT_MAPPER = new ObjectMapper().findAndRegisterModules();
+
+    /**
+     * Maximum number of cached writers per format, the writers of the other projections are built for each response.
+     */
+    private static final int MAX_CACHED_WRITERS = 256;
+
+    @Autowired(required = false)
+    private ObjectMapper objectMapper = DEFAULT_OBJECT_MAPPER;
+
+    private final Map<List<String>, EntityJsonWriter<E>> jsonWriters = new ConcurrentHashMap<>();
+
+    private final Map<List<String>, ColumnarWriter<E>> columnarWriters = new ConcurrentHashMap<>();
+
+    private ScrollSessions scrollSessions;
+
+    private QuerySubscriptions<E> querySubscriptions;
+
+    private final Map<String, NamedQuery> namedQueries = new HashMap<>();
+
+    private boolean cacheableQueries;
+
+    @Autowired(required = false)
+    private PlatformTransactionManager transactionManager;
+
+    private final SingleFlight<String, Page<E>> singleFlight = new SingleFlight<>();
+
+    /**
+     * The operators of {@link GenericFilter}, its properties.
+     */
+    private static final Set<String> FILTER_OPERATORS = Arrays.stream(FieldUtils.getAllFields(GenericFilter.class))
+            .map(Field::getName)
+            .collect(Collectors.toUnmodifiableSet());
+
+    private static final int MAX_RESOLVED_FILTER_KEYS = 1000;
+
+    /**
+     * Maximum number of changes read from the change log by {@link #findChanges}.
+     */
+    public static final int MAX_CHANGES = 1000;
+
+    private final Map<String, ResolvedFilterKey> resolvedFilterKeys = new ConcurrentHashMap<>();
+
+    private volatile Map<String, Field> entityFieldsByName;
+
+    private final Map<Field, Map<List<String>, Field>> lastDeclaredFields = new ConcurrentHashMap<>();
+
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private AsyncQueryExecutor asyncQueryExecutor;
+
+    private static final CBORFactory CBOR_FACTORY = new CBORFactory();
+
+    private static final SmileFactory SMILE_FACTORY = new SmileFactory();
+
+    /**
+     * Method which should return the Class<E>.
+     *
+     * @return Class
+     */
+    @NonNull
+    protected abstract Class<E> getType();
+
+    /**
+     * Method to implement if you need to initialize hibernate lazy dependencies.
+     * eg:
+     * protected Consumer<Contrat> initializeLazyDependencies() {
+     * return contrat -> {
+     * Hibernate.initialize(contrat.getListFacture());
+     * Hibernate.initialize(contrat.getSetObservation());
+     * };
+     * }
+     *
+     * @return Consumer
+     */
+    @Nullable
+    protected Consumer<E> initializeLazyDependencies() {
+        return null;
+    }
+
+    /**
+     * Method to implement to enable the admission control of the expensive requests.
+     * eg:
+     * protected QueryCostPolicy getQueryCostPolicy() {
+     * return QueryCostPolicy.builder().maxScore(50).action(QueryCostPolicy.Action.DOWNGRADE).build();
+     * }
+     *
+     * @return QueryCostPolicy
+     */
+    @Nullable
+    protected QueryCostPolicy getQueryCostPolicy() {
+        return null;
+    }
+
+    /**
+     * Method to implement to limit the duration of the queries of the entity.
+     * eg:
+     * protected Duration getQueryTimeout() {
+     * return Duration.ofSeconds(5);
+     * }
+     *
+     * @return Duration
+     */
+    @Nullable
+    protected Duration getQueryTimeout() {
+        return null;
+    }
+
+    /**
+     * Method to implement to load the entities read-only: the persistence context keeps no snapshot of them
+     * for the dirty checking, even when the request joins a read-write transaction. Their changes are never flushed.
+     * eg:
+     * protected boolean isReadOnlyHydration() {
+     * return true;
+     * }
+     *
+     * @return true to load the entities read-only.
+     */
+    protected boolean isReadOnlyHydration() {
+        return false;
+    }
+
+    /**
+     * Method to implement to change the number of rows fetched by the JDBC driver per round trip
+     * for the content queries.
+     * eg:
+     * protected Integer getFetchSize() {
+     * return 500;
+     * }
+     *
+     * @return the fetch size, null for the default of the driver.
+     */
+    @Nullable
+    protected Integer getFetchSize() {
+        return null;
+    }
+
+    /**
+     * Method to implement to serve the suggestions of some string attributes from an in-memory prefix index,
+     * kept current with the committed changes of the entity.
+     * eg:
+     * protected List<String> getPrefixIndexedFields() {
+     * return List.of("nom");
+     * }
+     *
+     * @return the names of the indexed attributes.
+     */
+    @NonNull
+    protected List<String> getPrefixIndexedFields() {
+        return List.of();
+    }
+
+    /**
+     * Method to implement to allow {@link #explain}, which returns the generated SQL and the plans of the database:
+     * enable it only where these details can be shown, eg behind an administration role.
+     *
+     * @return boolean
+     */
+    protected boolean isExplainEnabled() {
+        return false;
+    }
+
+    /**
+     * Method to implement to answer the conditional requests: {@link #computeETag} returns an ETag, and a request
+     * sent again with it in If-None-Match gets a 304 Not Modified while nothing was committed. Only the commits
+     * of this instance through Hibernate are seen: enable it when no other application or instance writes the entity.
+     *
+     * @return boolean
+     */
+    protected boolean isETagEnabled() {
+        return false;
+    }
+
+    /**
+     * Method to implement to record the committed changes of the entity in the change log, to answer the
+     * "changed since" requests of {@link #findChanges}. The table of the log must exist ({@link EntityChangeLog}).
+     *
+     * @return boolean
+     */
+    protected boolean isChangeTracked() {
+        return false;
+    }
+
+    /**
+     * Method to implement to answer the requests from an in-memory columnar snapshot of the entity,
+     * for the small and read-mostly entities. The snapshot is loaded at startup and the committed changes
+     * are reloaded by primary key before the next request. The requests which cannot be answered exactly
+     * in memory (filters or sorts on associations...) are still executed by the database.
+     *
+     * @return boolean
+     */
+    protected boolean isInMemorySnapshotEnabled() {
+        return false;
+    }
+
+    /**
+     * Method to implement to sort the null values in memory (snapshot, identifier lookup, shard merge) like the database does
+     * in ascending order, the order being reversed in descending order.
+     * H2, MySQL and SQL Server sort them first, PostgreSQL and Oracle last.
+     * eg:
+     * protected Sort.NullHandling getNullOrdering() {
+     * return Sort.NullHandling.NULLS_FIRST;
+     * }
+     *
+     * @return NULLS_FIRST or NULLS_LAST, NATIVE when unknown: the sorts on null values are executed by the database.
+     */
+    protected Sort.NullHandling getNullOrdering() {
+        return Sort.NullHandling.NATIVE;
+    }
+
+    /**
+     * Method to implement to sort and compare the strings in memory (snapshot, identifier lookup, shard merge) like the collation
+     * of the database, eg for a binary collation (H2 by default, PostgreSQL "C"):
+     * protected Comparator&lt;String&gt; getCollation() {
+     * return Comparator.naturalOrder();
+     * }
+     *
+     * @return the order of the strings, null when unknown: the sorts and ranges on strings are executed by the database.
+     */
+    @Nullable
+    protected Comparator<String> getCollation() {
+        return null;
+    }
+
+    /**
+     * Method to implement to choose the representative requests executed at startup, before the application
+     * accepts traffic, by {@link nc.deveo.query.warmup.QueryWarmUp}. By default, the first page without filter.
+     * eg:
+     * public List<Map<String, String>> getWarmUpRequests() {
+     * return List.of(Map.of("nom|startsWith", "a"), Map.of("factures.libelle|contains", "loyer"));
+     * }
+     *
+     * @return the parameters of the requests, no warm-up if empty.
+     */
+    @NonNull
+    public List<Map<String, String>> getWarmUpRequests() {
+        return List.of(Map.of());
+    }
+
+    /**
+     * Method to implement to limit the queries executed at the same time for the entity, the limit adapting
+     * to the latency of the queries. Each service has its own limit: a slow entity does not block the others.
+     * eg:
+     * protected ConcurrencyLimitPolicy getConcurrencyLimitPolicy() {
+     * return ConcurrencyLimitPolicy.builder().maxLimit(8).build();
+     * }
+     *
+     * @return ConcurrencyLimitPolicy
+     */
+    @Nullable
+    protected ConcurrencyLimitPolicy getConcurrencyLimitPolicy() {
+        return null;
+    }
+
+    /**
+     * Method to implement to coalesce the identical concurrent requests of {@link #findByCriteria}: the requests
+     * arriving while an identical request is executed share its result. The shared result is loaded in its own
+     * transaction and detached, the lazy associations rendered must be initialized by {@link #initializeLazyDependencies()}.
+     * eg:
+     * protected SingleFlightPolicy getSingleFlightPolicy() {
+     * return SingleFlightPolicy.builder().maxWait(Duration.ofSeconds(2)).build();
+     * }
+     *
+     * @return SingleFlightPolicy
+     */
+    @Nullable
+    protected SingleFlightPolicy getSingleFlightPolicy() {
+        return null;
+    }
+
+    /**
+     * Method to implement to execute the requests of {@link #findByCriteriaAsync} on a bounded executor of the service,
+     * releasing the servlet threads while they wait for the database. Without policy they are executed on the calling thread.
+     * eg:
+     * protected AsyncQueryPolicy getAsyncQueryPolicy() {
+     * return AsyncQueryPolicy.builder().maxThreads(20).build();
+     * }
+     *
+     * @return AsyncQueryPolicy
+     */
+    @Nullable
+    protected AsyncQueryPolicy getAsyncQueryPolicy() {
+        return null;
+    }
+
+    /**
+     * Method to implement to change the limits of the scroll sessions.
+     * eg:
+     * protected ScrollPolicy getScrollPolicy() {
+     * return ScrollPolicy.builder().ttl(Duration.ofMinutes(2)).maxRows(500_000).build();
+     * }
+     *
+     * @return ScrollPolicy
+     */
+    @NonNull
+    protected ScrollPolicy getScrollPolicy() {
+        return ScrollPolicy.builder().build();
+    }
+
+    /**
+     * Method to implement to change the limits of the live subscriptions of {@link #subscribe}.
+     * eg:
+     * protected SubscriptionPolicy getSubscriptionPolicy() {
+     * return SubscriptionPolicy.builder().maxSubscriptions(200).bufferSize(50).build();
+     * }
+     *
+     * @return SubscriptionPolicy
+     */
+    @NonNull
+    protected SubscriptionPolicy getSubscriptionPolicy() {
+        return SubscriptionPolicy.builder().build();
+    }
+
+    /**
+     * Method to implement to answer the counts on some enum or boolean attributes from in-memory bitmap indexes,
+     * kept current with the committed changes of the entity.
+     * eg:
+     * protected List<String> getBitmapIndexedFields() {
+     * return List.of("statut", "signe");
+     * }
+     *
+     * @return the names of the indexed attributes.
+     */
+    @NonNull
+    protected List<String> getBitmapIndexedFields() {
+        return List.of();
+    }
+
+    /**
+     * Method to implement to register named query templates, parsed and validated at startup
+     * and called through {@link #findByNamedQuery}. The template has the syntax of the query parameters,
+     * the values starting with ':' are named parameters.
+     * eg:
+     * protected Map<String, String> getNamedQueries() {
+     * return Map.of("contratsByNomPrefix", "nom|startsWith=:p&sort=nom");
+     * }
+     *
+     * @return the templates by name.
+     */
+    @NonNull
+    protected Map<String, String> getNamedQueries() {
+        return Map.of();
+    }
+
+    @PostConstruct
+    protected void initializeIndexes() {
+        QueryCache queryCache = AnnotationUtils.findAnnotation(getClass(), QueryCache.class);
+        cacheableQueries = queryCache != null && queryCache.queries();
+        getNamedQueries().forEach((name, template) -> namedQueries.put(name, compileNamedQuery(name, template)));
+        ConcurrencyLimitPolicy concurrencyLimitPolicy = getConcurrencyLimitPolicy();
+        if (concurrencyLimitPolicy != null) {
+            concurrencyLimiter = new AdaptiveConcurrencyLimiter(concurrencyLimitPolicy);
+            Tags tags = Tags.of("entity", getType().getSimpleName());
+            Metrics.gauge("query.concurrency.limit", tags, concurrencyLimiter, AdaptiveConcurrencyLimiter::getLimit);
+            Metrics.gauge("query.concurrency.inflight", tags, concurrencyLimiter, AdaptiveConcurrencyLimiter::getInFlight);
+            Metrics.gauge("query.concurrency.queue", tags, concurrencyLimiter, AdaptiveConcurrencyLimiter::getQueued);
+        }
+        if (isChangeTracked()) {
+            if (entityChangeLog == null) {
+                throw new IllegalStateException("Le journal des changements est requis pour suivre les changements de " + getType().getSimpleName());
+            }
+            entityChangeLog.track(getType());
+        }
+        AsyncQueryPolicy asyncQueryPolicy = getAsyncQueryPolicy();
+        if (asyncQueryPolicy != null) {
+            asyncQueryExecutor = new AsyncQueryExecutor("query-async-" + getType().getSimpleName(), asyncQueryPolicy);
+            Tags tags = Tags.of("entity", getType().getSimpleName());
+            Metrics.gauge("query.async.active", tags, asyncQueryExecutor, AsyncQueryExecutor::getActiveCount);
+            Metrics.gauge("query.async.queue", tags, asyncQueryExecutor, AsyncQueryExecutor::getQueued);
+        }
+        if (entityChangePublisher == null) {
+            return;
+        }
+        getPrefixIndexedFields().forEach(field -> prefixIndexes.put(field, new PrefixIndex()));
+        if (isInMemorySnapshotEnabled()) {
+            columnarSnapshot = new ColumnarSnapshot<>(this);
+        }
+        List<String> bitmapIndexedFields = getBitmapIndexedFields();
+        if (!bitmapIndexedFields.isEmpty()) {
+            for (String fieldName : bitmapIndexedFields) {
+                Field field = FieldUtils.getField(getType(), fieldName, true);
+                if (field == null || !(field.getType().isEnum() || field.getType() == Boolean.class || field.getType() == boolean.class)) {
+                    throw new IllegalStateException("Le champ " + getType().getSimpleName() + "." + fieldName + " ne peut pas avoir d'index bitmap (enum ou booléen attendu)");
+                }
+            }
+            bitmapIndex = new BitmapIndex(bitmapIndexedFields);
+        }
+        if (!prefixIndexes.isEmpty() || columnarSnapshot != null || bitmapIndex != null) {
+            entityChangePublisher.subscribe(this::onEntityChange);
+        }
+    }
+
+    @PreDestroy
+    protected void shutdownExecutors() {
+        if (asyncQueryExecutor != null) {
+            asyncQueryExecutor.shutdown();
+        }
+        synchronized (this) {
+            if (querySubscriptions != null) {
+                querySubscriptions.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Load the in-memory indexes, once the application is started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmIndexes() {
+        if (columnarSnapshot != null) {
+            long start = System.currentTimeMillis();
+            columnarSnapshot.load(loadEntities(null));
+            log.info("Snapshot de {} chargé en {} ms ({} lignes)", getType().getSimpleName(),
+                    System.currentTimeMillis() - start, columnarSnapshot.size());
+        }
+        prefixIndexes.forEach((field, index) -> {
+            long start = System.currentTimeMillis();
+            CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+            CriteriaQuery<Object[]> query = builder.createQuery(Object[].class);
+            Root<E> root = query.from(getType());
+            query.multiselect(root.get("id"), root.get(field));
+
+            Map<Long, String> valueById = new HashMap<>();
+            for (Object[] row : entityManager.createQuery(query).getResultList()) {
+                valueById.put(((Number) row[0]).longValue(), row[1] != null ? row[1].toString() : null);
+            }
+            index.warm(valueById);
+            log.info("Index de préfixes {}.{} chargé en {} ms ({} lignes)", getType().getSimpleName(), field,
+                    System.currentTimeMillis() - start, index.size());
+        });
+        if (bitmapIndex != null) {
+            long start = System.currentTimeMillis();
+            List<String> fields = getBitmapIndexedFields();
+            CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+            CriteriaQuery<Object[]> query = builder.createQuery(Object[].class);
+            Root<E> root = query.from(getType());
+            List<Selection<?>> selections = new ArrayList<>();
+            selections.add(root.get("id"));
+            fields.forEach(field -> selections.add(root.get(field)));
+            query.multiselect(selections);
+
+            Map<Object, Map<String, Object>> valuesById = new HashMap<>();
+            for (Object[] row : entityManager.createQuery(query).getResultList()) {
+                Map<String, Object> valueByField = new HashMap<>();
+                for (int i = 0; i < fields.size(); i++) {
+                    valueByField.put(fields.get(i), row[i + 1]);
+                }
+                valuesById.put(row[0], valueByField);
+            }
+            bitmapIndex.warm(valuesById);
+            log.info("Index bitmap de {} chargé en {} ms ({} lignes)", getType().getSimpleName(),
+                    System.currentTimeMillis() - start, bitmapIndex.size());
+        }
+    }
+
+    /**
+     * Load the entities with the given identifiers, all the entities if null.
+     */
+    private List<E> loadEntities(@Nullable Collection<Object> ids) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<E> query = builder.createQuery(getType());
+        Root<E> root = query.from(getType());
+        query.select(root);
+        if (ids != null) {
+            query.where(root.get("id").in(ids));
+        }
+        return withReadOnlyHydration(() -> {
+            List<E> entities = applyHydrationHints(entityManager.createQuery(query)).getResultList();
+            Consumer<E> consumer = this.initializeLazyDependencies();
+            if (consumer != null) {
+                entities.forEach(consumer);
+            }
+            return entities;
+        });
+    }
+
+    private void onEntityChange(EntityChangeEvent event) {
+        if (!getType().isAssignableFrom(event.getEntityType())) {
+            return;
+        }
+        if (columnarSnapshot != null) {
+            columnarSnapshot.markChanged(event.getId());
+        }
+        if (bitmapIndex != null) {
+            if (event.getOperation() == EntityChangeEvent.Operation.DELETE) {
+                bitmapIndex.remove(event.getId());
+            } else {
+                Map<String, Object> valueByField = new HashMap<>();
+                for (String field : getBitmapIndexedFields()) {
+                    try {
+                        valueByField.put(field, FieldUtils.readField(event.getEntity(), field, true));
+                    } catch (IllegalAccessException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+                bitmapIndex.put(event.getId(), valueByField);
+            }
+        }
+        if (!(event.getId() instanceof Number)) {
+            return;
+        }
+        long id = ((Number) event.getId()).longValue();
+        prefixIndexes.forEach((field, index) -> {
+            if (event.getOperation() == EntityChangeEvent.Operation.DELETE) {
+                index.remove(id);
+            } else {
+                try {
+                    Object value = FieldUtils.readField(event.getEntity(), field, true);
+                    index.put(id, value != null ? value.toString() : null);
+                } catch (IllegalAccessException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * The distinct values of an attribute starting with the given prefix, case insensitive.
+     * They are served by the prefix index of the attribute when it is declared and loaded, by the database otherwise,
+     * in the order of their upper case form in both cases.
+     *
+     * @param field  the attribute, eg nom.
+     * @param prefix the searched prefix.
+     * @param limit  the maximum number of values, positive.
+     * @return the values.
+     */
+    public List<String> suggest(String field, String prefix, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Nombre de suggestions invalide : " + limit);
+        }
+        PrefixIndex index = prefixIndexes.get(field);
+        if (index != null && index.isWarm()) {
+            return index.suggest(prefix, limit);
+        }
+
+        List<String> path = List.of(field.split("\\."));
+        try {
+            getLastDeclaredField(path, getType());
+        } catch (NoSuchFieldException ex) {
+            throw new RuntimeException(ex.getLocalizedMessage());
+        }
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<String> query = builder.createQuery(String.class);
+        Root<E> root = query.from(getType());
+        Expression<String> expression = getExpression(path, root);
+        // group by plutôt que distinct : la valeur triée, en majuscules, n'est pas sélectionnée
+        query.select(expression)
+                .where(builder.like(builder.upper(expression), wrapStartsWithQuery(prefix)))
+                .groupBy(expression)
+                .orderBy(builder.asc(builder.upper(expression)), builder.asc(expression));
+        return executeLimited(() -> applyTimeout(entityManager.createQuery(query), resolveTimeoutInSeconds(QueryOptions.DEFAULT))
+                .setMaxResults(limit)
+                .getResultList());
+    }
+
+    /**
+     * Build an ETag of the response of a request, from the request and the change versions of the entity
+     * and of all the entities reachable through its associations (used by the filters and rendered in the response).
+     * It is computed before any query: two identical ETags mean that nothing was committed in between.
+     *
+     * @param allParams the parameters of the request.
+     * @param page      the requested page.
+     * @return the ETag, null if it is not enabled by {@link #isETagEnabled()} or if the changes of the entities
+     * are not published.
+     */
+    @Nullable
+    public String computeETag(Map<String, String> allParams, Pageable page) {
+        if (!isETagEnabled() || entityChangePublisher == null) {
+            return null;
+        }
+        if (versionedTypes == null) {
+            Set<Class<?>> types = new LinkedHashSet<>();
+            collectAssociatedTypes(getType(), types);
+            versionedTypes = types;
+        }
+        StringBuilder builder = new StringBuilder(ETAG_EPOCH).append('|').append(encodeRequest(allParams, page));
+        for (Class<?> type : versionedTypes) {
+            builder.append('|').append(type.getName()).append('=').append(entityChangePublisher.getVersion(type));
+        }
+        return DigestUtils.md5DigestAsHex(builder.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Unambiguous encoding of a request (ETag, single-flight key), whatever the characters of its parameters:
+     * each parameter name and value and each sorted property is prefixed by its length, the parameters in the order
+     * of their names.
+     */
+    static String encodeRequest(Map<String, String> allParams, Pageable page) {
+        StringBuilder builder = new StringBuilder();
+        new TreeMap<>(allParams).forEach((name, value) -> {
+            appendLengthPrefixed(builder, name);
+            appendLengthPrefixed(builder, String.valueOf(value));
+        });
+        builder.append('|');
+        if (page.isPaged()) {
+            builder.append(page.getPageNumber()).append(',').append(page.getPageSize());
+        } else {
+            builder.append("unpaged");
+        }
+        for (Sort.Order order : page.getSort()) {
+            appendLengthPrefixed(builder.append('|'), order.getProperty())
+                    .append(order.getDirection()).append(',').append(order.getNullHandling()).append(',').append(order.isIgnoreCase());
+        }
+        return builder.toString();
+    }
+
+    private static StringBuilder appendLengthPrefixed(StringBuilder builder, String value) {
+        return builder.append(value.length()).append(':').append(value);
+    }
+
+    private void collectAssociatedTypes(Class<?> type, Set<Class<?>> types) {
+        if (!types.add(type)) {
+            return;
+        }
+        for (Attribute<?, ?> attribute : entityManager.getMetamodel().managedType(type).getAttributes()) {
+            if (attribute.isAssociation()) {
+                collectAssociatedTypes(attribute instanceof PluralAttribute
+                        ? ((PluralAttribute<?, ?, ?>) attribute).getElementType().getJavaType()
+                        : attribute.getJavaType(), types);
+            }
+        }
+    }
+
+    /**
+     * Write a page of entities in JSON with the writer of the projection, built at the first use.
+     * The lazy associations which are not initialized are written as identifiers or omitted, never loaded.
+     *
+     * @param page   the entities.
+     * @param fields the written attributes, all the attributes if empty.
+     * @param output the output, not closed.
+     */
+    public void writeJson(Page<E> page, List<String> fields, OutputStream output) throws IOException {
+        write(page, fields, QueryFormat.JSON, output);
+    }
+
+    /**
+     * Write a page of entities in the given format with the writer of the projection, built at the first use.
+     *
+     * @param page   the entities.
+     * @param fields the written attributes, all the attributes if empty.
+     * @param format JSON, CBOR or SMILE with the same structure, or COLUMNAR.
+     * @param output the output, not closed.
+     */
+    public void write(Page<E> page, List<String> fields, QueryFormat format, OutputStream output) throws IOException {
+        if (format == QueryFormat.COLUMNAR) {
+            getWriter(columnarWriters, fields, projection -> new ColumnarWriter<>(getType(), projection.isEmpty() ? null : projection,
+                            entityManager.getMetamodel(), entityManager.getEntityManagerFactory().getPersistenceUnitUtil()))
+                    .writePage(page, output);
+            return;
+        }
+        EntityJsonWriter<E> writer = getJsonWriter(fields);
+        JsonFactory factory = switch (format) {
+            case CBOR -> CBOR_FACTORY;
+            case SMILE -> SMILE_FACTORY;
+            default -> objectMapper.getFactory();
+        };
+        try (JsonGenerator generator = factory.createGenerator(output)) {
+            // sérialisation des dates... par l'ObjectMapper de l'application, quel que soit le format
+            generator.setCodec(objectMapper);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            writer.writePage(page, generator);
+        }
+    }
+
+    /**
+     * The data of a subscription event: the entity with the attributes of the projection, or its identifier alone.
+     */
+    String writeEventJson(@Nullable E entity, Object id, List<String> fields) {
+        StringWriter output = new StringWriter();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(output)) {
+            if (entity != null) {
+                getJsonWriter(fields).writeEntity(entity, generator);
+            } else {
+                generator.writeStartObject();
+                generator.writeObjectField("id", id);
+                generator.writeEndObject();
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Erreur lors de l'écriture de " + getType().getSimpleName() + " " + id, ex);
+        }
+        return output.toString();
+    }
+
+    private EntityJsonWriter<E> getJsonWriter(List<String> fields) {
+        return getWriter(jsonWriters, fields, projection -> new EntityJsonWriter<>(getType(), projection.isEmpty() ? null : projection,
+                entityManager.getMetamodel(), entityManager.getEntityManagerFactory().getPersistenceUnitUtil()));
+    }
+
+    /**
+     * The writer of a projection, cached under its distinct sorted attributes: the order and the repetitions of the
+     * requested attributes do not change the written attributes. Only the writers of valid projections are cached,
+     * at most {@link #MAX_CACHED_WRITERS}.
+     */
+    private static <W> W getWriter(Map<List<String>, W> writers, List<String> fields, Function<List<String>, W> factory) {
+        List<String> projection = fields.stream().distinct().sorted().toList();
+        W writer = writers.get(projection);
+        if (writer == null) {
+            writer = factory.apply(projection);
+            if (writers.size() < MAX_CACHED_WRITERS) {
+                writers.putIfAbsent(projection, writer);
+            }
+        }
+        return writer;
+    }
+
+    private NamedQuery compileNamedQuery(String name, String template) {
+        NamedQuery namedQuery = new NamedQuery(name, template);
+        Set<String> filterKeys = new LinkedHashSet<>(namedQuery.getParameterByFilter().keySet());
+        filterKeys.addAll(namedQuery.getValueByFilter().keySet());
+        try {
+            for (String filterKey : filterKeys) {
+                FilterKey parsedKey = FilterKey.parse(filterKey);
+                if (parsedKey.getOperator() != null && !FILTER_OPERATORS.contains(parsedKey.getOperator())) {
+                    throw new IllegalStateException("Opérateur inconnu : " + parsedKey.getOperator());
+                }
+                for (FilterKey.Term term : parsedKey.getTerms()) {
+                    List<String> path = new ArrayList<>(term.getPath());
+                    for (String subProperty : term.getSubProperties()) {
+                        path.set(path.size() - 1, subProperty);
+                        getLastDeclaredField(path, getType());
+                    }
+                }
+            }
+            for (Sort.Order order : namedQuery.getSort()) {
+                getLastDeclaredField(List.of(order.getProperty().split("\\.")), getType());
+            }
+            namedQuery.setStaticFilters(List.copyOf(parseFilters(namedQuery.getValueByFilter())));
+            Map<String, Function<String, GenericFilter<?>>> filterBinders = new HashMap<>();
+            for (String filterKey : namedQuery.getParameterByFilter().keySet()) {
+                filterBinders.put(filterKey, compileFilterBinder(name, filterKey));
+            }
+            namedQuery.setFilterBinders(filterBinders);
+        } catch (NoSuchFieldException | RuntimeException ex) {
+            throw new IllegalStateException("Requête nommée " + getType().getSimpleName() + "." + name + " invalide : " + ex.getLocalizedMessage(), ex);
+        }
+        return namedQuery;
+    }
+
+    /**
+     * Resolve once the fields, the types and the operators of a parameterized filter of a named query:
+     * the returned binder only converts the value of the parameter.
+     */
+    private Function<String, GenericFilter<?>> compileFilterBinder(String name, String filterKey) throws NoSuchFieldException {
+        ResolvedFilterKey resolvedKey = new ResolvedFilterKey(FilterKey.parse(filterKey), getFieldsByName(getType()));
+        List<Class<?>> types = new ArrayList<>();
+        for (int i = 0; i < resolvedKey.properties.size(); i++) {
+            types.add(getLastDeclaredField(resolvedKey.fields.get(i), resolvedKey.properties.get(i)).getType());
+        }
+        return value -> {
+            GenericFilter<?> genericFilter = new GenericFilter<>();
+            Map.Entry<String, String> param = Map.entry(filterKey, value);
+            List<Pair<List<String>, List<String>>> propertiesToSearch = new ArrayList<>();
+            try {
+                for (int i = 0; i < resolvedKey.properties.size(); i++) {
+                    String searchOperator = resolvedKey.searchOperators.get(i);
+                    if (LIST_ARRAY_OPERATOR.contains(searchOperator)) {
+                        writeInFilterForArrayValue(genericFilter, types.get(i), param, searchOperator);
+                    } else {
+                        writeInFilterForSimpleValue(genericFilter, types.get(i), param, searchOperator);
+                    }
+                    List<String> subProperties = resolvedKey.subProperties.get(i);
+                    propertiesToSearch.add(new MutablePair<>(resolvedKey.properties.get(i), subProperties.size() > 0 ? subProperties : null));
+                }
+            } catch (ParseException | RuntimeException ex) {
+                throw new NamedQueryException("Valeur invalide pour la requête " + name + " : " + filterKey + "=" + value);
+            }
+            genericFilter.setPropertiesToSearch(propertiesToSearch);
+            return genericFilter;
+        };
+    }
+
+    /**
+     * Execute a named query registered by {@link #getNamedQueries()}.
+     * Its filters are resolved once at startup: the fixed ones are parsed, the parameterized ones only convert
+     * the value of their parameter at each call.
+     *
+     * @param name       the name of the query.
+     * @param parameters the values of the parameters, the other values are ignored.
+     * @param page       the requested page, sorted by the sort of the template when it has none.
+     * @param options    the execution options of the request.
+     * @return Page
+     */
+    public Page<E> findByNamedQuery(String name, Map<String, String> parameters, Pageable page, QueryOptions options) {
+        NamedQuery namedQuery = namedQueries.get(name);
+        if (namedQuery == null) {
+            throw new NamedQueryException("Requête nommée inconnue : " + name);
+        }
+        List<GenericFilter<?>> filters = new ArrayList<>(namedQuery.getStaticFilters());
+        filters.addAll(namedQuery.bind(parameters));
+        if (page.isPaged() && page.getSort().isUnsorted()) {
+            page = PageRequest.of(page.getPageNumber(), page.getPageSize(), namedQuery.getSort());
+        }
+        return findByFilters(filters, page, options);
+    }
+
+    /**
+     * Open a scroll session: the request is executed once and the ordered identifiers of its result are kept,
+     * so that all its pages are read from the same result, without offset.
+     *
+     * @param allParams the filters of the request.
+     * @param page      the sort and the size of the pages.
+     * @param options   the execution options of the request.
+     * @return the first page, with the token of the session.
+     */
+    public ScrollPage<E> openScroll(Map<String, String> allParams, Pageable page, QueryOptions options) {
+        ScrollPolicy policy = getScrollPolicy();
+        List<GenericFilter<?>> filters = parseFilters(allParams);
+
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object> query = builder.createQuery(Object.class);
+        Root<E> root = query.from(getType());
+        Predicate predicate = buildAllGenericSpecification(getType(), filters, page).toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.select(root.get("id"));
+        List<Object> rows = executeLimited(() -> applyTimeout(entityManager.createQuery(query), resolveTimeoutInSeconds(options))
+                .setMaxResults(policy.getMaxRows() + 1)
+                .getResultList());
+        // un tri sur une liste peut renvoyer plusieurs fois le même identifiant
+        Object[] ids = new LinkedHashSet<>(rows).toArray();
+        if (rows.size() > policy.getMaxRows()) {
+            throw new QueryRejectedException("Trop de résultats pour un scroll (plus de " + policy.getMaxRows() + ")");
+        }
+
+        int pageSize = page.isPaged() ? page.getPageSize() : ids.length;
+        ScrollSessions.Session session = getScrollSessions().open(ids, page.getSort(), Math.max(1, pageSize));
+        return readScrollPage(session, 0);
+    }
+
+    /**
+     * Read a page of a scroll session. The deleted entities are missing from the page.
+     *
+     * @param token      the token of the session.
+     * @param pageNumber the number of the page, from 0.
+     * @return the page.
+     */
+    public ScrollPage<E> scroll(String token, int pageNumber) {
+        if (pageNumber < 0) {
+            throw new IllegalArgumentException("Numéro de page invalide : " + pageNumber);
+        }
+        return readScrollPage(getScrollSessions().get(token), pageNumber);
+    }
+
+    public void closeScroll(String token) {
+        getScrollSessions().close(token);
+    }
+
+    private ScrollPage<E> readScrollPage(ScrollSessions.Session session, int pageNumber) {
+        Object[] ids = session.getIds();
+        int from = (int) Math.min((long) pageNumber * session.getPageSize(), ids.length);
+        int to = Math.min(from + session.getPageSize(), ids.length);
+        List<Object> pageIds = Arrays.asList(ids).subList(from, to);
+
+        List<E> content = new ArrayList<>();
+        if (!pageIds.isEmpty()) {
+            PersistenceUnitUtil unitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+            Map<Object, E> entityById = new HashMap<>();
+            executeLimited(() -> loadEntities(pageIds)).forEach(entity -> entityById.put(unitUtil.getIdentifier(entity), entity));
+            for (Object id : pageIds) {
+                E entity = entityById.get(id);
+                if (entity != null) {
+                    content.add(entity);
+                }
+            }
+        }
+        return new ScrollPage<>(content, PageRequest.of(pageNumber, session.getPageSize(), session.getSort()), ids.length, session.getToken());
+    }
+
+    /**
+     * The changes of the result of the request since a token: the matching entities inserted or updated after it,
+     * the identifiers of the entities deleted or no longer matching, and the token of the next call.
+     * A sync costs the number of changes, not the size of the result. The changes are read by batches of
+     * {@link #MAX_CHANGES}, the next ones are returned by the next call.
+     * eg: the client takes the current token with an empty token, loads the whole result with {@link #findByCriteria},
+     * then calls this method with the last token from time to time.
+     *
+     * @param allParams the filters of the request.
+     * @param since     the token of the previous call, empty for the current token without changes.
+     * @param sort      the sort of the changed entities.
+     * @param options   the execution options of the request.
+     * @throws ChangeTokenExpiredException if the changes since the token are no longer in the log.
+     */
+    public ChangeSet<E> findChanges(Map<String, String> allParams, String since, Sort sort, QueryOptions options) {
+        if (entityChangeLog == null || !entityChangeLog.isTracked(getType())) {
+            throw new IllegalStateException("Les changements de " + getType().getSimpleName() + " ne sont pas suivis");
+        }
+        if (since == null || since.isEmpty()) {
+            return new ChangeSet<>(List.of(), List.of(), String.valueOf(entityChangeLog.getLatestSequence()), false);
+        }
+        long sequence;
+        try {
+            sequence = Long.parseLong(since);
+        } catch (NumberFormatException ex) {
+            throw new ChangeTokenExpiredException("Jeton de changements invalide : " + since);
+        }
+        // horizon sûr lu avant les changements : tous ceux jusqu'à cette séquence sont commités
+        long latest = entityChangeLog.getLatestSequence();
+        if (!entityChangeLog.isAvailable(sequence)) {
+            throw new ChangeTokenExpiredException("Changements depuis " + since + " purgés du journal, rechargement complet nécessaire");
+        }
+        List<EntityChangeLog.Entry> entries = entityChangeLog.read(getType(), sequence, latest, MAX_CHANGES);
+        boolean hasMore = entries.size() > MAX_CHANGES;
+        if (hasMore) {
+            entries = entries.subList(0, MAX_CHANGES);
+        }
+
+        // seule la dernière opération de chaque entité compte
+        Map<Object, EntityChangeEvent.Operation> operationById = new LinkedHashMap<>();
+        Class<?> idType = FieldUtils.getField(getType(), "id", true).getType();
+        for (EntityChangeLog.Entry entry : entries) {
+            Object id;
+            try {
+                id = parseAndCastValue(entry.getId(), idType);
+            } catch (ParseException ex) {
+                throw new IllegalStateException("Identifiant invalide dans le journal des changements : " + entry.getId(), ex);
+            }
+            operationById.remove(id);
+            operationById.put(id, entry.getOperation());
+        }
+        List<Object> removedIds = new ArrayList<>();
+        List<Object> changedIds = new ArrayList<>();
+        operationById.forEach((id, operation) -> (operation == EntityChangeEvent.Operation.DELETE ? removedIds : changedIds).add(id));
+
+        List<E> content = new ArrayList<>();
+        if (!changedIds.isEmpty()) {
+            GenericFilter<Comparable<Object>> changedFilter = new GenericFilter<>();
+            changedFilter.setIn((List) changedIds);
+            changedFilter.setPropertiesToSearch(new ArrayList<>(List.of(new MutablePair<>(List.of("id"), List.of("id")))));
+            List<GenericFilter<?>> filters = parseFilters(allParams);
+            filters.add(changedFilter);
+            content.addAll(findByFilters(filters, PageRequest.of(0, changedIds.size(), sort.isSorted() ? sort : Sort.by("id")), options).getContent());
+
+            PersistenceUnitUtil unitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+            Set<Object> matchingIds = new HashSet<>();
+            content.forEach(entity -> matchingIds.add(unitUtil.getIdentifier(entity)));
+            changedIds.stream().filter(id -> !matchingIds.contains(id)).forEach(removedIds::add);
+        }
+        long lastRead = entries.isEmpty() ? sequence : entries.get(entries.size() - 1).getSequence();
+        long token = hasMore ? lastRead : Math.max(lastRead, latest);
+        return new ChangeSet<>(content, removedIds, String.valueOf(token), hasMore);
+    }
+
+    /**
+     * Subscribe to the changes of the result of the request: an event is sent over Server-Sent Events when a committed
+     * change makes an entity enter the result ("enter", with the entity), change within it ("change", with the entity)
+     * or leave it ("leave", with its identifier). The client loads the result with {@link #findByCriteria}
+     * after subscribing, the events of the same entity may repeat the loaded state.
+     * Only the changes of the entity itself are published, a change of an association does not.
+     * The limits are given by {@link #getSubscriptionPolicy()}, a subscriber too slow receives an "overflow" event
+     * and is closed.
+     *
+     * @param allParams the filters of the request.
+     * @param fields    the attributes written in the events, all the attributes if empty.
+     * @return the emitter of the events.
+     * @throws QueryRejectedException if too many subscriptions are open or if the result is too large.
+     */
+    public SseEmitter subscribe(Map<String, String> allParams, List<String> fields) {
+        return getQuerySubscriptions().subscribe(parseFilters(allParams), encodeRequest(allParams, Pageable.unpaged()), fields);
+    }
+
+    private synchronized QuerySubscriptions<E> getQuerySubscriptions() {
+        if (querySubscriptions == null) {
+            if (entityChangePublisher == null) {
+                throw new IllegalStateException("La publication des changements est requise pour s'abonner aux changements de " + getType().getSimpleName());
+            }
+            querySubscriptions = new QuerySubscriptions<>(this, getSubscriptionPolicy(), entityChangePublisher);
+            Metrics.gauge("query.subscriptions", Tags.of("entity", getType().getSimpleName()), querySubscriptions, QuerySubscriptions::size);
+        }
+        return querySubscriptions;
+    }
+
+    /**
+     * The identifiers of the entities matching the filters, in the current transaction.
+     *
+     * @param filters the optimized filters.
+     * @param ids     the only entities checked, all the entities if null.
+     * @param maxRows the maximum number of identifiers.
+     * @throws QueryRejectedException if more entities match.
+     */
+    Set<Object> findMatchingIds(List<GenericFilter<?>> filters, @Nullable Collection<?> ids, int maxRows) {
+        if (ids != null && ids.isEmpty()) {
+            return new HashSet<>();
+        }
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object> query = builder.createQuery(Object.class);
+        Root<E> root = query.from(getType());
+        Predicate predicate = buildFilterSpecification(getType(), filters).toPredicate(root, query, builder);
+        if (ids != null) {
+            Predicate inIds = root.get("id").in(ids);
+            predicate = predicate != null ? builder.and(predicate, inIds) : inIds;
+        }
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.select(root.get("id")).distinct(true);
+        List<Object> rows = executeLimited(() -> entityManager.createQuery(query).setMaxResults(maxRows + 1).getResultList());
+        if (rows.size() > maxRows) {
+            throw new QueryRejectedException("Trop de résultats pour un abonnement (plus de " + maxRows + ")");
+        }
+        return new HashSet<>(rows);
+    }
+
+    private synchronized ScrollSessions getScrollSessions() {
+        if (scrollSessions == null) {
+            scrollSessions = new ScrollSessions(getScrollPolicy());
+        }
+        return scrollSessions;
+    }
+
+    /**
+     * Count the entities matching the request.
+     * When all the filters are equals / in / notIn / notEquals / specified on attributes with a bitmap index,
+     * the count is computed in memory, by the database otherwise.
+     *
+     * @param allParams the filters of the request.
+     * @param options   the execution options of the request.
+     * @return the number of entities.
+     */
+    public long countByCriteria(Map<String, String> allParams, QueryOptions options) {
+        Optional<List<GenericFilter<?>>> optimizedFilters = optimizeFilters(parseFilters(allParams));
+        if (optimizedFilters.isEmpty()) {
+            return 0;
+        }
+        List<GenericFilter<?>> filters = optimizedFilters.get();
+        if (bitmapIndex != null && bitmapIndex.isWarm() && filters.stream().allMatch(this::isBitmapCountable)) {
+            return bitmapIndex.count(bitmaps -> {
+                BitSet rows = bitmaps.all();
+                filters.forEach(filter -> rows.and(evaluateBitmapFilter(filter, bitmaps)));
+                return rows;
+            });
+        }
+        return executeLimited(() -> applyTimeout(createCountQuery(buildFilterSpecification(getType(), filters)), resolveTimeoutInSeconds(options))
+                .getSingleResult());
+    }
+
+    private boolean isBitmapCountable(GenericFilter<?> filter) {
+        if (filter.getPropertiesToSearch().size() != 1) {
+            return false;
+        }
+        Pair<List<String>, List<String>> propertyToSearch = filter.getPropertiesToSearch().get(0);
+        if (propertyToSearch.getKey().size() != 1 || !bitmapIndex.isIndexed(propertyToSearch.getKey().get(0))
+                || (propertyToSearch.getValue() != null && propertyToSearch.getValue().size() > 1)) {
+            return false;
+        }
+        if (filter.getEquals() != null || filter.getIn() != null) {
+            // Comme buildSpecification, les autres opérateurs sont alors ignorés
+            return true;
+        }
+        return filter.getGreaterThan() == null && filter.getGreaterThanOrEqual() == null
+                && filter.getLessThan() == null && filter.getLessThanOrEqual() == null
+                && filter.getContains() == null && filter.getStartsWith() == null && filter.getEndsWith() == null
+                && filter.getContainsIn() == null && filter.getDoesNotContain() == null;
+    }
+
+    /**
+     * Same semantics as {@link #buildSpecification}, the null values never match notEquals or notIn.
+     */
+    private BitSet evaluateBitmapFilter(GenericFilter<?> filter, BitmapIndex.Bitmaps bitmaps) {
+        String field = filter.getPropertiesToSearch().get(0).getKey().get(0);
+        if (filter.getEquals() != null) {
+            return bitmaps.values(field, toIndexedValues(field, List.of(filter.getEquals())));
+        } else if (filter.getIn() != null) {
+            return bitmaps.values(field, toIndexedValues(field, filter.getIn()));
+        }
+
+        BitSet rows = bitmaps.all();
+        if (filter.getNotEquals() != null) {
+            rows.andNot(bitmaps.values(field, toIndexedValues(field, List.of(filter.getNotEquals()))));
+            rows.andNot(bitmaps.nulls(field));
+        }
+        if (filter.getSpecified() != null) {
+            if (filter.getSpecified()) {
+                rows.andNot(bitmaps.nulls(field));
+            } else {
+                rows.and(bitmaps.nulls(field));
+            }
+        }
+        if (filter.getNotIn() != null) {
+            rows.andNot(bitmaps.values(field, toIndexedValues(field, filter.getNotIn())));
+            rows.andNot(bitmaps.nulls(field));
+        }
+        return rows;
+    }
+
+    /**
+     * The values of a primitive boolean attribute are not converted by {@link #parseAndCastValue}.
+     */
+    private List<Object> toIndexedValues(String field, List<?> values) {
+        List<Object> indexedValues = new ArrayList<>();
+        for (Object value : values) {
+            indexedValues.add(value instanceof String && FieldUtils.getField(getType(), field, true).getType() == boolean.class
+                    ? parseBoolean((String) value)
+                    : value);
+        }
+        return indexedValues;
+    }
+
+    public Page<E> findByCriteria(Map<String, String> allParams, Pageable page) {
+        return findByCriteria(allParams, page, QueryOptions.DEFAULT);
+    }
+
+    public Page<E> findByCriteria(Map<String, String> allParams, Pageable page, QueryOptions options) {
+        if (!isSingleFlight(options)) {
+            return executeFindByCriteria(allParams, page, options);
+        }
+        String key = encodeRequest(allParams, page) + "|" + options.getTimeout();
+        // le résultat partagé ne doit pas dépendre de la session de l'appelant
+        return singleFlight.execute(key, getSingleFlightPolicy(), () -> newReadOnlyTransaction().execute(status -> executeFindByCriteria(allParams, page, options)));
+    }
+
+    /**
+     * Execute {@link #findByCriteria} on the executor of {@link #getAsyncQueryPolicy()}, in its own read-only transaction:
+     * the entities are detached, the lazy associations rendered must be initialized by {@link #initializeLazyDependencies()}.
+     * The transaction of the caller is suspended, no connection is held by the calling thread.
+     *
+     * @throws QueryRejectedException if the queue of the executor is full.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public CompletableFuture<Page<E>> findByCriteriaAsync(Map<String, String> allParams, Pageable page, QueryOptions options) {
+        // une requête partagée ouvre déjà sa propre transaction
+        Supplier<Page<E>> execution = transactionManager == null || isSingleFlight(options)
+                ? () -> findByCriteria(allParams, page, options)
+                : () -> newReadOnlyTransaction().execute(status -> executeFindByCriteria(allParams, page, options));
+        if (asyncQueryExecutor == null) {
+            try {
+                return CompletableFuture.completedFuture(execution.get());
+            } catch (RuntimeException ex) {
+                return CompletableFuture.failedFuture(ex);
+            }
+        }
+        return asyncQueryExecutor.submit(execution);
+    }
+
+    private boolean isSingleFlight(QueryOptions options) {
+        // une requête annulable ne peut pas être partagée
+        return getSingleFlightPolicy() != null && transactionManager != null && options.getCancellation() == null;
+    }
+
+    TransactionTemplate newReadOnlyTransaction() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        transactionTemplate.setReadOnly(true);
+        return transactionTemplate;
+    }
+
+    private Page<E> executeFindByCriteria(Map<String, String> allParams, Pageable page, QueryOptions options) {
+        if (columnarSnapshot == null || !columnarSnapshot.isWarm()) {
+            Optional<List<Object>> ids = parseIdentifierLookup(allParams, page);
+            if (ids.isPresent()) {
+                return findByIds(ids.get(), page, options);
+            }
+        }
+        return findByFilters(parseFilters(allParams), page, options);
+    }
+
+    /**
+     * The identifiers of the request when it is only an id / id|in filter, with a sort on the attributes of the entity.
+     */
+    private Optional<List<Object>> parseIdentifierLookup(Map<String, String> allParams, Pageable page) {
+        String idValues = null;
+        boolean inOperator = false;
+        for (Map.Entry<String, String> param : allParams.entrySet()) {
+            switch (param.getKey()) {
+                case "id", "id|in" -> {
+                    if (idValues != null) {
+                        return Optional.empty();
+                    }
+                    idValues = param.getValue();
+                    inOperator = param.getKey().equals("id|in");
+                }
+                case "page", "size", "sort" -> {
+                    // paramètres de la pagination
+                }
+                default -> {
+                    return Optional.empty();
+                }
+            }
+        }
+        if (idValues == null) {
+            return Optional.empty();
+        }
+        Field idField = FieldUtils.getField(getType(), "id", true);
+        // l'égalité sur une chaîne est insensible à la casse en base
+        if (idField == null || idField.getType() == String.class) {
+            return Optional.empty();
+        }
+        if (!isSortableInMemory(page.getSort())) {
+            return Optional.empty();
+        }
+        try {
+            if (!inOperator) {
+                // une seule valeur pour l'égalité, comme en base
+                return Optional.of(List.of(parseAndCastValue(idValues, idField.getType())));
+            }
+            return Optional.of(new ArrayList<>(new LinkedHashSet<>(parseAndCastList(idValues.split(","), idField.getType()))));
+        } catch (ParseException | IllegalArgumentException ex) {
+            throw new RuntimeException(ex.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Load entities by identifier through the persistence context, the second-level cache and the batch loading,
+     * without any criteria query. The page is sorted in memory and the total is the number of found entities.
+     *
+     * @param ids  the identifiers, in the order of the result when the page is not sorted.
+     * @param page the requested page, sorted on attributes of the entity whose null ordering and collation
+     *             are declared by {@link #getNullOrdering()} and {@link #getCollation()}.
+     * @return Page
+     */
+    public Page<E> findByIds(List<Object> ids, Pageable page) {
+        return findByIds(ids, page, QueryOptions.DEFAULT);
+    }
+
+    /**
+     * Load entities by identifier, like {@link #findByIds(List, Pageable)}, with the execution options of the request.
+     * When a timeout applies, the entities are loaded by a single query with this timeout instead of the
+     * second-level cache and the batch loading, which cannot bound their SQL.
+     *
+     * @param ids     the identifiers, in the order of the result when the page is not sorted.
+     * @param page    the requested page.
+     * @param options the execution options of the request.
+     * @return Page
+     */
+    public Page<E> findByIds(List<Object> ids, Pageable page, QueryOptions options) {
+        if (!isSortableInMemory(page.getSort())) {
+            throw new IllegalArgumentException("Tri impossible en mémoire comme en base : " + page.getSort());
+        }
+        Integer timeout = resolveTimeoutInSeconds(options);
+        return executeLimited(() -> withReadOnlyHydration(() -> {
+            List<E> entities;
+            if (timeout != null) {
+                entities = loadByIds(ids, timeout, options.getCancellation());
+            } else if (ids.size() == 1) {
+                E entity = entityManager.find(getType(), ids.get(0));
+                entities = entity != null ? List.of(entity) : List.of();
+            } else {
+                List<E> loaded = entityManager.unwrap(Session.class).byMultipleIds(getType()).multiLoad((List<Serializable>) (List<?>) ids);
+                entities = loaded.stream().filter(Objects::nonNull).collect(Collectors.toList());
+            }
+
+            if (page.getSort().isSorted()) {
+                entities = new ArrayList<>(entities);
+                entities.sort(sortComparator(page.getSort()));
+            }
+            List<E> content = entities;
+            if (page.isPaged()) {
+                int from = (int) Math.min(page.getOffset(), entities.size());
+                content = entities.subList(from, Math.min(from + page.getPageSize(), entities.size()));
+            }
+            Consumer<E> consumer = this.initializeLazyDependencies();
+            if (consumer != null) {
+                content.forEach(consumer);
+            }
+            return new PageImpl<>(content, page, entities.size());
+        }));
+    }
+
+    /**
+     * The entities of the identifiers loaded by a query with the timeout, in the order of the identifiers.
+     */
+    private List<E> loadByIds(List<Object> ids, Integer timeout, @Nullable QueryCancellation cancellation) {
+        try {
+            if (cancellation != null) {
+                cancellation.attach(entityManager.unwrap(Session.class));
+            }
+            List<E> loaded = applyTimeout(createQuery((root, query, builder) -> root.get("id").in(ids)), timeout).getResultList();
+            PersistenceUnitUtil unitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+            Map<Object, E> byId = loaded.stream().collect(Collectors.toMap(unitUtil::getIdentifier, Function.identity()));
+            return ids.stream().map(byId::get).filter(Objects::nonNull).collect(Collectors.toList());
+        } catch (PersistenceException ex) {
+            if (cancellation != null && cancellation.isCancelled()) {
+                Metrics.counter("query.cancellations", "entity", getType().getSimpleName()).increment();
+                throw new QueryCancelledException("Requête annulée", ex);
+            }
+            if (ex instanceof javax.persistence.QueryTimeoutException || ex.getCause() instanceof QueryTimeoutException) {
+                Metrics.counter("query.timeouts", "entity", getType().getSimpleName()).increment();
+            }
+            throw ex;
+        } finally {
+            if (cancellation != null) {
+                cancellation.detach();
+            }
+        }
+    }
+
+    /**
+     * Whether the sort can be done in memory exactly like the database: on comparable attributes of the entity,
+     * with a known collation for the strings (and the enums stored as strings) and a known null ordering
+     * for the attributes which can be null.
+     */
+    boolean isSortableInMemory(Sort sort) {
+        for (Sort.Order order : sort) {
+            Field sortField = FieldUtils.getField(getType(), order.getProperty(), true);
+            if (sortField == null || !Comparable.class.isAssignableFrom(ClassUtils.primitiveToWrapper(sortField.getType()))) {
+                return false;
+            }
+            if (isSortedAsString(sortField) && getCollation() == null) {
+                return false;
+            }
+            boolean nullable = !sortField.getType().isPrimitive() && !sortField.isAnnotationPresent(Id.class);
+            if (nullable && getNullOrdering() == Sort.NullHandling.NATIVE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sort on attributes of the entity like the database, with the null ordering and the collation of the service.
+     * The sort must be accepted by {@link #isSortableInMemory(Sort)}.
+     */
+    Comparator<E> sortComparator(Sort sort) {
+        boolean nullsFirst = getNullOrdering() != Sort.NullHandling.NULLS_LAST;
+        Comparator<E> comparator = (a, b) -> 0;
+        for (Sort.Order order : sort) {
+            Field sortField = FieldUtils.getField(getType(), order.getProperty(), true);
+            Comparator<Object> values = sortField != null && isSortedAsString(sortField)
+                    ? Comparator.comparing(value -> value instanceof Enum<?> ? ((Enum<?>) value).name() : (String) value, getCollation())
+                    : (a, b) -> ((Comparable<Object>) a).compareTo(b);
+            Comparator<E> orderComparator = Comparator.comparing(
+                    entity -> PropertyAccessorFactory.forBeanPropertyAccess(entity).getPropertyValue(order.getProperty()),
+                    nullsFirst ? Comparator.nullsFirst(values) : Comparator.nullsLast(values));
+            comparator = comparator.thenComparing(order.isAscending() ? orderComparator : orderComparator.reversed());
+        }
+        return comparator;
+    }
+
+    /**
+     * Strings and enums stored by name, compared with the collation of the database.
+     */
+    private static boolean isSortedAsString(Field field) {
+        Enumerated enumerated = field.getAnnotation(Enumerated.class);
+        return field.getType() == String.class
+                || field.getType().isEnum() && enumerated != null && enumerated.value() == EnumType.STRING;
+    }
 
-import javax.persistence.criteria.*;
-import javax.persistence.criteria.CriteriaBuilder.In;
-import java.lang.reflect.Field;
-import java.lang.reflect.ParameterizedType;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.time.*;
-import java.util.*;
-import java.util.function.Consumer;
-import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+    /**
+     * Execute the request described by already parsed filters.
+     *
+     * @param filters the filters built by {@link #parseFilters(Map)}.
+     * @param page    the requested page.
+     * @param options the execution options of the request.
+     * @return Page
+     */
+    protected Page<E> findByFilters(List<GenericFilter<?>> filters, Pageable page, QueryOptions options) {
+        Optional<List<GenericFilter<?>>> optimizedFilters = optimizeFilters(filters);
+        if (optimizedFilters.isEmpty()) {
+            return new PageImpl<>(List.of(), page, 0);
+        }
+        filters = optimizedFilters.get();
 
-/**
- * Base service for constructing and executing complex queries.
- *
- * @param <E> the type of the E which is queried.
- * @param <R> the type of bean extending JpaSpecificationExecutor.
- *            Most of the time, should be a repository.
- */
-@Transactional(readOnly = true)
-@Log4j2
-@RequiredArgsConstructor
-@SuppressWarnings("unchecked")
-public abstract class QueryService<E, R extends JpaSpecificationExecutor<E>> {
+        if (columnarSnapshot != null && columnarSnapshot.isWarm()) {
+            columnarSnapshot.refresh(this::loadEntities);
+            Optional<Page<E>> inMemory = columnarSnapshot.query(filters, page);
+            if (inMemory.isPresent()) {
+                return inMemory.get();
+            }
+        }
 
-    public static final List<String> LIST_ARRAY_OPERATOR = List.of("in", "notIn", "containsIn");
-    public static final String SEARCH_PARAMS_REGEX = "^([\\w.,/]+?)(?>\\|(\\w+))??$";
+        boolean withCount = true;
+        Semaphore permits = null;
+
+        QueryCostPolicy policy = getQueryCostPolicy();
+        if (policy != null) {
+            QueryCost cost = estimateCost(filters, page);
+            long score = cost.getScore(policy);
+            if (score > policy.getMaxScore()) {
+                log.warn("Requête coûteuse sur {} (score {}) : {}", getType().getSimpleName(), score, cost);
+                switch (policy.getAction()) {
+                    case REJECT -> throw new QueryRejectedException("Requête trop coûteuse (score " + score + ")");
+                    case QUEUE -> permits = acquireExpensiveQueryPermit(policy, score);
+                    case DOWNGRADE -> withCount = false;
+                }
+            }
+        }
 
-    private final R repository;
+        try {
+            List<GenericFilter<?>> executedFilters = filters;
+            boolean executeWithCount = withCount;
+            return executeLimited(() -> withReadOnlyHydration(() -> {
+                Specification<E> specification = buildAllGenericSpecification(getType(), executedFilters, page);
+                Page<E> all = executeQuery(specification, buildFilterSpecification(getType(), executedFilters), page, executeWithCount, options);
+                Consumer<E> consumer = this.initializeLazyDependencies();
+                if (consumer != null) {
+                    all.getContent().forEach(consumer);
+                }
+                return all;
+            }));
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
 
     /**
-     * Method which should return the Class<E>.
+     * Execute the content query and, when required, the count query.
+     * Without count, one more row than the page size is fetched to know if a next page exists,
+     * and an {@link EstimatedPage} is returned.
      *
-     * @return Class
+     * @param specification       the specification with the filters, the sort and the group by.
+     * @param countSpecification  the specification with the filters only.
+     * @param page                the requested page.
+     * @param withCount           false to skip the count query.
+     * @param options             the execution options of the request.
+     * @return Page
      */
-    @NonNull
-    protected abstract Class<E> getType();
+    protected Page<E> executeQuery(Specification<E> specification, Specification<E> countSpecification, Pageable page,
+                                   boolean withCount, QueryOptions options) {
+        Integer timeout = resolveTimeoutInSeconds(options);
+        QueryCancellation cancellation = options.getCancellation();
+        try {
+            if (cancellation != null) {
+                cancellation.attach(entityManager.unwrap(Session.class));
+            }
+            TypedQuery<E> contentQuery = applyTimeout(createQuery(specification), timeout);
+            if (page.isPaged()) {
+                contentQuery.setFirstResult((int) page.getOffset());
+                contentQuery.setMaxResults(withCount ? page.getPageSize() : page.getPageSize() + 1);
+            }
+            List<E> content = contentQuery.getResultList();
+
+            if (!withCount) {
+                if (page.isUnpaged() || content.size() <= page.getPageSize()) {
+                    return new EstimatedPage<>(content, page, page.getOffset() + content.size());
+                }
+                // Une ligne de plus que la page : on indique simplement qu'une page suivante existe.
+                return new EstimatedPage<>(content.subList(0, page.getPageSize()), page, page.getOffset() + content.size());
+            }
+            return PageableExecutionUtils.getPage(content, page, () -> {
+                if (cancellation != null && cancellation.isCancelled()) {
+                    throw new QueryCancelledException("Requête annulée");
+                }
+                return applyTimeout(createCountQuery(countSpecification), timeout).getSingleResult();
+            });
+        } catch (QueryCancelledException ex) {
+            Metrics.counter("query.cancellations", "entity", getType().getSimpleName()).increment();
+            throw ex;
+        } catch (PersistenceException ex) {
+            if (cancellation != null && cancellation.isCancelled()) {
+                Metrics.counter("query.cancellations", "entity", getType().getSimpleName()).increment();
+                throw new QueryCancelledException("Requête annulée", ex);
+            }
+            if (ex instanceof javax.persistence.QueryTimeoutException || ex.getCause() instanceof QueryTimeoutException) {
+                Metrics.counter("query.timeouts", "entity", getType().getSimpleName()).increment();
+            }
+            throw ex;
+        } finally {
+            if (cancellation != null) {
+                cancellation.detach();
+            }
+        }
+    }
 
     /**
-     * Method to implement if you need to initialize hibernate lazy dependencies.
-     * eg:
-     * protected Consumer<Contrat> initializeLazyDependencies() {
-     * return contrat -> {
-     * Hibernate.initialize(contrat.getListFacture());
-     * Hibernate.initialize(contrat.getSetObservation());
-     * };
-     * }
-     *
-     * @return Consumer
+     * Execute the queries within the concurrency limit of the entity, see {@link #getConcurrencyLimitPolicy()}.
+     */
+    private <T> T executeLimited(Supplier<T> execution) {
+        if (concurrencyLimiter == null) {
+            return execution.get();
+        }
+        long start;
+        try {
+            start = concurrencyLimiter.acquire();
+        } catch (QueryRejectedException ex) {
+            Metrics.counter("query.concurrency.rejections", "entity", getType().getSimpleName()).increment();
+            log.warn("Requête refusée sur {} : {}", getType().getSimpleName(), ex.getMessage());
+            throw ex;
+        }
+        boolean overload = false;
+        try {
+            return execution.get();
+        } catch (PersistenceException ex) {
+            overload = ex instanceof javax.persistence.QueryTimeoutException || ex.getCause() instanceof QueryTimeoutException;
+            throw ex;
+        } finally {
+            concurrencyLimiter.release(start, overload);
+        }
+    }
+
+    /**
+     * The smallest of the timeouts of the entity and of the request, rounded up to the second of JDBC.
      */
     @Nullable
-    protected Consumer<E> initializeLazyDependencies() {
-        return null;
+    private Integer resolveTimeoutInSeconds(QueryOptions options) {
+        Duration timeout = getQueryTimeout();
+        if (options.getTimeout() != null && (timeout == null || options.getTimeout().compareTo(timeout) < 0)) {
+            timeout = options.getTimeout();
+        }
+        if (timeout == null) {
+            return null;
+        }
+        return (int) Math.max(1, (timeout.toMillis() + 999) / 1000);
     }
 
-    public Page<E> findByCriteria(Map<String, String> allParams, Pageable page) {
-        Specification<E> specification = buildAllGenericSpecification(getType(), allParams, page);
-        Pageable customPage = PageRequest.of(page.getPageNumber(), page.getPageSize());
-        Page<E> all = repository.findAll(specification, customPage);
-        Consumer<E> consumer = this.initializeLazyDependencies();
-        if (consumer != null) {
-            all.getContent().forEach(consumer);
+    private <T> TypedQuery<T> applyTimeout(TypedQuery<T> query, @Nullable Integer timeoutInSeconds) {
+        if (timeoutInSeconds != null) {
+            query.setHint(QueryHints.TIMEOUT_HIBERNATE, timeoutInSeconds);
+        }
+        return query;
+    }
+
+    protected TypedQuery<E> createQuery(Specification<E> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<E> query = builder.createQuery(getType());
+        Root<E> root = query.from(getType());
+        Predicate predicate = specification.toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        query.select(root);
+        return applyHydrationHints(applyCacheable(entityManager.createQuery(query)));
+    }
+
+    protected TypedQuery<Long> createCountQuery(Specification<E> specification) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = builder.createQuery(Long.class);
+        Root<E> root = query.from(getType());
+        Predicate predicate = specification.toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        // count distinct : les jointures sur les listes ne doivent pas multiplier les lignes
+        query.select(builder.countDistinct(root));
+        return applyCacheable(entityManager.createQuery(query));
+    }
+
+    /**
+     * Cache the results of the query when the service is annotated with {@link QueryCache#queries()}.
+     */
+    private <T> TypedQuery<T> applyCacheable(TypedQuery<T> query) {
+        if (cacheableQueries) {
+            query.setHint(QueryHints.CACHEABLE, true);
+        }
+        return query;
+    }
+
+    /**
+     * Apply {@link #isReadOnlyHydration()} and {@link #getFetchSize()} to a query loading entities.
+     */
+    private <T> TypedQuery<T> applyHydrationHints(TypedQuery<T> query) {
+        if (isReadOnlyHydration()) {
+            query.setHint(QueryHints.READ_ONLY, true);
+        }
+        Integer fetchSize = getFetchSize();
+        if (fetchSize != null) {
+            query.setHint(QueryHints.FETCH_SIZE, fetchSize);
+        }
+        return query;
+    }
+
+    /**
+     * Load the entities read-only when {@link #isReadOnlyHydration()}: the session stays read-only by default
+     * until the loading returns, so that the associations initialized by {@link #initializeLazyDependencies()}
+     * are read-only too.
+     */
+    private <T> T withReadOnlyHydration(Supplier<T> loading) {
+        if (!isReadOnlyHydration()) {
+            return loading.get();
+        }
+        Session session = entityManager.unwrap(Session.class);
+        boolean defaultReadOnly = session.isDefaultReadOnly();
+        session.setDefaultReadOnly(true);
+        try {
+            return loading.get();
+        } finally {
+            session.setDefaultReadOnly(defaultReadOnly);
+        }
+    }
+
+    private Semaphore acquireExpensiveQueryPermit(QueryCostPolicy policy, long score) {
+        Semaphore permits = getExpensiveQueryPermits(policy);
+        try {
+            if (!permits.tryAcquire(policy.getQueueTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new QueryRejectedException("Requête trop coûteuse (score " + score + "), aucune place disponible");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new QueryRejectedException("Requête trop coûteuse (score " + score + "), attente interrompue");
+        }
+        return permits;
+    }
+
+    private synchronized Semaphore getExpensiveQueryPermits(QueryCostPolicy policy) {
+        if (expensiveQueryPermits == null) {
+            expensiveQueryPermits = new Semaphore(policy.getQueueConcurrency(), true);
+        }
+        return expensiveQueryPermits;
+    }
+
+    /**
+     * Simplify the parsed filters: merge the ranges and the value lists on the same attribute,
+     * remove the duplicates and detect the contradictions.
+     *
+     * @param filters the filters built by {@link #parseFilters(Map)}, not modified.
+     * @return the equivalent filters, empty if no row can match them.
+     */
+    public Optional<List<GenericFilter<?>>> optimizeFilters(List<GenericFilter<?>> filters) {
+        return FilterOptimizer.optimize(filters, path -> countPluralAttributes(path) == 0);
+    }
+
+    /**
+     * Estimate the cost of a parsed request, without executing anything.
+     *
+     * @param filters the filters built by {@link #parseFilters(Map)}.
+     * @param page    the requested page.
+     * @return QueryCost
+     */
+    public QueryCost estimateCost(List<GenericFilter<?>> filters, Pageable page) {
+        int pluralJoins = 0;
+        int orBranches = 0;
+        int leadingWildcards = 0;
+        int inValues = 0;
+
+        for (GenericFilter<?> filter : filters) {
+            List<Pair<List<String>, List<String>>> propertiesToSearch = filter.getPropertiesToSearch();
+            orBranches += propertiesToSearch.size() - 1;
+            for (Pair<List<String>, List<String>> propertyToSearch : propertiesToSearch) {
+                pluralJoins += countPluralAttributes(propertyToSearch.getKey());
+                if (propertyToSearch.getValue() != null) {
+                    orBranches += propertyToSearch.getValue().size() - 1;
+                }
+            }
+            if (filter.getContains() != null) {
+                leadingWildcards++;
+            }
+            if (filter.getDoesNotContain() != null) {
+                leadingWildcards++;
+            }
+            if (filter.getEndsWith() != null) {
+                leadingWildcards++;
+            }
+            if (filter.getContainsIn() != null) {
+                leadingWildcards += filter.getContainsIn().size();
+            }
+            if (filter.getIn() != null) {
+                inValues += filter.getIn().size();
+            }
+            if (filter.getNotIn() != null) {
+                inValues += filter.getNotIn().size();
+            }
+        }
+        for (Sort.Order order : page.getSort()) {
+            pluralJoins += countPluralAttributes(List.of(order.getProperty().split("\\.")));
+        }
+        return new QueryCost(pluralJoins, orBranches, leadingWildcards, inValues, page.isPaged() ? page.getOffset() : 0);
+    }
+
+    /**
+     * Describe how a request would be executed, without executing it: the parsed and optimized filters, the joins,
+     * the JPQL and SQL of the content and count queries with the plans of the database (EXPLAIN), and the duration
+     * of each phase.
+     *
+     * @param allParams the parameters of the request.
+     * @param page      the requested page.
+     * @return QueryExplanation
+     * @throws ExplainDisabledException if it is not enabled by {@link #isExplainEnabled()}.
+     */
+    public QueryExplanation explain(Map<String, String> allParams, Pageable page) {
+        if (!isExplainEnabled()) {
+            throw new ExplainDisabledException("Explication des requêtes non activée pour " + getType().getSimpleName());
+        }
+        QueryExplanation.QueryExplanationBuilder explanation = QueryExplanation.builder();
+        Map<String, Long> timings = new LinkedHashMap<>();
+
+        long start = System.nanoTime();
+        List<GenericFilter<?>> filters = parseFilters(allParams);
+        start = recordTiming(timings, "parse", start);
+        Optional<List<GenericFilter<?>>> optimizedFilters = optimizeFilters(filters);
+        start = recordTiming(timings, "optimize", start);
+
+        explanation.filters(filters.stream().map(GenericFilter::toString).collect(Collectors.toList()))
+                .optimizedFilters(optimizedFilters.map(optimized -> optimized.stream().map(GenericFilter::toString).collect(Collectors.toList())).orElse(List.of()))
+                .cost(estimateCost(filters, page))
+                .timings(timings);
+        Map<String, String> joins = new LinkedHashMap<>();
+        for (GenericFilter<?> filter : filters) {
+            for (Pair<List<String>, List<String>> propertyToSearch : filter.getPropertiesToSearch()) {
+                joins.put(String.join(".", propertyToSearch.getKey()), countPluralAttributes(propertyToSearch.getKey()) > 0 ? "LEFT JOIN" : "PATH");
+            }
+        }
+        explanation.joins(joins);
+
+        if (optimizedFilters.isEmpty()) {
+            return explanation.strategy("NO_RESULT").build();
+        }
+        if (columnarSnapshot != null && columnarSnapshot.isWarm()) {
+            explanation.strategy(columnarSnapshot.query(optimizedFilters.get(), page).isPresent() ? "IN_MEMORY_SNAPSHOT" : "SQL");
+        } else {
+            explanation.strategy(parseIdentifierLookup(allParams, page).isPresent() ? "IDENTIFIER_LOOKUP" : "SQL");
+        }
+        start = System.nanoTime();
+
+        TypedQuery<E> contentQuery = createQuery(buildAllGenericSpecification(getType(), optimizedFilters.get(), page));
+        TypedQuery<Long> countQuery = createCountQuery(buildFilterSpecification(getType(), optimizedFilters.get()));
+        start = recordTiming(timings, "build", start);
+
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        String contentJpql = contentQuery.unwrap(org.hibernate.query.Query.class).getQueryString();
+        String countJpql = countQuery.unwrap(org.hibernate.query.Query.class).getQueryString();
+        QueryTranslator contentTranslator = translate(session, contentJpql);
+        QueryTranslator countTranslator = translate(session, countJpql);
+        explanation.contentJpql(contentJpql).contentSql(contentTranslator.getSQLString())
+                .countJpql(countJpql).countSql(countTranslator.getSQLString());
+        start = recordTiming(timings, "translate", start);
+
+        explanation.contentPlan(explainSql(session, contentTranslator, contentQuery))
+                .countPlan(explainSql(session, countTranslator, countQuery));
+        recordTiming(timings, "explain", start);
+        return explanation.build();
+    }
+
+    private static long recordTiming(Map<String, Long> timings, String phase, long start) {
+        long end = System.nanoTime();
+        timings.put(phase, TimeUnit.NANOSECONDS.toMicros(end - start));
+        return end;
+    }
+
+    /**
+     * Translate the JPQL to SQL with the translator of the session factory, outside of its plan cache:
+     * an explained query is not kept as if it had been executed.
+     */
+    private static QueryTranslator translate(SessionImplementor session, String jpql) {
+        SessionFactoryImplementor factory = session.getFactory();
+        QueryTranslator translator = factory.getServiceRegistry().getService(QueryTranslatorFactory.class)
+                .createQueryTranslator(jpql, jpql, Map.of(), factory, null);
+        translator.compile(factory.getSessionFactoryOptions().getQuerySubstitutions(), false);
+        return translator;
+    }
+
+    /**
+     * The plan of the database for the SQL of the query, with the values of its parameters.
+     */
+    private List<String> explainSql(SessionImplementor session, QueryTranslator translator, TypedQuery<?> query) {
+        List<String> plan = new ArrayList<>();
+        try {
+            session.doWork(connection -> {
+                try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + translator.getSQLString())) {
+                    for (javax.persistence.Parameter<?> parameter : query.getParameters()) {
+                        ParameterInformation information = translator.getParameterTranslations().getNamedParameterInformation(parameter.getName());
+                        if (information == null) {
+                            continue;
+                        }
+                        Object value = query.getParameterValue(parameter);
+                        for (int location : information.getSourceLocations()) {
+                            if (information.getExpectedType() != null) {
+                                information.getExpectedType().nullSafeSet(statement, value, location + 1, session);
+                            } else {
+                                statement.setObject(location + 1, value);
+                            }
+                        }
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        int columnCount = resultSet.getMetaData().getColumnCount();
+                        while (resultSet.next()) {
+                            List<String> columns = new ArrayList<>();
+                            for (int column = 1; column <= columnCount; column++) {
+                                columns.add(resultSet.getString(column));
+                            }
+                            plan.add(String.join(" | ", columns));
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            log.warn("EXPLAIN impossible sur {} : {}", getType().getSimpleName(), ex.getMessage());
+            return List.of("EXPLAIN impossible : " + ex.getMessage());
+        }
+        return plan;
+    }
+
+    private int countPluralAttributes(List<String> propertyPath) {
+        int count = 0;
+        Class<?> searchedPropertyClass = getType();
+        for (String fieldName : propertyPath) {
+            Field field = FieldUtils.getField(searchedPropertyClass, fieldName, true);
+            if (field == null) {
+                return count;
+            }
+            if (Collection.class.isAssignableFrom(field.getType())) {
+                count++;
+                searchedPropertyClass = (Class<?>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+            } else {
+                searchedPropertyClass = field.getType();
+            }
+        }
+        return count;
+    }
+
+    public Map<String, List<FacetBucket>> findFacets(Map<String, String> allParams, List<String> facetPaths, int maxBuckets) {
+        return findFacets(allParams, facetPaths, maxBuckets, QueryOptions.DEFAULT);
+    }
+
+    /**
+     * Count the distinct entities matching the filters for each value of the given facets.
+     * Each facet is computed by its own query grouping on its value and returning its most frequent values only,
+     * the associations of its path being left joined: the entities without association are counted in the null bucket.
+     * The facets are not computed in a single pass (GROUPING SETS): it cannot be expressed with the criteria API
+     * of the specifications, and each facet joins its own associations.
+     *
+     * @param allParams  the request parameters.
+     * @param facetPaths the paths of the facets, eg statut or agence.code.
+     * @param maxBuckets the maximum number of values returned per facet, the most frequent first, positive.
+     * @param options    the execution options of the request.
+     * @return the buckets of each facet.
+     */
+    public Map<String, List<FacetBucket>> findFacets(Map<String, String> allParams, List<String> facetPaths, int maxBuckets,
+                                                     QueryOptions options) {
+        if (maxBuckets <= 0) {
+            throw new IllegalArgumentException("Nombre de valeurs par facette invalide : " + maxBuckets);
         }
+        Specification<E> specification = buildFilterSpecification(getType(), parseFilters(allParams));
+        Integer timeout = resolveTimeoutInSeconds(options);
+
+        Map<String, List<FacetBucket>> facets = new LinkedHashMap<>();
+        for (String facetPath : new LinkedHashSet<>(facetPaths)) {
+            List<String> path = List.of(facetPath.split("\\."));
+            try {
+                getLastDeclaredField(path, getType());
+            } catch (NoSuchFieldException ex) {
+                throw new RuntimeException(ex.getLocalizedMessage());
+            }
+            List<Object[]> rows = executeFacetQuery(specification, path, maxBuckets, timeout);
+            facets.put(facetPath, rows.stream()
+                    .map(row -> new FacetBucket(row[0], (Long) row[1]))
+                    .collect(Collectors.toList()));
+        }
+        return facets;
+    }
 
-        return all;
+    private List<Object[]> executeFacetQuery(Specification<E> specification, List<String> path, int maxBuckets, @Nullable Integer timeout) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Object[]> query = builder.createQuery(Object[].class);
+        Root<E> root = query.from(getType());
+        Predicate predicate = specification.toPredicate(root, query, builder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        From<?, ?> from = root;
+        for (int i = 0; i < path.size() - 1; i++) {
+            from = from.join(path.get(i), JoinType.LEFT);
+        }
+        Expression<?> group = from.get(path.get(path.size() - 1));
+        Expression<Long> count = builder.countDistinct(root);
+        // les plus fréquentes seulement, par la base : une facette sur une colonne très variée ne charge pas toutes ses valeurs
+        query.multiselect(group, count).groupBy(group).orderBy(builder.desc(count), builder.asc(group));
+        return executeLimited(() -> applyTimeout(entityManager.createQuery(query), timeout).setMaxResults(maxBuckets).getResultList());
     }
 
     protected <F extends Comparable<? super F>> Specification<E> buildAllGenericSpecification(Class<E> searchedEntityClass,
                                                                                               Map<String, String> allFieldsToSearch,
                                                                                               Pageable page) {
-        Specification<E> specification = ((root, query, criteriaBuilder) -> {
+        if (allFieldsToSearch == null) {
+            return buildPageSpecification(page);
+        }
+        List<GenericFilter<F>> filters = new ArrayList<>();
+        buildEntityFilters(searchedEntityClass, filters, allFieldsToSearch);
+        return buildAllGenericSpecification(searchedEntityClass, new ArrayList<>(filters), page);
+    }
+
+    protected Specification<E> buildAllGenericSpecification(Class<E> searchedEntityClass,
+                                                            List<GenericFilter<?>> filters,
+                                                            Pageable page) {
+        return buildPageSpecification(page).and(buildFilterSpecification(searchedEntityClass, filters));
+    }
+
+    /**
+     * Specification with the sort of the page and the group by avoiding duplicates, without any filter.
+     */
+    protected Specification<E> buildPageSpecification(Pageable page) {
+        return ((root, query, criteriaBuilder) -> {
             List<Expression<?>> expressionList = new ArrayList<>();
             expressionList.add(root.get("id"));
 
@@ -106,68 +2029,104 @@ public abstract class QueryService<E, R extends JpaSpecificationExecutor<E>> {
             query.groupBy(expressionList);
             return null;
         });
+    }
 
-        if (allFieldsToSearch == null) {
-            return specification;
-        }
-
-        List<GenericFilter<F>> filters = new ArrayList<>();
-        buildEntityFilters(searchedEntityClass, filters, allFieldsToSearch);
+    /**
+     * Specification with the filters only, used by the count query.
+     */
+    protected Specification<E> buildFilterSpecification(Class<E> searchedEntityClass, List<GenericFilter<?>> filters) {
+        Specification<E> specification = Specification.where(null);
         try {
-            for (GenericFilter<F> filter : filters) {
+            for (GenericFilter<?> filter : filters) {
                 specification = specification.and(buildGenericEntitySpecification(filter, searchedEntityClass));
             }
         } catch (NoSuchFieldException ex) {
             log.error(ex);
             throw new RuntimeException(ex.getLocalizedMessage());
         }
-
         return specification;
     }
 
+    /**
+     * Parse the request parameters into the list of filters to apply.
+     *
+     * @param allFieldsToSearch the request parameters.
+     * @return the filters, empty if there is no parameter.
+     */
+    public <F extends Comparable<? super F>> List<GenericFilter<?>> parseFilters(Map<String, String> allFieldsToSearch) {
+        List<GenericFilter<F>> filters = new ArrayList<>();
+        if (allFieldsToSearch != null) {
+            buildEntityFilters(getType(), filters, allFieldsToSearch);
+        }
+        return new ArrayList<>(filters);
+    }
+
+    /**
+     * Build the filters of the parameters whose key follows the grammar of {@link FilterKey}. The keys with other
+     * characters are not filters and are ignored, the malformed keys are rejected with a {@link FilterSyntaxException}.
+     */
     public <F extends Comparable<? super F>> void buildEntityFilters(Class<E> searchedEntityClass,
                                                                      List<GenericFilter<F>> filters,
                                                                      Map<String, String> allFieldsToSearch) {
-        Field[] allSearchedEntityFields = FieldUtils.getAllFields(searchedEntityClass);
-        Pattern pattern = Pattern.compile(SEARCH_PARAMS_REGEX);
         for (Map.Entry<String, String> fieldToSearchMap : allFieldsToSearch.entrySet()) {
-            Matcher matcher = pattern.matcher(fieldToSearchMap.getKey());
-            if (matcher.find()) {
-                List<Field> fields = new ArrayList<>();
-                List<List<String>> properties = new ArrayList<>();
-                List<List<String>> subProperties = new ArrayList<>();
-                List<String> searchOperators = new ArrayList<>();
-
-                // Liste des champs à rechercher avec l'opérateur OU
-                List<String> termsToApplyOrOperator = new ArrayList<>(List.of(matcher.group(1).split("/")));
-
-                for (String terms : termsToApplyOrOperator) {
-                    List<String> searchedPropertyPath = new ArrayList<>(List.of(terms.split("\\.")));
-
-                    String rootPropertyName = searchedPropertyPath.get(0).split(",")[0];
-
-                    Optional<Field> optionalFieldCorrespondingToRootPropertyName = Arrays.stream(allSearchedEntityFields).filter(field -> field.getName().equals(rootPropertyName)).findFirst();
-
-                    // Si la propriété recherchée n'existe pas dans la liste des propriétés de la classe mère,
-                    // on passe à l'itération suivante sans rien faire
-                    if (optionalFieldCorrespondingToRootPropertyName.isEmpty()) {
-                        continue;
-                    }
-                    fields.add(optionalFieldCorrespondingToRootPropertyName.get());
-
-                    List<String> additionnalPropertiesToSearchWithOrOperator = List.of(searchedPropertyPath.get(searchedPropertyPath.size() - 1).split(","));
-                    if (additionnalPropertiesToSearchWithOrOperator.size() > 1) {
-                        searchedPropertyPath.set(searchedPropertyPath.size() - 1, searchedPropertyPath.get(searchedPropertyPath.size() - 1).split(",")[0]);
-                    }
-                    properties.add(searchedPropertyPath);
-                    subProperties.add(additionnalPropertiesToSearchWithOrOperator);
-                    searchOperators.add(matcher.group(2) != null ? matcher.group(2) : (additionnalPropertiesToSearchWithOrOperator.size() > 1 ? "containsIn" : "equals"));
+            if (!FilterKey.isCandidate(fieldToSearchMap.getKey())) {
+                continue;
+            }
+            ResolvedFilterKey resolvedKey = searchedEntityClass == getType()
+                    ? resolvedFilterKeys.get(fieldToSearchMap.getKey())
+                    : null;
+            if (resolvedKey == null) {
+                resolvedKey = new ResolvedFilterKey(FilterKey.parse(fieldToSearchMap.getKey()), getFieldsByName(searchedEntityClass));
+                // les clés qui ne désignent aucun champ (paramètres libres du client) ne sont pas gardées
+                if (searchedEntityClass == getType() && !resolvedKey.properties.isEmpty()
+                        && resolvedFilterKeys.size() < MAX_RESOLVED_FILTER_KEYS) {
+                    resolvedFilterKeys.put(fieldToSearchMap.getKey(), resolvedKey);
                 }
-                if (properties.size() > 0) {
-                    buildFilterList(filters, fieldToSearchMap, fields, properties, subProperties, searchOperators);
+            }
+            if (!resolvedKey.properties.isEmpty()) {
+                buildFilterList(filters, fieldToSearchMap, resolvedKey.fields, resolvedKey.properties, resolvedKey.subProperties, resolvedKey.searchOperators);
+            }
+        }
+    }
+
+    /**
+     * A parsed key with the root fields of its terms, shared between the requests.
+     */
+    private static final class ResolvedFilterKey {
+
+        private final List<Field> fields = new ArrayList<>();
+        private final List<List<String>> properties = new ArrayList<>();
+        private final List<List<String>> subProperties = new ArrayList<>();
+        private final List<String> searchOperators = new ArrayList<>();
+
+        private ResolvedFilterKey(FilterKey key, Map<String, Field> fieldsByName) {
+            for (FilterKey.Term term : key.getTerms()) {
+                // Si la propriété recherchée n'existe pas dans la liste des propriétés de la classe mère,
+                // on passe à l'itération suivante sans rien faire
+                Field rootField = fieldsByName.get(term.getPath().get(0));
+                if (rootField == null) {
+                    continue;
                 }
+                fields.add(rootField);
+                properties.add(term.getPath());
+                subProperties.add(term.getSubProperties());
+                searchOperators.add(key.getOperator() != null ? key.getOperator() : (term.getSubProperties().size() > 1 ? "containsIn" : "equals"));
+            }
+        }
+    }
+
+    private Map<String, Field> getFieldsByName(Class<?> searchedEntityClass) {
+        Map<String, Field> fieldsByName = searchedEntityClass == getType() ? entityFieldsByName : null;
+        if (fieldsByName == null) {
+            fieldsByName = new HashMap<>();
+            for (Field field : FieldUtils.getAllFields(searchedEntityClass)) {
+                fieldsByName.putIfAbsent(field.getName(), field);
+            }
+            if (searchedEntityClass == getType()) {
+                entityFieldsByName = fieldsByName;
             }
         }
+        return fieldsByName;
     }
 
     private Field getLastDeclaredField(Field field, List<String> propertyList) throws NoSuchFieldException {
@@ -193,23 +2152,29 @@ public abstract class QueryService<E, R extends JpaSpecificationExecutor<E>> {
                                                                      List<String> searchOperators) {
         try {
             GenericFilter<F> genericFilter = new GenericFilter<>();
-            PropertyAccessor genericFilterPropertyAccessor = PropertyAccessorFactory.forDirectFieldAccess(genericFilter);
 
             for (int i = 0; i < properties.size(); i++) {
                 //Recuperation de la reference de l'attribut le plus bas exemple
                 // exemple => produit.agence.code, on récupére le code.
-                Field declaredField = getLastDeclaredField(fields.get(i), properties.get(i));
+                Field declaredField = lastDeclaredFields.computeIfAbsent(fields.get(i), field -> new ConcurrentHashMap<>()).get(properties.get(i));
+                if (declaredField == null) {
+                    declaredField = getLastDeclaredField(fields.get(i), properties.get(i));
+                    Map<List<String>, Field> declaredFields = lastDeclaredFields.get(fields.get(i));
+                    if (declaredFields.size() < MAX_RESOLVED_FILTER_KEYS) {
+                        declaredFields.put(List.copyOf(properties.get(i)), declaredField);
+                    }
+                }
                 Class<?> entityPropertyType = declaredField.getType();
 
-                final boolean isOperatorExist = genericFilterPropertyAccessor.getPropertyType(searchOperators.get(i)) != null;
+                final boolean isOperatorExist = FILTER_OPERATORS.contains(searchOperators.get(i));
 
                 if (!isOperatorExist) {
                     throw new RuntimeException("Operator de recherche n'est pas valide :" + searchOperators.get(i));
                 }
                 if (LIST_ARRAY_OPERATOR.contains(searchOperators.get(i))) {
-                    writeInFilterForArrayValue(genericFilterPropertyAccessor, entityPropertyType, fieldToSearchMap, searchOperators.get(i));
+                    writeInFilterForArrayValue(genericFilter, entityPropertyType, fieldToSearchMap, searchOperators.get(i));
                 } else {
-                    writeInFilterForSimpleValue(genericFilterPropertyAccessor, entityPropertyType, fieldToSearchMap, searchOperators.get(i));
+                    writeInFilterForSimpleValue(genericFilter, entityPropertyType, fieldToSearchMap, searchOperators.get(i));
                 }
                 if (genericFilter.getPropertiesToSearch() == null) {
                     genericFilter.setPropertiesToSearch(new ArrayList<>());
@@ -223,34 +2188,84 @@ public abstract class QueryService<E, R extends JpaSpecificationExecutor<E>> {
         }
     }
 
-    protected void writeInFilterForArrayValue(PropertyAccessor criteriaFilterPropertyAccessor,
+    protected void writeInFilterForArrayValue(GenericFilter<?> genericFilter,
                                               Class<?> entityPropertyType,
                                               Map.Entry<String, String> param,
                                               String searchOperator) throws ParseException {
         if (entityPropertyType.isEnum()) {
-            List<Enum> listEnumValue = Arrays.stream(param.getValue().split(","))
-                    .map(enumValue -> Enum.valueOf((Class<? extends Enum>) entityPropertyType, enumValue))
+            List<Object> listEnumValue = Arrays.stream(param.getValue().split(","))
+                    .map(enumValue -> parseEnum(entityPropertyType, enumValue))
                     .collect(Collectors.toList());
-            criteriaFilterPropertyAccessor.setPropertyValue(searchOperator, listEnumValue);
+            writeOperatorValue(genericFilter, searchOperator, listEnumValue);
         } else {
             List<Object> valueList = parseAndCastList(param.getValue().split(","), entityPropertyType);
-            criteriaFilterPropertyAccessor.setPropertyValue(searchOperator, valueList);
+            writeOperatorValue(genericFilter, searchOperator, valueList);
         }
     }
 
-    protected void writeInFilterForSimpleValue(PropertyAccessor genericFilterPropertyAccessor,
+    protected void writeInFilterForSimpleValue(GenericFilter<?> genericFilter,
                                                Class<?> entityPropertyType,
                                                Map.Entry<String, String> param,
                                                String searchOperator) throws ParseException {
         if (entityPropertyType.isEnum()) {
 
-            Object enumValue = searchOperator.equals("specified") ? param.getValue() : Enum.valueOf((Class<? extends Enum>) entityPropertyType, param.getValue());
-            genericFilterPropertyAccessor.setPropertyValue(searchOperator, enumValue);
+            Object enumValue = searchOperator.equals("specified") ? param.getValue() : parseEnum(entityPropertyType, param.getValue());
+            writeOperatorValue(genericFilter, searchOperator, enumValue);
 
         } else {
             Object value = searchOperator.equals("specified") ? param.getValue() : parseAndCastValue(param.getValue(), entityPropertyType);
-            genericFilterPropertyAccessor.setPropertyValue(searchOperator, value);
+            writeOperatorValue(genericFilter, searchOperator, value);
+        }
+    }
+
+    /**
+     * The constant of the enum with this name, like {@link Enum#valueOf(Class, String)} on an enum type known at runtime.
+     */
+    private static Object parseEnum(Class<?> enumType, String name) {
+        for (Object constant : enumType.getEnumConstants()) {
+            if (((Enum<?>) constant).name().equals(name)) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException("No enum constant " + enumType.getCanonicalName() + "." + name);
+    }
+
+    /**
+     * Write the value of an operator with the setter of the filter, without the reflection of a property accessor:
+     * the operators on text receive the text of the value, specified accepts true/false, on/off, yes/no and 1/0.
+     * The type of the values is the type of the property, unknown at compile time.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static void writeOperatorValue(GenericFilter genericFilter, String searchOperator, Object value) {
+        switch (searchOperator) {
+            case "equals" -> genericFilter.setEquals((Comparable) value);
+            case "notEquals" -> genericFilter.setNotEquals((Comparable) value);
+            case "greaterThan" -> genericFilter.setGreaterThan((Comparable) value);
+            case "lessThan" -> genericFilter.setLessThan((Comparable) value);
+            case "greaterThanOrEqual" -> genericFilter.setGreaterThanOrEqual((Comparable) value);
+            case "lessThanOrEqual" -> genericFilter.setLessThanOrEqual((Comparable) value);
+            case "in" -> genericFilter.setIn((List) value);
+            case "notIn" -> genericFilter.setNotIn((List) value);
+            case "contains" -> genericFilter.setContains(String.valueOf(value));
+            case "notContains" -> genericFilter.setDoesNotContain(String.valueOf(value));
+            case "startsWith" -> genericFilter.setStartsWith(String.valueOf(value));
+            case "endsWith" -> genericFilter.setEndsWith(String.valueOf(value));
+            case "containsIn" -> genericFilter.setContainsIn(((List<?>) value).stream().map(String::valueOf).collect(Collectors.toList()));
+            case "specified" -> genericFilter.setSpecified(parseSpecified(String.valueOf(value)));
+            default -> throw new IllegalArgumentException("Opérateur de recherche non modifiable : " + searchOperator);
+        }
+    }
+
+    private static Boolean parseSpecified(String value) {
+        String text = value.trim();
+        if (text.isEmpty()) {
+            return null;
         }
+        return switch (text.toLowerCase(Locale.ROOT)) {
+            case "true", "on", "yes", "1" -> Boolean.TRUE;
+            case "false", "off", "no", "0" -> Boolean.FALSE;
+            default -> throw new IllegalArgumentException("Valeur invalide pour specified : " + value);
+        };
     }
 
     protected List<Object> parseAndCastList(String[] termList, Class<?> entityPropertyType) throws ParseException {
@@ -280,7 +2295,7 @@ public abstract class QueryService<E, R extends JpaSpecificationExecutor<E>> {
         };
     }
 
-    private <F extends Comparable<? super F>> boolean parseBoolean(F value) {
+    static <F extends Comparable<? super F>> boolean parseBoolean(F value) {
         if ("0".equals(value) || "no".equalsIgnoreCase((String) value) || "non".equalsIgnoreCase((String) value) || "faux".equalsIgnoreCase((String) value) || "false".equalsIgnoreCase((String) value)) {
             return false;
         } else if ("1".equals(value) || "yes".equalsIgnoreCase((String) value) || "oui".equalsIgnoreCase((String) value) || "vrai".equalsIgnoreCase((String) value) || "true".equalsIgnoreCase((String) value)) {
@@ -336,13 +2351,15 @@ public abstract class QueryService<E, R extends JpaSpecificationExecutor<E>> {
         if (filter.getGreaterThan() != null) {
             result = result.and(greaterThan(metaclassFunction, filter.getGreaterThan()));
         }
-        if (filter.getGreaterThanOrEqual() != null) {
+        if (filter.getGreaterThanOrEqual() != null && filter.getLessThanOrEqual() != null) {
+            result = result.and(between(metaclassFunction, filter.getGreaterThanOrEqual(), filter.getLessThanOrEqual()));
+        } else if (filter.getGreaterThanOrEqual() != null) {
             result = result.and(greaterThanOrEqualTo(metaclassFunction, filter.getGreaterThanOrEqual()));
         }
         if (filter.getLessThan() != null) {
             result = result.and(lessThan(metaclassFunction, filter.getLessThan()));
         }
-        if (filter.getLessThanOrEqual() != null) {
+        if (filter.getLessThanOrEqual() != null && filter.getGreaterThanOrEqual() == null) {
             result = result.and(lessThanOrEqualTo(metaclassFunction, filter.getLessThanOrEqual()));
         }
         if (filter.getContains() != null) {
@@ -486,7 +2503,7 @@ public abstract class QueryService<E, R extends JpaSpecificationExecutor<E>> {
     }
 
     protected <F extends Comparable<? super F>> Specification<E> equalsStringSpecification(Function<Root<E>, Expression<F>> metaclassFunction, String value) {
-        return (root, query, builder) -> builder.equal(builder.upper(metaclassFunction.apply(root).as(String.class)), value.toUpperCase(Locale.FRANCE));
+        return (root, query, builder) -> builder.equal(builder.upper(metaclassFunction.apply(root).as(String.class)), value.toUpperCase(UPPER_CASE_LOCALE));
     }
 
     protected <F extends Comparable<? super F>> Specification<E> equalsDateSpecification(Function<Root<E>, Expression<F>> metaclassFunction, final F value) {
@@ -517,7 +2534,7 @@ public abstract class QueryService<E, R extends JpaSpecificationExecutor<E>> {
     }
 
     protected <F extends Comparable<? super F>> Specification<E> notEqualsStringSpecification(Function<Root<E>, Expression<F>> metaclassFunction, String value) {
-        return (root, query, builder) -> builder.not(builder.equal(builder.upper(metaclassFunction.apply(root).as(String.class)), value.toUpperCase(Locale.FRANCE)));
+        return (root, query, builder) -> builder.not(builder.equal(builder.upper(metaclassFunction.apply(root).as(String.class)), value.toUpperCase(UPPER_CASE_LOCALE)));
     }
 
     protected <F extends Comparable<? super F>> Specification<E> notEqualsDateSpecification(Function<Root<E>, Expression<F>> metaclassFunction, final F value) {
@@ -649,6 +2666,19 @@ public abstract class QueryService<E, R extends JpaSpecificationExecutor<E>> {
         return (root, query, builder) -> builder.greaterThan(metaclassFunction.apply(root), value);
     }
 
+    /**
+     * <p>between, bounds included.</p>
+     *
+     * @param metaclassFunction a {@link java.util.function.Function} object.
+     * @param lower             a F object.
+     * @param upper             a F object.
+     * @param <F>               a F object.
+     * @return a {@link org.springframework.data.jpa.domain.Specification} object.
+     */
+    protected <F extends Comparable<? super F>> Specification<E> between(Function<Root<E>, Expression<F>> metaclassFunction, final F lower, final F upper) {
+        return (root, query, builder) -> builder.between(metaclassFunction.apply(root), lower, upper);
+    }
+
     /**
      * <p>lessThanOrEqualTo.</p>
      *
@@ -680,15 +2710,15 @@ public abstract class QueryService<E, R extends JpaSpecificationExecutor<E>> {
      * @return a {@link java.lang.String} object.
      */
     protected String wrapLikeQuery(String txt) {
-        return "%" + txt.toUpperCase() + '%';
+        return "%" + txt.toUpperCase(UPPER_CASE_LOCALE) + '%';
     }
 
     protected String wrapStartsWithQuery(String txt) {
-        return txt.toUpperCase() + '%';
+        return txt.toUpperCase(UPPER_CASE_LOCALE) + '%';
     }
 
     protected String wrapEndsWithQuery(String txt) {
-        return "%" + txt.toUpperCase();
+        return "%" + txt.toUpperCase(UPPER_CASE_LOCALE);
     }
 
 }
@@ -0,0 +1,342 @@
+package nc.deveo.query.service;
+
+import lombok.extern.log4j.Log4j2;
+import nc.deveo.query.event.EntityChangeEvent;
+import nc.deveo.query.event.EntityChangePublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live subscriptions of a {@link QueryService}: the committed changes of the entity are matched in memory against
+ * the filters of each subscription, and pushed over Server-Sent Events when an entity enters, changes within or
+ * leaves its result.
+ * <p>
+ * The changes are matched by a single dispatcher thread, in their commit order and by batches of the changes
+ * received meanwhile: the entity is loaded in a single-row {@link ColumnarSnapshot}, with the semantics of the SQL
+ * of the service, and the filters which cannot be evaluated in memory (associations...) are checked by the database,
+ * with one query per distinct request and batch on the identifiers of the batch. The identifiers of the result
+ * of each subscription are kept to tell an entering entity from a changed one.
+ * <p>
+ * The events are sent by a few sender threads from a bounded buffer per subscriber, where the events of the same
+ * entity are merged: a subscriber slower than the changes is closed after an "overflow" event and must reload
+ * its result before subscribing again.
+ * Only the changes of the entity itself are published, not the changes of its associations.
+ */
+@Log4j2
+@SuppressWarnings("unchecked")
+final class QuerySubscriptions<E> {
+
+    enum EventType {
+        ENTER,
+        CHANGE,
+        LEAVE
+    }
+
+    private record Event(EventType type, Object id, String data) {
+    }
+
+    private final class Subscription {
+
+        private final SseEmitter emitter;
+        private final List<GenericFilter<?>> filters;
+        private final String request;
+        private final List<String> fields;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        // dispatcher
+        private Set<Object> resultIds;
+        private final List<EntityChangeEvent> backlog = new ArrayList<>();
+
+        // guarded by pending
+        private final Map<Object, Event> pending = new LinkedHashMap<>();
+        private boolean sending;
+        private boolean overflow;
+
+        private Subscription(SseEmitter emitter, List<GenericFilter<?>> filters, String request, List<String> fields) {
+            this.emitter = emitter;
+            this.filters = filters;
+            this.request = request;
+            this.fields = fields;
+        }
+    }
+
+    private final QueryService<E, ?> queryService;
+    private final SubscriptionPolicy policy;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicInteger openSubscriptions = new AtomicInteger();
+    private final ExecutorService dispatcher;
+    private final ExecutorService senders;
+
+    /**
+     * Maximum number of changes dispatched together, the identifiers checked by one database query.
+     */
+    private static final int MAX_BATCH = 500;
+
+    private final Queue<EntityChangeEvent> changes = new ConcurrentLinkedQueue<>();
+
+    // dispatcher
+    private final ColumnarSnapshot<E> matcher;
+    private EntityChangeEvent matchedEvent;
+    /**
+     * The identifiers of the batch matching the filters of a request checked by the database, by request.
+     */
+    private final Map<String, Set<Object>> databaseMatches = new HashMap<>();
+    private List<EntityChangeEvent> batch = List.of();
+
+    QuerySubscriptions(QueryService<E, ?> queryService, SubscriptionPolicy policy, EntityChangePublisher entityChangePublisher) {
+        this.queryService = queryService;
+        this.policy = policy;
+        this.matcher = new ColumnarSnapshot<>(queryService);
+        String name = "query-subscription-" + queryService.getType().getSimpleName();
+        CustomizableThreadFactory dispatcherThreadFactory = new CustomizableThreadFactory(name + "-dispatcher-");
+        dispatcherThreadFactory.setDaemon(true);
+        dispatcher = Executors.newSingleThreadExecutor(dispatcherThreadFactory);
+        CustomizableThreadFactory senderThreadFactory = new CustomizableThreadFactory(name + "-sender-");
+        senderThreadFactory.setDaemon(true);
+        senders = Executors.newFixedThreadPool(policy.getSenderThreads(), senderThreadFactory);
+        entityChangePublisher.subscribe(this::onChange);
+    }
+
+    /**
+     * Open a subscription. The result is loaded on the calling thread, in its transaction: the changes
+     * committed meanwhile are matched once it is loaded.
+     *
+     * @param filters the parsed filters of the subscription.
+     * @param request the encoded request of the filters, the subscriptions with the same request share the
+     *                database checks.
+     * @param fields  the attributes written in the events, all the attributes if empty.
+     * @throws QueryRejectedException if too many subscriptions are open or if the result is too large.
+     */
+    SseEmitter subscribe(List<GenericFilter<?>> filters, String request, List<String> fields) {
+        if (openSubscriptions.incrementAndGet() > policy.getMaxSubscriptions()) {
+            openSubscriptions.decrementAndGet();
+            throw new QueryRejectedException("Trop d'abonnements ouverts sur " + queryService.getType().getSimpleName());
+        }
+        Optional<List<GenericFilter<?>>> optimizedFilters = queryService.optimizeFilters(filters);
+        Subscription subscription = new Subscription(new SseEmitter(policy.getTimeout().toMillis()), optimizedFilters.orElse(null), request, List.copyOf(fields));
+        subscriptions.add(subscription);
+        Set<Object> resultIds;
+        try {
+            resultIds = subscription.filters != null
+                    ? queryService.findMatchingIds(subscription.filters, null, policy.getMaxResultSize())
+                    : new HashSet<>();
+        } catch (RuntimeException ex) {
+            close(subscription);
+            throw ex;
+        }
+        subscription.emitter.onCompletion(() -> close(subscription));
+        subscription.emitter.onError(error -> close(subscription));
+        dispatcher.execute(() -> {
+            subscription.resultIds = resultIds;
+            dispatchBatch(List.of(subscription), subscription.backlog);
+            subscription.backlog.clear();
+        });
+        return subscription.emitter;
+    }
+
+    int size() {
+        return openSubscriptions.get();
+    }
+
+    private void onChange(EntityChangeEvent event) {
+        if (!subscriptions.isEmpty() && queryService.getType().isAssignableFrom(event.getEntityType())) {
+            changes.add(event);
+            dispatcher.execute(this::dispatchChanges);
+        }
+    }
+
+    /**
+     * Dispatch the changes received since the previous batch, at most {@link #MAX_BATCH}: there is one task
+     * per change, the next tasks dispatch the rest or find them already dispatched.
+     */
+    private void dispatchChanges() {
+        List<EntityChangeEvent> events = new ArrayList<>();
+        for (EntityChangeEvent event = changes.poll(); event != null; event = events.size() < MAX_BATCH ? changes.poll() : null) {
+            events.add(event);
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        List<Subscription> ready = new ArrayList<>();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.resultIds == null) {
+                subscription.backlog.addAll(events);
+            } else {
+                ready.add(subscription);
+            }
+        }
+        dispatchBatch(ready, events);
+    }
+
+    private void dispatchBatch(List<Subscription> batchSubscriptions, List<EntityChangeEvent> events) {
+        batch = events;
+        databaseMatches.clear();
+        try {
+            for (EntityChangeEvent event : events) {
+                batchSubscriptions.forEach(subscription -> dispatch(subscription, event));
+            }
+        } finally {
+            batch = List.of();
+            databaseMatches.clear();
+        }
+    }
+
+    private void dispatch(Subscription subscription, EntityChangeEvent event) {
+        if (subscription.closed.get()) {
+            return;
+        }
+        try {
+            Object id = event.getId();
+            boolean known = subscription.resultIds.contains(id);
+            if (event.getOperation() != EntityChangeEvent.Operation.DELETE && matches(subscription, event)) {
+                subscription.resultIds.add(id);
+                if (subscription.resultIds.size() > policy.getMaxResultSize()) {
+                    overflow(subscription);
+                    return;
+                }
+                E entity = (E) event.getEntity();
+                push(subscription, new Event(known ? EventType.CHANGE : EventType.ENTER, id, queryService.writeEventJson(entity, id, subscription.fields)));
+            } else if (known) {
+                subscription.resultIds.remove(id);
+                push(subscription, new Event(EventType.LEAVE, id, queryService.writeEventJson(null, id, subscription.fields)));
+            }
+        } catch (RuntimeException ex) {
+            log.error("Erreur lors de l'évaluation de {} pour un abonnement", event, ex);
+            subscription.emitter.completeWithError(ex);
+            close(subscription);
+        }
+    }
+
+    private boolean matches(Subscription subscription, EntityChangeEvent event) {
+        if (subscription.filters == null) {
+            return false;
+        }
+        if (matchedEvent != event) {
+            matcher.load(List.of((E) event.getEntity()));
+            matchedEvent = event;
+        }
+        Optional<Page<E>> inMemory = matcher.query(subscription.filters, Pageable.unpaged());
+        if (inMemory.isPresent()) {
+            return !inMemory.get().isEmpty();
+        }
+        // filtre non évaluable en mémoire : vérifié par la base, une fois par requête sur toutes les entités du lot
+        Set<Object> matchingIds = databaseMatches.get(subscription.request);
+        if (matchingIds == null) {
+            Set<Object> ids = new HashSet<>();
+            for (EntityChangeEvent change : batch) {
+                if (change.getOperation() != EntityChangeEvent.Operation.DELETE) {
+                    ids.add(change.getId());
+                }
+            }
+            matchingIds = queryService.newReadOnlyTransaction()
+                    .execute(status -> queryService.findMatchingIds(subscription.filters, ids, ids.size()));
+            databaseMatches.put(subscription.request, matchingIds);
+        }
+        return matchingIds.contains(event.getId());
+    }
+
+    /**
+     * Add the event to the buffer of the subscriber, merged with the pending event of the same entity.
+     */
+    private void push(Subscription subscription, Event event) {
+        synchronized (subscription.pending) {
+            Event previous = subscription.pending.get(event.id());
+            Event merged = event;
+            if (previous != null && previous.type() == EventType.ENTER) {
+                merged = event.type() == EventType.LEAVE ? null : new Event(EventType.ENTER, event.id(), event.data());
+            } else if (previous != null && previous.type() == EventType.LEAVE && event.type() == EventType.ENTER) {
+                merged = new Event(EventType.CHANGE, event.id(), event.data());
+            }
+            if (merged == null) {
+                subscription.pending.remove(event.id());
+            } else {
+                subscription.pending.put(event.id(), merged);
+            }
+            if (subscription.pending.size() > policy.getBufferSize()) {
+                subscription.pending.clear();
+                subscription.overflow = true;
+            }
+            if (subscription.sending || (subscription.pending.isEmpty() && !subscription.overflow)) {
+                return;
+            }
+            subscription.sending = true;
+        }
+        senders.execute(() -> send(subscription));
+    }
+
+    private void overflow(Subscription subscription) {
+        synchronized (subscription.pending) {
+            subscription.pending.clear();
+            subscription.overflow = true;
+            if (subscription.sending) {
+                return;
+            }
+            subscription.sending = true;
+        }
+        senders.execute(() -> send(subscription));
+    }
+
+    private void send(Subscription subscription) {
+        try {
+            while (true) {
+                Event event;
+                synchronized (subscription.pending) {
+                    if (subscription.overflow) {
+                        break;
+                    }
+                    Iterator<Event> iterator = subscription.pending.values().iterator();
+                    if (!iterator.hasNext()) {
+                        subscription.sending = false;
+                        return;
+                    }
+                    event = iterator.next();
+                    iterator.remove();
+                }
+                subscription.emitter.send(SseEmitter.event()
+                        .name(event.type().name().toLowerCase())
+                        .data(event.data(), MediaType.APPLICATION_JSON));
+            }
+            log.warn("Abonnement sur {} fermé : abonné plus lent que les changements", queryService.getType().getSimpleName());
+            subscription.emitter.send(SseEmitter.event().name("overflow").data("{}", MediaType.APPLICATION_JSON));
+            subscription.emitter.complete();
+        } catch (IOException | IllegalStateException ex) {
+            // client déconnecté ou abonnement déjà terminé
+            subscription.emitter.completeWithError(ex);
+        }
+        close(subscription);
+    }
+
+    private void close(Subscription subscription) {
+        if (subscription.closed.compareAndSet(false, true)) {
+            subscriptions.remove(subscription);
+            openSubscriptions.decrementAndGet();
+        }
+    }
+
+    void shutdown() {
+        subscriptions.forEach(subscription -> subscription.emitter.complete());
+        dispatcher.shutdownNow();
+        senders.shutdownNow();
+    }
+}
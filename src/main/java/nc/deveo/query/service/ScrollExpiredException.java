@@ -0,0 +1,15 @@
+package nc.deveo.query.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a scroll session is unknown, closed or evicted.
+ */
+@ResponseStatus(HttpStatus.GONE)
+public class ScrollExpiredException extends RuntimeException {
+
+    public ScrollExpiredException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,21 @@
+package nc.deveo.query.service;
+
+import lombok.Getter;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+/**
+ * A page of a scroll session, with the token to read the next pages.
+ */
+@Getter
+public class ScrollPage<E> extends PageImpl<E> {
+
+    private final String token;
+
+    public ScrollPage(List<E> content, Pageable pageable, long total, String token) {
+        super(content, pageable, total);
+        this.token = token;
+    }
+}
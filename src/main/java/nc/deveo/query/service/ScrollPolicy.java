@@ -0,0 +1,37 @@
+package nc.deveo.query.service;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Limits of the scroll sessions opened by a {@link QueryService}.
+ * The memory of the sessions is bounded by {@link #getMaxRows()} identifiers for each of the {@link #getMaxSessions()} sessions.
+ * eg:
+ * protected ScrollPolicy getScrollPolicy() {
+ * return ScrollPolicy.builder().ttl(Duration.ofMinutes(2)).maxRows(500_000).build();
+ * }
+ */
+@Getter
+@Builder
+public class ScrollPolicy {
+
+    /**
+     * Duration after which a session which is not read anymore is evicted.
+     */
+    @Builder.Default
+    private final Duration ttl = Duration.ofMinutes(5);
+
+    /**
+     * Maximum number of rows of a session, the requests returning more rows are rejected.
+     */
+    @Builder.Default
+    private final int maxRows = 100_000;
+
+    /**
+     * Maximum number of open sessions, the least recently read session is evicted beyond.
+     */
+    @Builder.Default
+    private final int maxSessions = 50;
+}
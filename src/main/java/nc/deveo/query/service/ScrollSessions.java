@@ -0,0 +1,79 @@
+package nc.deveo.query.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Sort;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The scroll sessions of a {@link QueryService}: the ordered identifiers of the result of a request,
+ * evicted after their time to live or when there are too many sessions.
+ */
+class ScrollSessions {
+
+    @Getter
+    @RequiredArgsConstructor
+    static class Session {
+        private final String token;
+        private final Object[] ids;
+        private final Sort sort;
+        private final int pageSize;
+        private long lastAccess = System.nanoTime();
+    }
+
+    private final ScrollPolicy policy;
+
+    // ordre d'accès : le premier est le moins récemment lu
+    private final LinkedHashMap<String, Session> sessions = new LinkedHashMap<>(16, 0.75f, true);
+
+    ScrollSessions(ScrollPolicy policy) {
+        this.policy = policy;
+    }
+
+    synchronized Session open(Object[] ids, Sort sort, int pageSize) {
+        evictExpired();
+        Iterator<Session> iterator = sessions.values().iterator();
+        while (sessions.size() >= policy.getMaxSessions() && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        Session session = new Session(UUID.randomUUID().toString(), ids, sort, pageSize);
+        sessions.put(session.getToken(), session);
+        return session;
+    }
+
+    synchronized Session get(String token) {
+        evictExpired();
+        Session session = sessions.get(token);
+        if (session == null) {
+            throw new ScrollExpiredException("Session de scroll inconnue ou expirée : " + token);
+        }
+        session.lastAccess = System.nanoTime();
+        return session;
+    }
+
+    synchronized void close(String token) {
+        sessions.remove(token);
+    }
+
+    synchronized int size() {
+        evictExpired();
+        return sessions.size();
+    }
+
+    private void evictExpired() {
+        long expiredBefore = System.nanoTime() - policy.getTtl().toNanos();
+        Iterator<Map.Entry<String, Session>> iterator = sessions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().lastAccess - expiredBefore >= 0) {
+                // les suivantes ont été lues plus récemment
+                return;
+            }
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package nc.deveo.query.service;
+
+import lombok.Getter;
+import lombok.Setter;
+import nc.deveo.query.cache.QueryCache;
+import nc.deveo.query.datasource.ShardRoutingDataSource;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.data.domain.*;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Execute the requests of a {@link QueryService} on all the shards of a {@link ShardRoutingDataSource} in parallel
+ * (scatter), then merge their results (gather):
+ * <ul>
+ *     <li>each shard returns the first offset + size rows of the request, sorted,</li>
+ *     <li>the rows of the shards are merged on the sort (k-way merge) and the requested page is kept,</li>
+ *     <li>the total is the sum of the totals of the shards.</li>
+ * </ul>
+ * The requests without sort are sorted by id. The sort must be on the attributes of the entity, compared in Java
+ * as in the databases: the strings and the nullable attributes need the collation and the null ordering declared by
+ * {@link QueryService#getCollation()} and {@link QueryService#getNullOrdering()}. The entities are loaded in one
+ * transaction per shard, and are detached: the lazy associations rendered must be initialized by
+ * {@link QueryService#initializeLazyDependencies()}.
+ * <p>
+ * The in-memory indexes and caches of the delegated service only see one database: it must not use them.
+ * eg:
+ * <code>
+ * &#64;Bean
+ * public ShardedQueryService&lt;Contrat&gt; shardedContratQueryService(ContratShardQueryService delegate, ShardRoutingDataSource dataSource,
+ * PlatformTransactionManager transactionManager) {
+ * return new ShardedQueryService&lt;&gt;(delegate, dataSource, transactionManager, Executors.newFixedThreadPool(4));
+ * }
+ * </code>
+ *
+ * @param <E> the type of the entity.
+ */
+public class ShardedQueryService<E> {
+
+    private final QueryService<E, ?> delegate;
+
+    private final ShardRoutingDataSource dataSource;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Executor executor;
+
+    /**
+     * Maximum offset + size of a page, each shard returning this number of rows.
+     */
+    @Getter
+    @Setter
+    private int maxWindow = 10_000;
+
+    public ShardedQueryService(QueryService<E, ?> delegate, ShardRoutingDataSource dataSource,
+                               PlatformTransactionManager transactionManager, Executor executor) {
+        if (delegate.isInMemorySnapshotEnabled() || !delegate.getPrefixIndexedFields().isEmpty()
+                || !delegate.getBitmapIndexedFields().isEmpty() || delegate.getSingleFlightPolicy() != null
+                || AnnotationUtils.findAnnotation(AopUtils.getTargetClass(delegate), QueryCache.class) != null) {
+            throw new IllegalStateException("Le service " + delegate.getType().getSimpleName()
+                    + " ne peut pas être réparti : ses index et caches en mémoire ne voient qu'une base");
+        }
+        this.delegate = delegate;
+        this.dataSource = dataSource;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.transactionTemplate.setReadOnly(true);
+        this.executor = executor;
+    }
+
+    public Page<E> findByCriteria(Map<String, String> allParams, Pageable page) {
+        Sort sort = page.getSort().isSorted() ? page.getSort() : Sort.by("id");
+        if (!delegate.isSortableInMemory(sort)) {
+            throw new IllegalArgumentException("Tri impossible sur plusieurs bases : " + sort
+                    + " (ordre des valeurs nulles ou collation non déclaré par le service)");
+        }
+        long window = page.isPaged() ? page.getOffset() + page.getPageSize() : maxWindow;
+        if (window > maxWindow) {
+            throw new QueryRejectedException("Page trop profonde pour une requête sur plusieurs bases (" + window + " lignes par base)");
+        }
+        Pageable shardPage = PageRequest.of(0, (int) window, sort);
+
+        List<Page<E>> shardResults = scatter(options -> delegate.findByCriteria(allParams, shardPage, options));
+        if (page.isUnpaged() && shardResults.stream().anyMatch(Page::hasNext)) {
+            throw new QueryRejectedException("Trop de résultats pour une requête sur plusieurs bases (plus de " + maxWindow + " lignes par base)");
+        }
+        long total = shardResults.stream().mapToLong(Page::getTotalElements).sum();
+        List<E> content = merge(shardResults, delegate.sortComparator(sort), page);
+        return new PageImpl<>(content, page, total);
+    }
+
+    public long countByCriteria(Map<String, String> allParams) {
+        return scatter(options -> delegate.countByCriteria(allParams, options)).stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Execute the query on all the shards in parallel, in one read-only transaction per shard.
+     * When a shard fails, the statements still running on the other shards are cancelled
+     * and the shards not started yet are skipped.
+     *
+     * @return the results, in the order of the shards.
+     */
+    private <T> List<T> scatter(Function<QueryOptions, T> query) {
+        List<QueryCancellation> cancellations = new ArrayList<>();
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        for (String shard : dataSource.getShards()) {
+            QueryCancellation cancellation = new QueryCancellation();
+            QueryOptions options = QueryOptions.builder().cancellation(cancellation).build();
+            cancellations.add(cancellation);
+            futures.add(CompletableFuture.supplyAsync(() -> dataSource.executeOn(shard,
+                    () -> transactionTemplate.execute(status -> query.apply(options))), executor));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException ex) {
+            // cancel(true) n'interrompt pas une CompletableFuture : elle évite seulement le démarrage
+            futures.forEach(future -> future.cancel(false));
+            cancellations.forEach(QueryCancellation::cancel);
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+        return results;
+    }
+
+    /**
+     * k-way merge of the sorted results of the shards, equal rows in the order of the shards.
+     */
+    private List<E> merge(List<Page<E>> shardResults, Comparator<E> comparator, Pageable page) {
+        // curseur : [shard, position dans le résultat du shard]
+        PriorityQueue<int[]> cursors = new PriorityQueue<>((a, b) -> {
+            int comparison = comparator.compare(shardResults.get(a[0]).getContent().get(a[1]), shardResults.get(b[0]).getContent().get(b[1]));
+            return comparison != 0 ? comparison : Integer.compare(a[0], b[0]);
+        });
+        for (int shard = 0; shard < shardResults.size(); shard++) {
+            if (shardResults.get(shard).hasContent()) {
+                cursors.add(new int[]{shard, 0});
+            }
+        }
+        long skip = page.isPaged() ? page.getOffset() : 0;
+        int size = page.isPaged() ? page.getPageSize() : Integer.MAX_VALUE;
+        List<E> content = new ArrayList<>();
+        while (!cursors.isEmpty() && content.size() < size) {
+            int[] cursor = cursors.poll();
+            List<E> shardContent = shardResults.get(cursor[0]).getContent();
+            if (skip > 0) {
+                skip--;
+            } else {
+                content.add(shardContent.get(cursor[1]));
+            }
+            if (cursor[1] + 1 < shardContent.size()) {
+                cursors.add(new int[]{cursor[0], cursor[1] + 1});
+            }
+        }
+        return content;
+    }
+}
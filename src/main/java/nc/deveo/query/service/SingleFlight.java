@@ -0,0 +1,73 @@
+package nc.deveo.query.service;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Execute only once the identical concurrent calls: the calls with the key of a call in progress wait for its result.
+ * Nothing is kept once the call is over, a later call is executed again.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the results, shared between the callers.
+ */
+public class SingleFlight<K, V> {
+
+    private static final class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+    }
+
+    private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+    /**
+     * @param key        the key of the call.
+     * @param policy     the maximum wait and number of waiters.
+     * @param call       the call, executed by the first caller, or by a caller which cannot wait.
+     * @return the result of the call, possibly executed by another caller.
+     * @throws RuntimeException the exception of the call, possibly thrown for another caller.
+     */
+    public V execute(K key, SingleFlightPolicy policy, Supplier<V> call) {
+        Flight<V> flight = new Flight<>();
+        Flight<V> current = flights.putIfAbsent(key, flight);
+        if (current == null) {
+            try {
+                V result = call.get();
+                flight.result.complete(result);
+                return result;
+            } catch (RuntimeException | Error ex) {
+                flight.result.completeExceptionally(ex);
+                throw ex;
+            } finally {
+                flights.remove(key, flight);
+            }
+        }
+
+        if (current.waiters.incrementAndGet() > policy.getMaxWaiters()) {
+            current.waiters.decrementAndGet();
+            return call.get();
+        }
+        try {
+            return current.result.get(policy.getMaxWait().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            return call.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw (Error) ex.getCause();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new QueryCancelledException("Attente de la requête identique interrompue");
+        } finally {
+            current.waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the number of calls in progress.
+     */
+    public int size() {
+        return flights.size();
+    }
+}
@@ -0,0 +1,31 @@
+package nc.deveo.query.service;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Coalescing of the identical concurrent requests of a {@link QueryService}: the requests arriving while an
+ * identical request is executed wait for its result instead of executing the same SQL.
+ * eg:
+ * protected SingleFlightPolicy getSingleFlightPolicy() {
+ * return SingleFlightPolicy.builder().maxWait(Duration.ofSeconds(2)).maxWaiters(20).build();
+ * }
+ */
+@Getter
+@Builder
+public class SingleFlightPolicy {
+
+    /**
+     * Maximum wait for the result of the identical request, the request is executed on its own after.
+     */
+    @Builder.Default
+    private final Duration maxWait = Duration.ofSeconds(5);
+
+    /**
+     * Maximum number of requests waiting for the same execution, the next ones are executed on their own.
+     */
+    @Builder.Default
+    private final int maxWaiters = 100;
+}
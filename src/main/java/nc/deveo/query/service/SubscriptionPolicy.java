@@ -0,0 +1,51 @@
+package nc.deveo.query.service;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Limits of the live subscriptions of a {@link QueryService} ({@link QueryService#subscribe}).
+ * eg:
+ * protected SubscriptionPolicy getSubscriptionPolicy() {
+ * return SubscriptionPolicy.builder().maxSubscriptions(200).bufferSize(50).build();
+ * }
+ */
+@Getter
+@Builder
+public class SubscriptionPolicy {
+
+    /**
+     * Maximum number of open subscriptions of the service, the next ones are rejected.
+     * Each one keeps the identifiers of its result and is matched against each change.
+     */
+    @Builder.Default
+    private final int maxSubscriptions = 100;
+
+    /**
+     * Maximum size of the result of a subscription: the identifiers of the result are kept in memory to know
+     * when an entity enters or leaves it.
+     */
+    @Builder.Default
+    private final int maxResultSize = 1000;
+
+    /**
+     * Maximum number of entities with an event waiting to be sent to a subscriber, the events of the same entity
+     * being merged. A subscriber reading slower than the changes is then closed after an "overflow" event.
+     */
+    @Builder.Default
+    private final int bufferSize = 256;
+
+    /**
+     * Duration of a subscription, the client subscribes again after it.
+     */
+    @Builder.Default
+    private final Duration timeout = Duration.ofMinutes(30);
+
+    /**
+     * Number of threads sending the events to the subscribers.
+     */
+    @Builder.Default
+    private final int senderThreads = 4;
+}
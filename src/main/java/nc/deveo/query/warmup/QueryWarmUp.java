@@ -0,0 +1,121 @@
+package nc.deveo.query.warmup;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+import nc.deveo.query.service.QueryService;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Warm up all the {@link QueryService} beans before the application accepts traffic: the representative requests
+ * of each service ({@link QueryService#getWarmUpRequests()}) are executed again and again, in a read-only transaction
+ * which is rolled back, until their duration is stable. The parsing, the reflection metadata, the Hibernate query plans
+ * and the JIT compiled code are then ready for the first real requests.
+ * <p>
+ * The application runners are executed before the readiness state switches to ACCEPTING_TRAFFIC.
+ */
+@Log4j2
+@Component
+public class QueryWarmUp implements ApplicationRunner {
+
+    private final ApplicationContext applicationContext;
+    private final TransactionTemplate transactionTemplate;
+
+    @Getter
+    @Setter
+    private int minIterations = 5;
+
+    @Getter
+    @Setter
+    private int maxIterations = 50;
+
+    /**
+     * The warm-up is stable when the duration of {@link #stableIterations} consecutive iterations
+     * varies by less than this ratio.
+     */
+    @Getter
+    @Setter
+    private double tolerance = 0.2;
+
+    @Getter
+    @Setter
+    private int stableIterations = 3;
+
+    /**
+     * Maximum duration of the warm-up of a service.
+     */
+    @Getter
+    @Setter
+    private Duration timeBudget = Duration.ofSeconds(30);
+
+    private final Map<String, Duration> durations = new LinkedHashMap<>();
+
+    public QueryWarmUp(ApplicationContext applicationContext, PlatformTransactionManager transactionManager) {
+        this.applicationContext = applicationContext;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.nanoTime();
+        applicationContext.getBeansOfType(QueryService.class).forEach(this::warmUp);
+        log.info("Préchauffage des requêtes terminé en {} ms", Duration.ofNanos(System.nanoTime() - start).toMillis());
+    }
+
+    /**
+     * @return the duration of the warm-up of each service, by bean name.
+     */
+    public Map<String, Duration> getDurations() {
+        return Collections.unmodifiableMap(durations);
+    }
+
+    private void warmUp(String beanName, QueryService<?, ?> service) {
+        List<Map<String, String>> requests = service.getWarmUpRequests();
+        if (requests.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = start + timeBudget.toNanos();
+        long previous = -1;
+        int stable = 0;
+        int iteration = 0;
+        try {
+            while (iteration < maxIterations && System.nanoTime() < deadline) {
+                long iterationStart = System.nanoTime();
+                transactionTemplate.executeWithoutResult(status -> {
+                    for (Map<String, String> request : requests) {
+                        service.findByCriteria(request, PageRequest.of(0, 20));
+                    }
+                    status.setRollbackOnly();
+                });
+                long duration = System.nanoTime() - iterationStart;
+                iteration++;
+
+                stable = previous > 0 && Math.abs(duration - previous) <= tolerance * previous ? stable + 1 : 0;
+                previous = duration;
+                if (iteration >= minIterations && stable >= stableIterations) {
+                    break;
+                }
+            }
+        } catch (RuntimeException ex) {
+            log.warn("Préchauffage de {} interrompu", beanName, ex);
+        }
+        Duration total = Duration.ofNanos(System.nanoTime() - start);
+        durations.put(beanName, total);
+        log.info("Préchauffage de {} : {} itérations en {} ms, dernière itération {} µs{}", beanName, iteration,
+                total.toMillis(), previous / 1000, stable >= stableIterations ? "" : " (non stabilisé)");
+    }
+}
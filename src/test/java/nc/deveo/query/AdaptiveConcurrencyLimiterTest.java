@@ -0,0 +1,98 @@
+package nc.deveo.query;
+
+import nc.deveo.query.service.AdaptiveConcurrencyLimiter;
+import nc.deveo.query.service.ConcurrencyLimitPolicy;
+import nc.deveo.query.service.QueryRejectedException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void rejectBeyondLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimitPolicy.builder()
+                .initialLimit(2).maxQueue(0).build());
+
+        limiter.acquire();
+        limiter.acquire();
+        assertThatThrownBy(limiter::acquire).isInstanceOf(QueryRejectedException.class);
+        assertThat(limiter.getInFlight()).isEqualTo(2);
+    }
+
+    @Test
+    void queueUntilRelease() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimitPolicy.builder()
+                .initialLimit(1).queueTimeout(Duration.ofSeconds(10)).build());
+
+        long start = limiter.acquire();
+        CompletableFuture<Long> queued = CompletableFuture.supplyAsync(limiter::acquire);
+        while (limiter.getQueued() == 0) {
+            Thread.onSpinWait();
+        }
+        limiter.release(start, false);
+
+        assertThat(queued.join()).isPositive();
+        assertThat(limiter.getQueued()).isZero();
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void rejectAfterQueueTimeout() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimitPolicy.builder()
+                .initialLimit(1).queueTimeout(Duration.ofMillis(10)).build());
+
+        limiter.acquire();
+        assertThatThrownBy(limiter::acquire).isInstanceOf(QueryRejectedException.class);
+        assertThat(limiter.getQueued()).isZero();
+    }
+
+    @Test
+    void adaptLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimitPolicy.builder()
+                .initialLimit(10).minLimit(2).maxLimit(11).build());
+
+        // diminution multiplicative sur surcharge, jusqu'au minimum
+        limiter.release(limiter.acquire(), true);
+        assertThat(limiter.getLimit()).isEqualTo(9);
+        for (int i = 0; i < 50; i++) {
+            limiter.release(limiter.acquire(), true);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(2);
+
+        // augmentation additive, seulement quand la limite est atteinte
+        limiter.release(limiter.acquire(), false);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+        for (int i = 0; i < 3; i++) {
+            long first = limiter.acquire();
+            long second = limiter.acquire();
+            limiter.release(second, false);
+            limiter.release(first, false);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(3);
+    }
+
+    @Test
+    void decreaseOncePerWindow() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(ConcurrencyLimitPolicy.builder()
+                .initialLimit(10).backoffRatio(0.5).build());
+
+        // exécutions simultanées lentes : une seule diminution
+        long[] starts = new long[5];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = limiter.acquire();
+        }
+        for (long start : starts) {
+            limiter.release(start, true);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(5);
+
+        // démarrée après la diminution : nouvelle fenêtre
+        limiter.release(limiter.acquire(), true);
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+}
@@ -0,0 +1,45 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.StatutContrat;
+import nc.deveo.query.index.BitmapIndex;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BitmapIndexTest {
+
+    private final BitmapIndex index = new BitmapIndex(List.of("statut"));
+
+    @Test
+    void keepChangesCommittedWhileWarming() {
+        // contenu lu par la requête de chargement
+        Map<Object, Map<String, Object>> loaded = new HashMap<>();
+        loaded.put(1L, values(StatutContrat.ACTIF));
+        loaded.put(2L, values(StatutContrat.ACTIF));
+        loaded.put(3L, values(StatutContrat.ACTIF));
+
+        // changements validés pendant le chargement, reçus avant warm()
+        index.put(1L, values(StatutContrat.RESILIE));
+        index.remove(2L);
+        index.put(4L, values(StatutContrat.ACTIF));
+        index.warm(loaded);
+
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.count(bitmaps -> bitmaps.values("statut", List.of(StatutContrat.ACTIF)))).isEqualTo(2);
+        assertThat(index.count(bitmaps -> bitmaps.values("statut", List.of(StatutContrat.RESILIE)))).isEqualTo(1);
+
+        // une fois chargé, les changements s'appliquent directement
+        index.put(3L, values(null));
+        assertThat(index.count(bitmaps -> bitmaps.nulls("statut"))).isEqualTo(1);
+    }
+
+    private static Map<String, Object> values(StatutContrat statut) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("statut", statut);
+        return values;
+    }
+}
@@ -0,0 +1,179 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.ColumnarSnapshot;
+import nc.deveo.query.service.GenericFilter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Each operator evaluated by the in-memory snapshot must return exactly what the SQL path returns.
+ * The snapshot service declares the null ordering and the collation of H2; without them the sorts on null values
+ * and the sorts and ranges on strings are refused by the snapshot, whatever the database.
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = QueryApplication.class, properties = "spring.liquibase.enabled=true")
+class ColumnarSnapshotTest {
+
+    @Autowired
+    private ContratQueryService sqlQueryService;
+
+    @Autowired
+    private ContratSnapshotQueryService snapshotQueryService;
+
+    @Autowired
+    private ContratExplainQueryService explainQueryService;
+
+    @Autowired
+    private ContratRepository repository;
+
+    @BeforeEach
+    void setup() {
+        repository.saveAll(List.of(
+                contrat(100L, "Martin", 10.5, LocalDate.of(2022, 1, 10)),
+                contrat(101L, "MARTINEZ", 20.0, LocalDate.of(2022, 1, 11)),
+                contrat(102L, "dupont", null, LocalDate.of(2021, 6, 1)),
+                contrat(103L, null, 35.25, null),
+                contrat(104L, "Du_Pont%", 0.0, LocalDate.of(2023, 3, 15))));
+        snapshotQueryService.warmIndexes();
+    }
+
+    static Stream<Map<String, String>> params() {
+        return Stream.of(
+                Map.of(),
+                Map.of("nom", "martin"),
+                Map.of("nom|notEquals", "martin"),
+                Map.of("nom|specified", "false"),
+                Map.of("nom|specified", "true"),
+                Map.of("nom|in", "Martin,dupont"),
+                Map.of("nom|notIn", "Martin,dupont"),
+                Map.of("nom|contains", "ti"),
+                Map.of("nom|contains", "_"),
+                Map.of("nom|startsWith", "du"),
+                Map.of("nom|endsWith", "ez"),
+                Map.of("nom|containsIn", "mar,ez"),
+                Map.of("nom|notContains", "pont"),
+                Map.of("nom|greaterThan", "MARTINEZ"),
+                Map.of("montant", "20"),
+                Map.of("montant|notEquals", "20"),
+                Map.of("montant|greaterThan", "10.5"),
+                Map.of("montant|greaterThanOrEqual", "10.5"),
+                Map.of("montant|lessThan", "20"),
+                Map.of("montant|lessThanOrEqual", "20", "nom|specified", "true"),
+                Map.of("montant|in", "0,35.25"),
+                Map.of("montant|notIn", "0,35.25"),
+                Map.of("id|greaterThan", "101", "id|lessThanOrEqual", "103"),
+                Map.of("dateDebut", "2022-01-10 00:00:00"),
+                Map.of("dateDebut|greaterThanOrEqual", "2022-01-11 00:00:00"),
+                Map.of("dateDebut|lessThan", "2022-01-11 00:00:00"),
+                Map.of("nom/montant|specified", "false"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("params")
+    void snapshotMatchesSql(Map<String, String> params) {
+        for (Pageable page : List.of(PageRequest.of(0, 20, Sort.by("id")), PageRequest.of(1, 2, Sort.by(Sort.Direction.DESC, "montant")),
+                PageRequest.of(0, 20, Sort.by("nom")))) {
+            Page<Contrat> expected = sqlQueryService.findByCriteria(params, page);
+            Page<Contrat> actual = snapshotQueryService.findByCriteria(params, page);
+
+            assertThat(ids(actual)).as("%s %s", params, page).isEqualTo(ids(expected));
+            assertThat(actual.getTotalElements()).as("%s %s", params, page).isEqualTo(expected.getTotalElements());
+        }
+    }
+
+    @Test
+    void snapshotIsRefreshedFromCommittedChanges() {
+        repository.save(contrat(105L, "Bernard", 1.0, null));
+        repository.deleteById(104L);
+
+        Page<Contrat> page = snapshotQueryService.findByCriteria(Map.of("nom|contains", "r"), PageRequest.of(0, 20, Sort.by("id")));
+
+        assertThat(ids(page)).containsExactly(100L, 101L, 105L);
+    }
+
+    @Test
+    void refreshRetriesFailedLoad() {
+        ColumnarSnapshot<Contrat> snapshot = new ColumnarSnapshot<>(sqlQueryService);
+        snapshot.load(repository.findAllById(List.of(100L, 101L)));
+        List<GenericFilter<?>> renamed = sqlQueryService.parseFilters(Map.of("nom", "renomme"));
+
+        snapshot.markChanged(100L);
+        assertThatThrownBy(() -> snapshot.refresh(changedIds -> {
+            throw new IllegalStateException("base indisponible");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(snapshot.query(renamed, Pageable.unpaged()).orElseThrow()).isEmpty();
+
+        // le changement non chargé est repris par le rafraîchissement suivant
+        snapshot.refresh(changedIds -> {
+            assertThat(changedIds).containsExactly(100L);
+            return List.of(contrat(100L, "Renomme", 10.5, null));
+        });
+        assertThat(ids(snapshot.query(renamed, Pageable.unpaged()).orElseThrow())).containsExactly(100L);
+    }
+
+    @Test
+    void snapshotRefusesDatabaseDependentOrders() {
+        // service sans ordre des valeurs nulles ni collation déclarés
+        ColumnarSnapshot<Contrat> snapshot = new ColumnarSnapshot<>(sqlQueryService);
+        snapshot.load(repository.findAllById(List.of(100L, 101L, 102L, 103L, 104L)));
+        List<GenericFilter<?>> all = List.of();
+
+        assertThat(snapshot.query(all, PageRequest.of(0, 20, Sort.by("id")))).isPresent();
+        assertThat(snapshot.query(sqlQueryService.parseFilters(Map.of("nom", "martin")), Pageable.unpaged())).isPresent();
+        // valeurs nulles comparées
+        assertThat(snapshot.query(all, PageRequest.of(0, 20, Sort.by("montant")))).isEmpty();
+        assertThat(snapshot.query(sqlQueryService.parseFilters(Map.of("montant|specified", "true")), PageRequest.of(0, 20, Sort.by("montant")))).isPresent();
+        // chaînes ordonnées
+        assertThat(snapshot.query(sqlQueryService.parseFilters(Map.of("nom|specified", "true")), PageRequest.of(0, 20, Sort.by("nom")))).isEmpty();
+        assertThat(snapshot.query(sqlQueryService.parseFilters(Map.of("nom|greaterThan", "MARTINEZ")), Pageable.unpaged())).isEmpty();
+    }
+
+    @Test
+    void identifierLookupSortsLikeDatabase() {
+        Map<String, String> params = Map.of("id|in", "100,101,102,103,104");
+        List<Object> identifiers = List.of(100L, 101L, 102L, 103L, 104L);
+        for (Sort sort : List.of(Sort.by("id"), Sort.by("nom"), Sort.by(Sort.Direction.DESC, "montant"), Sort.by("nom", "montant"))) {
+            PageRequest page = PageRequest.of(0, 20, sort);
+            assertThat(ids(snapshotQueryService.findByIds(identifiers, page))).as(sort.toString())
+                    .isEqualTo(ids(sqlQueryService.findByCriteria(params, page)));
+        }
+        // sans ordre des valeurs nulles ni collation déclarés, seul le tri sur l'id est fait en mémoire
+        assertThat(explainQueryService.explain(params, PageRequest.of(0, 20, Sort.by("id"))).getStrategy()).isEqualTo("IDENTIFIER_LOOKUP");
+        assertThat(explainQueryService.explain(params, PageRequest.of(0, 20, Sort.by("nom"))).getStrategy()).isEqualTo("SQL");
+        assertThat(explainQueryService.explain(params, PageRequest.of(0, 20, Sort.by("montant"))).getStrategy()).isEqualTo("SQL");
+    }
+
+    private static List<Long> ids(Page<Contrat> page) {
+        return page.getContent().stream().map(Contrat::getId).collect(Collectors.toList());
+    }
+
+    private static Contrat contrat(Long id, String nom, Double montant, LocalDate dateDebut) {
+        Contrat contrat = new Contrat();
+        contrat.setId(id);
+        contrat.setNom(nom);
+        contrat.setMontant(montant);
+        contrat.setDateDebut(dateDebut);
+        return contrat;
+    }
+}
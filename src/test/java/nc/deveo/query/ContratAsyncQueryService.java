@@ -0,0 +1,33 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.AsyncQueryPolicy;
+import nc.deveo.query.service.QueryService;
+import org.hibernate.Hibernate;
+import org.springframework.stereotype.Service;
+
+import java.util.function.Consumer;
+
+@Service
+public class ContratAsyncQueryService extends QueryService<Contrat, ContratRepository> {
+
+    public ContratAsyncQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+
+    @Override
+    protected Consumer<Contrat> initializeLazyDependencies() {
+        return contrat -> Hibernate.initialize(contrat.getFactures());
+    }
+
+    @Override
+    protected AsyncQueryPolicy getAsyncQueryPolicy() {
+        return AsyncQueryPolicy.builder().maxThreads(4).build();
+    }
+}
@@ -0,0 +1,22 @@
+package nc.deveo.query;
+
+import nc.deveo.query.cache.QueryCache;
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.entity.Facture;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.QueryService;
+import org.springframework.stereotype.Service;
+
+@Service
+@QueryCache(collections = "factures", associatedEntities = Facture.class, queries = true, maxEntries = 1000, ttl = "PT5M")
+public class ContratCachedQueryService extends QueryService<Contrat, ContratRepository> {
+
+    public ContratCachedQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+}
@@ -0,0 +1,29 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.QueryService;
+import org.springframework.stereotype.Service;
+
+@Service
+public class ContratChangeQueryService extends QueryService<Contrat, ContratRepository> {
+
+    public ContratChangeQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+
+    @Override
+    protected boolean isChangeTracked() {
+        return true;
+    }
+
+    @Override
+    protected boolean isETagEnabled() {
+        return true;
+    }
+}
@@ -1,25 +1,45 @@
 package nc.deveo.query;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.jayway.jsonpath.JsonPath;
+import nc.deveo.query.controller.QueryController;
 import nc.deveo.query.entity.Contrat;
 import nc.deveo.query.entity.Facture;
+import nc.deveo.query.entity.StatutContrat;
 import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.repository.FactureRepository;
+import nc.deveo.query.service.QueryCostPolicy;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.util.List;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @RunWith(SpringRunner.class)
@@ -35,11 +55,22 @@ public class ContratControllerTest {
     @Autowired
     private ContratRepository repository;
 
+    @Autowired
+    private FactureRepository factureRepository;
+
+    @Autowired
+    private ContratTimeoutQueryService timeoutQueryService;
+
+    @Autowired
+    private ContratCostQueryService costQueryService;
+
     @Before
     public void setup() {
         Contrat contrat = new Contrat();
         contrat.setId(1L);
         contrat.setNom("OLIVE");
+        contrat.setStatut(StatutContrat.ACTIF);
+        contrat.setSigne(true);
 
         Facture facture = new Facture();
         facture.setId(1L);
@@ -52,6 +83,8 @@ public class ContratControllerTest {
         Contrat secondContrat = new Contrat();
         secondContrat.setId(2L);
         secondContrat.setNom("DELESSERT");
+        secondContrat.setStatut(StatutContrat.RESILIE);
+        secondContrat.setSigne(false);
 
         Facture secondFacture = new Facture();
         secondFacture.setId(2L);
@@ -93,4 +126,430 @@ public class ContratControllerTest {
                 .andExpect(jsonPath("$.content[0].id", is(Integer.parseInt("2"))))
                 .andExpect(jsonPath("$.content[0].nom", is("DELESSERT")));
     }
+
+    @Test
+    public void getFacets() throws Exception {
+        mvc.perform(get("/api/query/facets?facet=nom&facet=factures.libelle&nom|startsWith=o"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.nom", hasSize(1)))
+                .andExpect(jsonPath("$.nom[0].value", is("OLIVE")))
+                .andExpect(jsonPath("$.nom[0].count", is(1)))
+                .andExpect(jsonPath("$['factures.libelle'][0].value", is("JEAN PAUL")));
+        mvc.perform(get("/api/query/facets?facet=id&facetSize=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id", hasSize(1)));
+        mvc.perform(get("/api/query/facets?facet=nom&facetSize=0"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getSuggestions() throws Exception {
+        // par la base, puis par l'index de préfixes
+        for (String api : List.of("/api", "/api/index")) {
+            mvc.perform(get(api + "/query/suggest?field=nom&prefix=ol"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$", hasSize(1)))
+                    .andExpect(jsonPath("$[0]", is("OLIVE")));
+        }
+    }
+
+    @Test
+    public void getSuggestionsOrder() throws Exception {
+        Contrat contrat = new Contrat();
+        contrat.setId(208L);
+        contrat.setNom("oliva");
+        repository.save(contrat);
+        try {
+            // même ordre, sur la valeur en majuscules, par la base et par l'index de préfixes
+            for (String api : List.of("/api", "/api/index")) {
+                mvc.perform(get(api + "/query/suggest?field=nom&prefix=ol"))
+                        .andExpect(status().isOk())
+                        .andExpect(jsonPath("$", contains("oliva", "OLIVE")));
+                mvc.perform(get(api + "/query/suggest?field=nom&prefix=ol&size=0"))
+                        .andExpect(status().isBadRequest());
+            }
+        } finally {
+            repository.deleteById(208L);
+        }
+    }
+
+    @Test
+    public void getExplain() throws Exception {
+        mvc.perform(get("/api/explain/query/explain?factures.libelle|contains=jean&statut=ACTIF&sort=nom"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.strategy", is("SQL")))
+                .andExpect(jsonPath("$.joins['factures.libelle']", is("LEFT JOIN")))
+                .andExpect(jsonPath("$.joins.statut", is("PATH")))
+                .andExpect(jsonPath("$.cost.pluralJoins", is(1)))
+                .andExpect(jsonPath("$.contentSql", containsString("left outer join facture")))
+                .andExpect(jsonPath("$.countSql", containsString("count(distinct")))
+                .andExpect(jsonPath("$.contentPlan", hasSize(greaterThan(0))))
+                .andExpect(jsonPath("$.contentPlan[0]", containsString("CONTRAT")))
+                .andExpect(jsonPath("$.countPlan", hasSize(greaterThan(0))))
+                .andExpect(jsonPath("$.timings.parse").exists())
+                .andExpect(jsonPath("$.timings.explain").exists());
+        mvc.perform(get("/api/explain/query/explain?id=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.strategy", is("IDENTIFIER_LOOKUP")));
+        mvc.perform(get("/api/explain/query/explain?statut=ACTIF&statut|in=RESILIE"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.strategy", is("NO_RESULT")))
+                .andExpect(jsonPath("$.optimizedFilters", hasSize(0)));
+        // non activé sur le service par défaut
+        mvc.perform(get("/api/query/explain?id=1"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void getCount() throws Exception {
+        // par la base, puis par les index bitmap
+        for (String api : List.of("/api", "/api/index")) {
+            mvc.perform(get(api + "/query/count?statut=ACTIF"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$", is(1)));
+            mvc.perform(get(api + "/query/count?statut|in=ACTIF,RESILIE&signe=false"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$", is(1)));
+            mvc.perform(get(api + "/query/count?statut|notIn=ACTIF&signe|specified=true"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$", is(1)));
+            // Filtre sans index bitmap : compté par la base
+            mvc.perform(get(api + "/query/count?statut=ACTIF&nom|startsWith=oli"))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$", is(1)));
+        }
+    }
+
+    @Test
+    public void getTimeout() throws Exception {
+        timeoutQueryService.drainTimeouts();
+        // délai de la requête arrondi à la seconde, sur le contenu et le comptage
+        mvc.perform(get("/api/timeout/query?nom|in=OLIVE,DELESSERT&size=1").header(QueryController.TIMEOUT_HEADER, "1500"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(2)));
+        assertThat(timeoutQueryService.drainTimeouts()).isEqualTo(List.of(2, 2));
+        // sans en-tête, ou au-delà, le délai de l'entité s'applique
+        mvc.perform(get("/api/timeout/query?nom|in=OLIVE,DELESSERT&size=1"))
+                .andExpect(status().isOk());
+        assertThat(timeoutQueryService.drainTimeouts()).isEqualTo(List.of(5, 5));
+        mvc.perform(get("/api/timeout/query/count?nom|startsWith=o").header(QueryController.TIMEOUT_HEADER, "60000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", is(1)));
+        assertThat(timeoutQueryService.drainTimeouts()).isEqualTo(List.of(5));
+    }
+
+    @Test
+    public void getExpensiveRejected() throws Exception {
+        mvc.perform(get("/api/cost/query?nom|contains=LIV"))
+                .andExpect(status().isServiceUnavailable());
+        mvc.perform(get("/api/cost/query?nom|startsWith=OLI"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(QueryController.TOTAL_ESTIMATED_HEADER))
+                .andExpect(jsonPath("$.totalElements", is(1)));
+    }
+
+    @Test
+    public void getExpensiveDowngraded() throws Exception {
+        costQueryService.setAction(QueryCostPolicy.Action.DOWNGRADE);
+        try {
+            // sans comptage : le total indique seulement qu'une page suivante existe
+            mvc.perform(get("/api/cost/query?nom|contains=E&sort=id&size=1"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(QueryController.TOTAL_ESTIMATED_HEADER, "true"))
+                    .andExpect(jsonPath("$.totalEstimated", is(true)))
+                    .andExpect(jsonPath("$.totalElements", is(2)))
+                    .andExpect(jsonPath("$.last", is(false)))
+                    .andExpect(jsonPath("$.content[0].id", is(1)));
+            mvc.perform(get("/api/cost/query?fields=id,nom&nom|contains=LIV"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(QueryController.TOTAL_ESTIMATED_HEADER, "true"))
+                    .andExpect(jsonPath("$.totalEstimated", is(true)))
+                    .andExpect(jsonPath("$.content[0].nom", is("OLIVE")));
+            mvc.perform(get("/api/cost/query?nom|startsWith=OLI"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist(QueryController.TOTAL_ESTIMATED_HEADER))
+                    .andExpect(jsonPath("$.totalEstimated").doesNotExist());
+        } finally {
+            costQueryService.setAction(QueryCostPolicy.Action.REJECT);
+        }
+    }
+
+    @Test
+    public void getNotModified() throws Exception {
+        String etag = mvc.perform(get("/api/changes/query?nom=OLIVE"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(etag).isNotNull();
+        // ETag non activé sur le service par défaut
+        assertThat(mvc.perform(get("/api/query?nom=OLIVE")).andReturn().getResponse().getHeader(HttpHeaders.ETAG)).isNull();
+
+        mvc.perform(get("/api/changes/query?nom=OLIVE").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+        mvc.perform(get("/api/changes/query?nom=DELESSERT").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk());
+
+        // Une modification d'une entité associée change l'ETag
+        Facture facture = factureRepository.findById(1L).orElseThrow();
+        facture.setLibelle("JEAN PIERRE");
+        factureRepository.save(facture);
+        mvc.perform(get("/api/changes/query?nom=OLIVE").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].factures[0].libelle", is("JEAN PIERRE")));
+    }
+
+    @Test
+    public void getProjection() throws Exception {
+        mvc.perform(get("/api/query?fields=id,nom,statut,factures&nom=OLIVE"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(1)))
+                .andExpect(jsonPath("$.content[0].id", is(1)))
+                .andExpect(jsonPath("$.content[0].nom", is("OLIVE")))
+                .andExpect(jsonPath("$.content[0].statut", is("ACTIF")))
+                .andExpect(jsonPath("$.content[0].montant").doesNotExist())
+                // Liste non chargée : jamais initialisée pendant l'écriture
+                .andExpect(jsonPath("$.content[0].factures").doesNotExist());
+    }
+
+    @Test
+    public void getBinaryFormats() throws Exception {
+        mvc.perform(get("/api/query?nom=OLIVE").accept("application/x-jackson-smile"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.VARY, containsString(HttpHeaders.ACCEPT)))
+                .andExpect(content().contentTypeCompatibleWith("application/x-jackson-smile"));
+
+        byte[] cbor = mvc.perform(get("/api/query?fields=nom,id,nom&nom=OLIVE").accept(MediaType.APPLICATION_CBOR))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+        JsonNode page = new CBORMapper().readTree(cbor);
+        assertThat(page.get("content").get(0).get("nom").asText()).isEqualTo("OLIVE");
+
+        byte[] columnar = mvc.perform(get("/api/query?fields=statut,nom,id&nom|in=OLIVE,DELESSERT&sort=id").accept("application/x-query-columnar"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(columnar));
+        assertThat(data.readLong()).isEqualTo(2);
+        data.readInt();
+        data.readInt();
+        assertThat(data.readInt()).isEqualTo(2);
+        assertThat(data.readInt()).isEqualTo(3);
+        assertThat(data.readUTF()).isEqualTo("id");
+        assertThat(data.readByte()).isEqualTo((byte) 1);
+        assertThat(data.readByte()).isEqualTo((byte) 0);
+        assertThat(data.readLong()).isEqualTo(1);
+        assertThat(data.readLong()).isEqualTo(2);
+    }
+
+    @Test
+    public void getScroll() throws Exception {
+        MvcResult result = mvc.perform(get("/api/query/scroll?nom|in=OLIVE,DELESSERT&sort=id&size=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(2)))
+                .andExpect(jsonPath("$.content[0].id", is(1)))
+                .andReturn();
+        String token = JsonPath.read(result.getResponse().getContentAsString(), "$.token");
+
+        // Le résultat du scroll ne change plus, même si une ligne ne correspond plus aux filtres
+        Contrat contrat = repository.findById(2L).orElseThrow();
+        contrat.setNom("DURAND");
+        repository.save(contrat);
+        mvc.perform(get("/api/query/scroll/" + token + "?page=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id", is(2)))
+                .andExpect(jsonPath("$.content[0].nom", is("DURAND")));
+
+        mvc.perform(get("/api/query/scroll/" + token + "?page=-1"))
+                .andExpect(status().isBadRequest());
+
+        mvc.perform(delete("/api/query/scroll/" + token))
+                .andExpect(status().isOk());
+        mvc.perform(get("/api/query/scroll/" + token + "?page=1"))
+                .andExpect(status().isGone());
+    }
+
+    @Test
+    public void getNamedQuery() throws Exception {
+        mvc.perform(get("/api/named/query/named/contratsByNomPrefix?p=oli"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].nom", is("OLIVE")));
+        mvc.perform(get("/api/named/query/named/contratsSignes?statuts=ACTIF,RESILIE"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].id", is(1)));
+        mvc.perform(get("/api/named/query/named/contratsFactures?p=o"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].id", is(1)));
+        mvc.perform(get("/api/named/query/named/contratsSignes?statuts=INCONNU"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/api/named/query/named/contratsByNomPrefix"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(get("/api/named/query/named/inconnue"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getOptimizedFilters() throws Exception {
+        mvc.perform(get("/api/query?id=1&id|notEquals=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(0)));
+        mvc.perform(get("/api/query?id|greaterThanOrEqual=1&id|lessThanOrEqual=2&id|lessThan=2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(1)))
+                .andExpect(jsonPath("$.content[0].id", is(1)));
+    }
+
+    @Test
+    public void getAsync() throws Exception {
+        MvcResult result = mvc.perform(get("/api/async/query/async?nom|startsWith=oli"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(1)))
+                .andExpect(jsonPath("$.content[0].nom", is("OLIVE")))
+                .andExpect(jsonPath("$.content[0].factures[0].libelle", is("JEAN PAUL")));
+        result = mvc.perform(get("/api/async/query/async?nom|=OLIVE"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvc.perform(asyncDispatch(result))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getChanges() throws Exception {
+        String token = JsonPath.read(mvc.perform(get("/api/changes/query?since="))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(0)))
+                .andReturn().getResponse().getContentAsString(), "$.token");
+        mvc.perform(get("/api/changes/query?since=" + token + "&statut=ACTIF"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.token").exists())
+                .andExpect(jsonPath("$.hasMore", is(false)));
+        mvc.perform(get("/api/changes/query?since=inconnu"))
+                .andExpect(status().isGone());
+        mvc.perform(get("/api/changes/query?since=" + token + "&fields=id,nom"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void getSubscription() throws Exception {
+        MvcResult result = mvc.perform(get("/api/query/subscribe?nom|startsWith=abonne&fields=id,nom"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        Contrat contrat = new Contrat();
+        contrat.setId(300L);
+        contrat.setNom("ABONNE");
+        repository.save(contrat);
+        awaitEvent(result, "event:enter\ndata:{\"id\":300,\"nom\":\"ABONNE\"}");
+
+        Contrat autre = new Contrat();
+        autre.setId(301L);
+        autre.setNom("AUTRE");
+        repository.save(autre);
+        contrat.setNom("ABONNE BIS");
+        repository.save(contrat);
+        awaitEvent(result, "event:change\ndata:{\"id\":300,\"nom\":\"ABONNE BIS\"}");
+
+        repository.deleteById(300L);
+        awaitEvent(result, "event:leave\ndata:{\"id\":300}");
+        repository.deleteById(301L);
+        // les changements sont envoyés dans l'ordre : l'événement suivant arrive après la suppression de 301
+        Contrat suivant = new Contrat();
+        suivant.setId(303L);
+        suivant.setNom("ABONNE TER");
+        repository.save(suivant);
+        awaitEvent(result, "event:enter\ndata:{\"id\":303,\"nom\":\"ABONNE TER\"}");
+        assertThat(result.getResponse().getContentAsString()).doesNotContain("301");
+        repository.deleteById(303L);
+    }
+
+    @Test
+    public void getSubscriptionCheckedByDatabase() throws Exception {
+        // filtre sur une liste : vérifié par la base, une seule fois pour les deux abonnements
+        String subscribe = "/api/query/subscribe?factures.libelle/nom|contains=ASSOCIE&fields=id,nom";
+        MvcResult first = mvc.perform(get(subscribe)).andExpect(request().asyncStarted()).andReturn();
+        MvcResult second = mvc.perform(get(subscribe)).andExpect(request().asyncStarted()).andReturn();
+
+        Contrat contrat = new Contrat();
+        contrat.setId(304L);
+        contrat.setNom("ASSOCIE");
+        repository.save(contrat);
+        awaitEvent(first, "event:enter\ndata:{\"id\":304,\"nom\":\"ASSOCIE\"}");
+        awaitEvent(second, "event:enter\ndata:{\"id\":304,\"nom\":\"ASSOCIE\"}");
+
+        contrat.setNom("DISSOCIE");
+        repository.save(contrat);
+        awaitEvent(first, "event:leave\ndata:{\"id\":304}");
+        awaitEvent(second, "event:leave\ndata:{\"id\":304}");
+        repository.deleteById(304L);
+    }
+
+    private static void awaitEvent(MvcResult result, String event) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!result.getResponse().getContentAsString().contains(event) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(result.getResponse().getContentAsString()).contains(event);
+    }
+
+    @Test
+    public void getFilterSyntax() throws Exception {
+        mvc.perform(get("/api/query?factures.libelle/nom|contains=OLI&signe|specified=yes"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(1)))
+                .andExpect(jsonPath("$.content[0].nom", is("OLIVE")));
+        MvcResult result = mvc.perform(get("/api/query?nom|=OLIVE"))
+                .andExpect(status().isBadRequest())
+                .andReturn();
+        assertThat(result.getResolvedException().getMessage()).isEqualTo("Filtre invalide : nom| (position 4 : opérateur attendu)");
+        result = mvc.perform(get("/api/query?factures..libelle=JEAN"))
+                .andExpect(status().isBadRequest())
+                .andReturn();
+        assertThat(result.getResolvedException().getMessage()).isEqualTo("Filtre invalide : factures..libelle (position 9 : nom attendu avant '.')");
+    }
+
+    @Test
+    public void getByIds() throws Exception {
+        mvc.perform(get("/api/query?id|in=1,2,2,999&sort=nom"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(2)))
+                .andExpect(jsonPath("$.content[0].nom", is("DELESSERT")))
+                .andExpect(jsonPath("$.content[1].nom", is("OLIVE")));
+        mvc.perform(get("/api/query?id|in=1,2&sort=nom,desc&size=1&page=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(2)))
+                .andExpect(jsonPath("$.content[0].nom", is("DELESSERT")));
+        mvc.perform(get("/api/query?id=1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].factures[0].libelle", is("JEAN PAUL")));
+        // l'égalité n'accepte qu'une valeur, comme en base
+        assertThatThrownBy(() -> mvc.perform(get("/api/query?id=1,2")))
+                .hasMessageContaining("For input string: \"1,2\"");
+        // le délai de la requête s'applique au chargement par identifiant
+        timeoutQueryService.drainTimeouts();
+        mvc.perform(get("/api/timeout/query?id|in=2,1").header(QueryController.TIMEOUT_HEADER, "1500"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements", is(2)))
+                .andExpect(jsonPath("$.content[0].nom", is("DELESSERT")))
+                .andExpect(jsonPath("$.content[1].nom", is("OLIVE")));
+        assertThat(timeoutQueryService.drainTimeouts()).isEqualTo(List.of(2));
+    }
+
+    @Test
+    public void getCacheStatistics() throws Exception {
+        mvc.perform(get("/api/cached/query?nom=OLIVE&signe=true")).andExpect(status().isOk());
+        mvc.perform(get("/api/cached/query?nom=OLIVE&signe=true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[0].id", is(1)));
+        mvc.perform(get("/api/cached/query?id=1")).andExpect(status().isOk());
+
+        mvc.perform(get("/actuator/querycache"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.enabled", is(true)))
+                .andExpect(jsonPath("$.queries.hits", greaterThan(0)))
+                .andExpect(jsonPath("$.regions['nc.deveo.query.entity.Contrat'].hits", greaterThan(0)));
+    }
 }
@@ -0,0 +1,65 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.QueryCostPolicy;
+import nc.deveo.query.service.QueryService;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Service whose requests with a leading wildcard are expensive, with the action chosen by the test.
+ */
+@Service
+public class ContratCostQueryService extends QueryService<Contrat, ContratRepository> {
+
+    private volatile QueryCostPolicy.Action action = QueryCostPolicy.Action.REJECT;
+
+    private final AtomicReference<CountDownLatch[]> hold = new AtomicReference<>();
+
+    public ContratCostQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+
+    @Override
+    protected QueryCostPolicy getQueryCostPolicy() {
+        return QueryCostPolicy.builder().maxScore(5).action(action)
+                .queueConcurrency(1).queueTimeout(Duration.ofMillis(100)).build();
+    }
+
+    public void setAction(QueryCostPolicy.Action action) {
+        this.action = action;
+    }
+
+    /**
+     * The next loaded entities keep the slot of their query: started is released when it is held,
+     * the query completes once release is released.
+     */
+    public void holdNextQuery(CountDownLatch started, CountDownLatch release) {
+        hold.set(new CountDownLatch[]{started, release});
+    }
+
+    @Override
+    protected Consumer<Contrat> initializeLazyDependencies() {
+        return contrat -> {
+            CountDownLatch[] latches = hold.getAndSet(null);
+            if (latches != null) {
+                latches[0].countDown();
+                try {
+                    latches[1].await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,31 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.QueryService;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+@Service
+public class ContratIndexQueryService extends QueryService<Contrat, ContratRepository> {
+
+    public ContratIndexQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+
+    @Override
+    protected List<String> getPrefixIndexedFields() {
+        return List.of("nom");
+    }
+
+    @Override
+    protected List<String> getBitmapIndexedFields() {
+        return List.of("statut", "signe");
+    }
+}
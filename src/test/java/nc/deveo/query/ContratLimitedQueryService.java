@@ -0,0 +1,57 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.ConcurrencyLimitPolicy;
+import nc.deveo.query.service.QueryService;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Service limited to one query at a time, without queue.
+ */
+@Service
+public class ContratLimitedQueryService extends QueryService<Contrat, ContratRepository> {
+
+    private final AtomicReference<CountDownLatch[]> hold = new AtomicReference<>();
+
+    public ContratLimitedQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+
+    @Override
+    protected ConcurrencyLimitPolicy getConcurrencyLimitPolicy() {
+        return ConcurrencyLimitPolicy.builder().initialLimit(1).maxLimit(1).maxQueue(0).build();
+    }
+
+    /**
+     * The next loaded entities keep the slot of their query: started is released when it is held,
+     * the query completes once release is released.
+     */
+    public void holdNextQuery(CountDownLatch started, CountDownLatch release) {
+        hold.set(new CountDownLatch[]{started, release});
+    }
+
+    @Override
+    protected Consumer<Contrat> initializeLazyDependencies() {
+        return contrat -> {
+            CountDownLatch[] latches = hold.getAndSet(null);
+            if (latches != null) {
+                latches[0].countDown();
+                try {
+                    latches[1].await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
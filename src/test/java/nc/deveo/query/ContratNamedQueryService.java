@@ -0,0 +1,29 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.QueryService;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+
+@Service
+public class ContratNamedQueryService extends QueryService<Contrat, ContratRepository> {
+
+    public ContratNamedQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+
+    @Override
+    protected Map<String, String> getNamedQueries() {
+        return Map.of(
+                "contratsByNomPrefix", "nom|startsWith=:p&sort=nom",
+                "contratsSignes", "statut|in=:statuts&signe=true",
+                "contratsFactures", "factures.libelle=JEAN%20PAUL&nom|startsWith=:p");
+    }
+}
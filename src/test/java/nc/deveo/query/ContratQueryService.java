@@ -5,6 +5,9 @@ import nc.deveo.query.repository.ContratRepository;
 import nc.deveo.query.service.QueryService;
 import org.springframework.stereotype.Service;
 
+/**
+ * Service without any optional feature: the baseline SQL path.
+ */
 @Service
 public class ContratQueryService extends QueryService<Contrat, ContratRepository> {
 
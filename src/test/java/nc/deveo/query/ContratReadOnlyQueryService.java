@@ -0,0 +1,37 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.QueryService;
+import org.hibernate.Hibernate;
+import org.springframework.stereotype.Service;
+
+import java.util.function.Consumer;
+
+@Service
+public class ContratReadOnlyQueryService extends QueryService<Contrat, ContratRepository> {
+
+    public ContratReadOnlyQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+
+    @Override
+    protected boolean isReadOnlyHydration() {
+        return true;
+    }
+
+    @Override
+    protected Integer getFetchSize() {
+        return 100;
+    }
+
+    @Override
+    protected Consumer<Contrat> initializeLazyDependencies() {
+        return contrat -> Hibernate.initialize(contrat.getFactures());
+    }
+}
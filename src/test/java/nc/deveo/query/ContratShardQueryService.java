@@ -0,0 +1,35 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.QueryService;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+
+@Service
+public class ContratShardQueryService extends QueryService<Contrat, ContratRepository> {
+
+    public ContratShardQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+
+    /**
+     * H2 sorts the null values first, the strings with a binary collation.
+     */
+    @Override
+    protected Sort.NullHandling getNullOrdering() {
+        return Sort.NullHandling.NULLS_FIRST;
+    }
+
+    @Override
+    protected Comparator<String> getCollation() {
+        return Comparator.naturalOrder();
+    }
+}
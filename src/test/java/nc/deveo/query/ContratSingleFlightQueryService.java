@@ -0,0 +1,33 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.QueryService;
+import nc.deveo.query.service.SingleFlightPolicy;
+import org.hibernate.Hibernate;
+import org.springframework.stereotype.Service;
+
+import java.util.function.Consumer;
+
+@Service
+public class ContratSingleFlightQueryService extends QueryService<Contrat, ContratRepository> {
+
+    public ContratSingleFlightQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+
+    @Override
+    protected Consumer<Contrat> initializeLazyDependencies() {
+        return contrat -> Hibernate.initialize(contrat.getFactures());
+    }
+
+    @Override
+    protected SingleFlightPolicy getSingleFlightPolicy() {
+        return SingleFlightPolicy.builder().build();
+    }
+}
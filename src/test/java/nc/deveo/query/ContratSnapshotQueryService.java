@@ -0,0 +1,47 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.QueryService;
+import org.hibernate.Hibernate;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+@Service
+public class ContratSnapshotQueryService extends QueryService<Contrat, ContratRepository> {
+
+    public ContratSnapshotQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+
+    @Override
+    protected Consumer<Contrat> initializeLazyDependencies() {
+        return contrat -> Hibernate.initialize(contrat.getFactures());
+    }
+
+    @Override
+    protected boolean isInMemorySnapshotEnabled() {
+        return true;
+    }
+
+    /**
+     * H2 sorts the null values first, the strings with a binary collation.
+     */
+    @Override
+    protected Sort.NullHandling getNullOrdering() {
+        return Sort.NullHandling.NULLS_FIRST;
+    }
+
+    @Override
+    protected Comparator<String> getCollation() {
+        return Comparator.naturalOrder();
+    }
+}
@@ -0,0 +1,87 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.QueryCancellation;
+import nc.deveo.query.service.QueryService;
+import org.hibernate.annotations.QueryHints;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Service;
+
+import javax.persistence.TypedQuery;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Service with a timeout, keeping the timeout hint of each content and count query it creates.
+ */
+@Service
+public class ContratTimeoutQueryService extends QueryService<Contrat, ContratRepository> {
+
+    private final List<Object> timeouts = new CopyOnWriteArrayList<>();
+    private volatile QueryCancellation cancelledAfterContent;
+
+    public ContratTimeoutQueryService(ContratRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Contrat> getType() {
+        return Contrat.class;
+    }
+
+    @Override
+    protected Duration getQueryTimeout() {
+        return Duration.ofSeconds(5);
+    }
+
+    @Override
+    protected TypedQuery<Contrat> createQuery(Specification<Contrat> specification) {
+        TypedQuery<Contrat> query = recordTimeout(super.createQuery(specification));
+        QueryCancellation cancellation = cancelledAfterContent;
+        if (cancellation != null) {
+            // annulée entre la requête de contenu et celle de comptage
+            cancellation.cancel();
+        }
+        return query;
+    }
+
+    @Override
+    protected TypedQuery<Long> createCountQuery(Specification<Contrat> specification) {
+        return recordTimeout(super.createCountQuery(specification));
+    }
+
+    /**
+     * The timeout hints of the queries created since the last call, in seconds.
+     */
+    public List<Object> drainTimeouts() {
+        List<Object> drained = List.copyOf(timeouts);
+        timeouts.clear();
+        return drained;
+    }
+
+    public void cancelAfterContent(QueryCancellation cancellation) {
+        this.cancelledAfterContent = cancellation;
+    }
+
+    /**
+     * The timeout hint is set after the creation of the query: the query is wrapped to record it.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> TypedQuery<T> recordTimeout(TypedQuery<T> query) {
+        return (TypedQuery<T>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{TypedQuery.class}, (proxy, method, args) -> {
+            if (method.getName().equals("setHint") && QueryHints.TIMEOUT_HIBERNATE.equals(args[0])) {
+                timeouts.add(args[1]);
+            }
+            try {
+                Object result = method.invoke(query, args);
+                return result == query ? proxy : result;
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        });
+    }
+}
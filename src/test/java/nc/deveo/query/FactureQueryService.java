@@ -0,0 +1,19 @@
+package nc.deveo.query;
+
+import nc.deveo.query.entity.Facture;
+import nc.deveo.query.repository.FactureRepository;
+import nc.deveo.query.service.QueryService;
+import org.springframework.stereotype.Service;
+
+@Service
+public class FactureQueryService extends QueryService<Facture, FactureRepository> {
+
+    public FactureQueryService(FactureRepository repository) {
+        super(repository);
+    }
+
+    @Override
+    protected Class<Facture> getType() {
+        return Facture.class;
+    }
+}
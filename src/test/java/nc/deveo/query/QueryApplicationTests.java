@@ -1,12 +1,60 @@
 package nc.deveo.query;
 
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import nc.deveo.query.cache.QueryCacheConfigurer;
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.entity.Facture;
+import nc.deveo.query.entity.StatutContrat;
+import nc.deveo.query.event.EntityChangeLog;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.repository.FactureRepository;
+import nc.deveo.query.service.ChangeSet;
+import nc.deveo.query.service.ChangeTokenExpiredException;
+import nc.deveo.query.service.EstimatedPage;
+import nc.deveo.query.service.FacetBucket;
+import nc.deveo.query.service.GenericFilter;
+import nc.deveo.query.service.QueryCancellation;
+import nc.deveo.query.service.QueryCancelledException;
+import nc.deveo.query.service.QueryCost;
+import nc.deveo.query.service.QueryCostPolicy;
+import nc.deveo.query.service.QueryOptions;
+import nc.deveo.query.service.QueryRejectedException;
+import nc.deveo.query.warmup.QueryWarmUp;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.cache.jcache.ConfigSettings;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.cache.CacheManager;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 
 @ExtendWith(SpringExtension.class)
 @SpringBootTest(classes = {
@@ -16,9 +64,415 @@ class QueryTests {
     @Autowired
     public ContratQueryService queryService;
 
+    @Autowired
+    public ContratAsyncQueryService asyncQueryService;
+
+    @Autowired
+    public ContratSingleFlightQueryService singleFlightQueryService;
+
+    @Autowired
+    public ContratReadOnlyQueryService readOnlyQueryService;
+
+    @Autowired
+    public ContratChangeQueryService changeQueryService;
+
+    @Autowired
+    public ContratLimitedQueryService limitedQueryService;
+
+    @Autowired
+    public ContratCostQueryService costQueryService;
+
+    @Autowired
+    public ContratTimeoutQueryService timeoutQueryService;
+
+    @Autowired
+    public FactureQueryService factureQueryService;
+
+    @Autowired
+    public FactureRepository factureRepository;
+
+    @Autowired
+    public ContratRepository repository;
+
+    @Autowired
+    public QueryWarmUp queryWarmUp;
+
+    @Autowired
+    public PlatformTransactionManager transactionManager;
+
+    @Autowired
+    public EntityChangeLog entityChangeLog;
+
+    @PersistenceContext
+    public EntityManager entityManager;
+
     @Test
     void contextLoads() {
         assertThat(true);
     }
 
+    @Test
+    void warmUp() {
+        assertThat(queryWarmUp.getDurations()).containsKeys("contratQueryService", "contratIndexQueryService", "contratSnapshotQueryService");
+    }
+
+    @Test
+    void estimateCost() {
+        QueryCost cost = queryService.estimateCost(
+                queryService.parseFilters(Map.of("factures.libelle/nom|containsIn", "jean,paul", "id|in", "1,2,3")),
+                PageRequest.of(3, 1000));
+
+        assertThat(cost.getPluralJoins()).isEqualTo(1);
+        assertThat(cost.getOrBranches()).isEqualTo(1);
+        assertThat(cost.getLeadingWildcards()).isEqualTo(2);
+        assertThat(cost.getInValues()).isEqualTo(3);
+        assertThat(cost.getOffset()).isEqualTo(3000);
+    }
+
+    @Test
+    void optimizeFilters() {
+        List<GenericFilter<?>> range = queryService.optimizeFilters(queryService.parseFilters(
+                Map.of("id|greaterThan", "5", "id|greaterThanOrEqual", "3", "id|lessThanOrEqual", "9"))).orElseThrow();
+        assertThat(range).hasSize(1);
+        assertThat(range.get(0).getGreaterThan()).isEqualTo(5L);
+        assertThat(range.get(0).getGreaterThanOrEqual()).isNull();
+        assertThat(range.get(0).getLessThanOrEqual()).isEqualTo(9L);
+
+        List<GenericFilter<?>> in = queryService.optimizeFilters(queryService.parseFilters(
+                Map.of("id|in", "1,2,2,3", "id|notIn", "3"))).orElseThrow();
+        assertThat(in).hasSize(1);
+        assertThat(in.get(0).getIn()).isEqualTo(List.of(1L, 2L));
+
+        assertThat(queryService.optimizeFilters(queryService.parseFilters(Map.of("id", "1", "id|notEquals", "1")))).isEmpty();
+        assertThat(queryService.optimizeFilters(queryService.parseFilters(Map.of("id|greaterThan", "5", "id|lessThan", "5")))).isEmpty();
+        assertThat(queryService.optimizeFilters(queryService.parseFilters(Map.of("montant|specified", "false", "montant|greaterThan", "0")))).isEmpty();
+
+        // égalité sur une chaîne insensible à la casse : pas de fusion
+        assertThat(queryService.optimizeFilters(queryService.parseFilters(Map.of("nom", "olive", "nom|notEquals", "OLIVE"))).orElseThrow()).hasSize(2);
+    }
+
+    @Test
+    void writeJson() throws IOException {
+        Contrat contrat = new Contrat();
+        contrat.setId(200L);
+        contrat.setNom("GRAND");
+        Facture facture = new Facture();
+        facture.setId(200L);
+        facture.setLibelle("LOYER");
+        facture.setContrat(contrat);
+        contrat.setFactures(List.of(facture));
+        repository.save(contrat);
+
+        // Liste initialisée par initializeLazyDependencies : écrite, sans la référence vers le contrat
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        asyncQueryService.writeJson(asyncQueryService.findByCriteria(Map.of("id", "200"), Pageable.unpaged()),
+                List.of("nom", "factures"), output);
+        assertThat(output.toString(StandardCharsets.UTF_8)).isEqualTo("{\"content\":[{\"nom\":\"GRAND\",\"factures\":[{\"id\":200,\"libelle\":\"LOYER\"}]}],"
+                + "\"totalElements\":1,\"totalPages\":1,\"size\":1,\"number\":0,\"numberOfElements\":1,\"first\":true,\"last\":true,\"empty\":false}");
+
+        // même projection, dans un autre ordre et avec un doublon
+        ByteArrayOutputStream reordered = new ByteArrayOutputStream();
+        asyncQueryService.writeJson(asyncQueryService.findByCriteria(Map.of("id", "200"), Pageable.unpaged()),
+                List.of("factures", "nom", "factures"), reordered);
+        assertThat(reordered.toString(StandardCharsets.UTF_8)).isEqualTo(output.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void singleFlight() {
+        Contrat contrat = new Contrat();
+        contrat.setId(201L);
+        contrat.setNom("PARTAGE");
+        Facture facture = new Facture();
+        facture.setId(201L);
+        facture.setLibelle("EAU");
+        facture.setContrat(contrat);
+        contrat.setFactures(List.of(facture));
+        repository.save(contrat);
+
+        // Le résultat partagé est chargé dans sa propre transaction : détaché de la session de l'appelant
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            List<Contrat> contrats = singleFlightQueryService.findByCriteria(Map.of("nom", "PARTAGE"), Pageable.unpaged()).getContent();
+            assertThat(contrats).hasSize(1);
+            assertThat(entityManager.contains(contrats.get(0))).isFalse();
+            assertThat(Hibernate.isInitialized(contrats.get(0).getFactures())).isTrue();
+        });
+    }
+
+    @Test
+    void readOnlyHydration() {
+        Contrat contrat = new Contrat();
+        contrat.setId(202L);
+        contrat.setNom("LECTURE");
+        Facture facture = new Facture();
+        facture.setId(202L);
+        facture.setLibelle("ELECTRICITE");
+        facture.setContrat(contrat);
+        contrat.setFactures(List.of(facture));
+        repository.save(contrat);
+
+        // Même dans une transaction en écriture, les entités et les associations initialisées
+        // sont chargées sans copie pour le dirty checking
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            Session session = entityManager.unwrap(Session.class);
+            Contrat loaded = readOnlyQueryService.findByCriteria(Map.of("nom", "LECTURE"), Pageable.unpaged()).getContent().get(0);
+            assertThat(session.isReadOnly(loaded)).isTrue();
+            assertThat(loaded.getFactures()).hasSize(1).allMatch(session::isReadOnly);
+            assertThat(session.isDefaultReadOnly()).isFalse();
+            session.clear();
+
+            loaded = readOnlyQueryService.findByCriteria(Map.of("id", "202"), Pageable.unpaged()).getContent().get(0);
+            assertThat(session.isReadOnly(loaded)).isTrue();
+            assertThat(loaded.getFactures()).hasSize(1).allMatch(session::isReadOnly);
+            assertThat(session.isDefaultReadOnly()).isFalse();
+            loaded.setNom("MODIFIE");
+            loaded.getFactures().get(0).setLibelle("MODIFIE");
+        });
+        assertThat(repository.findById(202L)).get().extracting(Contrat::getNom).isEqualTo("LECTURE");
+        assertThat(factureRepository.findById(202L)).get().extracting(Facture::getLibelle).isEqualTo("ELECTRICITE");
+    }
+
+    @Test
+    void concurrencyLimit() {
+        Map<String, String> params = Map.of("nom|startsWith", "o");
+        assertThat(limitedQueryService.findByCriteria(params, Pageable.unpaged()).getContent())
+                .extracting(Contrat::getId)
+                .containsExactlyElementsOf(queryService.findByCriteria(params, Pageable.unpaged()).getContent().stream().map(Contrat::getId).toList());
+        assertThat(limitedQueryService.countByCriteria(params, QueryOptions.DEFAULT)).isEqualTo(queryService.countByCriteria(params, QueryOptions.DEFAULT));
+    }
+
+    @Test
+    void concurrencyLimitOnAllQueries() throws InterruptedException {
+        Contrat contrat = new Contrat();
+        contrat.setId(206L);
+        contrat.setNom("LIMITE");
+        repository.save(contrat);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        limitedQueryService.holdNextQuery(started, release);
+        CompletableFuture<Void> held = CompletableFuture.runAsync(() -> limitedQueryService.findByCriteria(Map.of("nom", "LIMITE"), Pageable.unpaged()));
+        try {
+            assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+            // la seule place est prise : toutes les requêtes SQL sont refusées
+            assertThatThrownBy(() -> limitedQueryService.findFacets(Map.of(), List.of("statut"), 10)).isInstanceOf(QueryRejectedException.class);
+            assertThatThrownBy(() -> limitedQueryService.suggest("nom", "o", 10)).isInstanceOf(QueryRejectedException.class);
+            assertThatThrownBy(() -> limitedQueryService.openScroll(Map.of(), PageRequest.of(0, 10), QueryOptions.DEFAULT)).isInstanceOf(QueryRejectedException.class);
+            assertThatThrownBy(() -> limitedQueryService.subscribe(Map.of("nom", "OLIVE"), List.of())).isInstanceOf(QueryRejectedException.class);
+        } finally {
+            release.countDown();
+            held.join();
+        }
+        assertThat(limitedQueryService.findFacets(Map.of("nom", "LIMITE"), List.of("nom"), 10).get("nom")).hasSize(1);
+    }
+
+    @Test
+    void expensiveQueryQueue() throws InterruptedException {
+        Contrat contrat = new Contrat();
+        contrat.setId(207L);
+        contrat.setNom("COUTEUX");
+        repository.save(contrat);
+        Map<String, String> expensive = Map.of("nom|contains", "OUTEU");
+
+        costQueryService.setAction(QueryCostPolicy.Action.QUEUE);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            costQueryService.holdNextQuery(started, release);
+            CompletableFuture<Page<Contrat>> held = CompletableFuture.supplyAsync(() -> costQueryService.findByCriteria(expensive, PageRequest.of(0, 10)));
+            assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+            // la seule place des requêtes coûteuses est prise : refusée après l'attente, les autres passent
+            assertThatThrownBy(() -> costQueryService.findByCriteria(expensive, PageRequest.of(0, 10)))
+                    .isInstanceOf(QueryRejectedException.class);
+            assertThat(costQueryService.findByCriteria(Map.of("nom", "COUTEUX"), PageRequest.of(0, 10)).getTotalElements()).isEqualTo(1);
+
+            release.countDown();
+            assertThat(held.join().getTotalElements()).isEqualTo(1);
+            // exécutée avec son comptage
+            Page<Contrat> page = costQueryService.findByCriteria(expensive, PageRequest.of(0, 10));
+            assertThat(page).isNotInstanceOf(EstimatedPage.class);
+            assertThat(page.getContent()).extracting(Contrat::getId).containsExactly(207L);
+        } finally {
+            release.countDown();
+            costQueryService.setAction(QueryCostPolicy.Action.REJECT);
+        }
+    }
+
+    @Test
+    void cancellation() {
+        Map<String, String> params = Map.of("nom|startsWith", "o");
+        double cancellations = cancellationCount();
+
+        // annulée avant l'exécution
+        QueryCancellation cancellation = new QueryCancellation();
+        cancellation.cancel();
+        assertThatThrownBy(() -> timeoutQueryService.findByCriteria(params, PageRequest.of(0, 10),
+                QueryOptions.builder().cancellation(cancellation).build()))
+                .isInstanceOf(QueryCancelledException.class);
+        assertThat(cancellationCount()).isEqualTo(cancellations + 1);
+
+        // annulée entre la requête de contenu et celle de comptage, nécessaire au-delà de la première page
+        QueryCancellation countCancellation = new QueryCancellation();
+        timeoutQueryService.cancelAfterContent(countCancellation);
+        try {
+            assertThatThrownBy(() -> timeoutQueryService.findByCriteria(params, PageRequest.of(5, 1),
+                    QueryOptions.builder().cancellation(countCancellation).build()))
+                    .isInstanceOf(QueryCancelledException.class);
+        } finally {
+            timeoutQueryService.cancelAfterContent(null);
+        }
+        assertThat(cancellationCount()).isEqualTo(cancellations + 2);
+    }
+
+    private static double cancellationCount() {
+        Counter counter = Metrics.globalRegistry.find("query.cancellations").tag("entity", "Contrat").counter();
+        return counter != null ? counter.count() : 0;
+    }
+
+    @Test
+    void facetsWithNullAssociation() {
+        Contrat contrat = new Contrat();
+        contrat.setId(300L);
+        contrat.setNom("FACETTE");
+        Facture first = new Facture();
+        first.setId(300L);
+        first.setLibelle("EAU");
+        first.setContrat(contrat);
+        Facture second = new Facture();
+        second.setId(301L);
+        second.setLibelle("GAZ");
+        second.setContrat(contrat);
+        contrat.setFactures(List.of(first, second));
+        repository.save(contrat);
+        Facture orphan = new Facture();
+        orphan.setId(302L);
+        orphan.setLibelle("EAU");
+        factureRepository.save(orphan);
+
+        // Chaque facette est groupée séparément, la facture sans contrat est comptée dans la valeur nulle
+        Map<String, List<FacetBucket>> facets = factureQueryService.findFacets(Map.of("id|in", "300,301,302"),
+                List.of("contrat.nom", "libelle", "contrat.id"), 10);
+        assertThat(facets.get("contrat.nom")).extracting(FacetBucket::getValue, FacetBucket::getCount)
+                .containsExactly(tuple("FACETTE", 2L), tuple(null, 1L));
+        assertThat(facets.get("libelle")).extracting(FacetBucket::getValue, FacetBucket::getCount)
+                .containsExactly(tuple("EAU", 2L), tuple("GAZ", 1L));
+        assertThat(facets.get("contrat.id")).extracting(FacetBucket::getValue, FacetBucket::getCount)
+                .containsExactly(tuple(300L, 2L), tuple(null, 1L));
+    }
+
+    @Test
+    void queryCacheRegions() {
+        CacheManager cacheManager = (CacheManager) entityManager.getEntityManagerFactory().getProperties().get(ConfigSettings.CACHE_MANAGER);
+        // résultats des requêtes bornés par l'annotation du service, horodatages sans expiration
+        CaffeineConfiguration<?, ?> queryResults = cacheManager.getCache(QueryCacheConfigurer.QUERY_RESULTS_REGION).getConfiguration(CaffeineConfiguration.class);
+        assertThat(queryResults.getMaximumSize()).hasValue(1000);
+        assertThat(queryResults.getExpireAfterWrite()).hasValue(Duration.ofMinutes(5).toNanos());
+        CaffeineConfiguration<?, ?> updateTimestamps = cacheManager.getCache(QueryCacheConfigurer.UPDATE_TIMESTAMPS_REGION).getConfiguration(CaffeineConfiguration.class);
+        assertThat(updateTimestamps.getMaximumSize()).isEmpty();
+        assertThat(updateTimestamps.getExpireAfterWrite()).isEmpty();
+    }
+
+    @Test
+    void changesSince() {
+        entityChangeLog.flush();
+        String token = changeQueryService.findChanges(Map.of(), "", Sort.unsorted(), QueryOptions.DEFAULT).getToken();
+
+        Contrat actif = new Contrat();
+        actif.setId(203L);
+        actif.setNom("SYNCHRO");
+        actif.setStatut(StatutContrat.ACTIF);
+        repository.save(actif);
+        Contrat resilie = new Contrat();
+        resilie.setId(204L);
+        resilie.setNom("SYNCHRO");
+        resilie.setStatut(StatutContrat.RESILIE);
+        repository.save(resilie);
+        entityChangeLog.flush();
+
+        ChangeSet<Contrat> changes = changeQueryService.findChanges(Map.of("statut", "ACTIF", "since", token), token, Sort.unsorted(), QueryOptions.DEFAULT);
+        assertThat(changes.getContent()).extracting(Contrat::getId).containsExactly(203L);
+        assertThat(changes.getRemovedIds()).containsExactly(204L);
+        assertThat(Long.parseLong(changes.getToken())).isGreaterThan(Long.parseLong(token));
+
+        // sorti du résultat puis supprimé : seul l'identifiant est renvoyé
+        actif.setStatut(StatutContrat.RESILIE);
+        repository.save(actif);
+        repository.deleteById(204L);
+        entityChangeLog.flush();
+        ChangeSet<Contrat> next = changeQueryService.findChanges(Map.of("statut", "ACTIF"), changes.getToken(), Sort.unsorted(), QueryOptions.DEFAULT);
+        assertThat(next.getContent()).isEmpty();
+        assertThat(next.getRemovedIds()).containsExactlyInAnyOrder(203L, 204L);
+
+        assertThat(changeQueryService.findChanges(Map.of(), next.getToken(), Sort.unsorted(), QueryOptions.DEFAULT).getContent()).isEmpty();
+        assertThatThrownBy(() -> changeQueryService.findChanges(Map.of(), "999999999", Sort.unsorted(), QueryOptions.DEFAULT))
+                .isInstanceOf(ChangeTokenExpiredException.class);
+    }
+
+    @Test
+    void eTagOfDistinctRequests() {
+        Pageable page = PageRequest.of(0, 20, Sort.by("nom"));
+        assertThat(queryService.computeETag(Map.of("nom", "OLIVE"), page)).isNull();
+        assertThat(changeQueryService.computeETag(Map.of("nom", "OLIVE"), page))
+                .isEqualTo(changeQueryService.computeETag(Map.of("nom", "OLIVE"), PageRequest.of(0, 20, Sort.by("nom"))));
+        // mêmes chaînes une fois concaténées
+        assertThat(changeQueryService.computeETag(Map.of("nom", "A, statut=ACTIF"), page))
+                .isNotEqualTo(changeQueryService.computeETag(Map.of("nom", "A", "statut", "ACTIF"), page));
+        assertThat(changeQueryService.computeETag(Map.of("nom", "A|0"), PageRequest.of(1, 20)))
+                .isNotEqualTo(changeQueryService.computeETag(Map.of("nom", "A"), PageRequest.of(0, 20)));
+    }
+
+    @Test
+    void changesDroppedExpireTokens() {
+        entityChangeLog.flush();
+        String token = changeQueryService.findChanges(Map.of(), "", Sort.unsorted(), QueryOptions.DEFAULT).getToken();
+        int maxPending = entityChangeLog.getMaxPending();
+        try {
+            entityChangeLog.setMaxPending(1);
+            List<Contrat> contrats = new ArrayList<>();
+            for (long id = 209; id <= 212; id++) {
+                Contrat contrat = new Contrat();
+                contrat.setId(id);
+                contrat.setNom("PERDU");
+                contrats.add(contrat);
+            }
+            repository.saveAll(contrats);
+        } finally {
+            entityChangeLog.setMaxPending(maxPending);
+        }
+        entityChangeLog.flush();
+
+        // changements perdus : les jetons précédents expirent, le client recharge son résultat
+        assertThatThrownBy(() -> changeQueryService.findChanges(Map.of(), token, Sort.unsorted(), QueryOptions.DEFAULT))
+                .isInstanceOf(ChangeTokenExpiredException.class);
+        String next = changeQueryService.findChanges(Map.of(), "", Sort.unsorted(), QueryOptions.DEFAULT).getToken();
+        repository.deleteById(209L);
+        entityChangeLog.flush();
+        assertThat(changeQueryService.findChanges(Map.of(), next, Sort.unsorted(), QueryOptions.DEFAULT).getRemovedIds()).containsExactly(209L);
+    }
+
+    @Test
+    void changesUpToSafeHorizon() {
+        entityChangeLog.flush();
+        String token = changeQueryService.findChanges(Map.of(), "", Sort.unsorted(), QueryOptions.DEFAULT).getToken();
+        Duration settleDelay = entityChangeLog.getSettleDelay();
+        try {
+            entityChangeLog.setSettleDelay(Duration.ofHours(1));
+            Contrat contrat = new Contrat();
+            contrat.setId(205L);
+            contrat.setNom("HORIZON");
+            repository.save(contrat);
+            entityChangeLog.flush();
+
+            // écrit depuis moins que le délai : une séquence plus petite d'une autre instance pourrait encore être commitée
+            ChangeSet<Contrat> changes = changeQueryService.findChanges(Map.of(), token, Sort.unsorted(), QueryOptions.DEFAULT);
+            assertThat(changes.getContent()).isEmpty();
+            assertThat(changes.getToken()).isEqualTo(token);
+            assertThat(Long.parseLong(changeQueryService.findChanges(Map.of(), "", Sort.unsorted(), QueryOptions.DEFAULT).getToken()))
+                    .isLessThanOrEqualTo(Long.parseLong(token));
+
+            entityChangeLog.setSettleDelay(Duration.ZERO);
+            changes = changeQueryService.findChanges(Map.of(), token, Sort.unsorted(), QueryOptions.DEFAULT);
+            assertThat(changes.getContent()).extracting(Contrat::getId).containsExactly(205L);
+        } finally {
+            entityChangeLog.setSettleDelay(settleDelay);
+        }
+    }
 }
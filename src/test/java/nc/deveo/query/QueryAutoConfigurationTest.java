@@ -0,0 +1,42 @@
+package nc.deveo.query;
+
+import nc.deveo.query.autoconfigure.QueryAutoConfiguration;
+import nc.deveo.query.event.EntityChangeLog;
+import nc.deveo.query.event.EntityChangePublisher;
+import nc.deveo.query.warmup.QueryWarmUp;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryAutoConfigurationTest {
+
+    // conversions de SpringApplication, pour les Duration des propriétés
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withInitializer(context -> context.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance()))
+            .withConfiguration(AutoConfigurations.of(DataSourceAutoConfiguration.class, JdbcTemplateAutoConfiguration.class,
+                    HibernateJpaAutoConfiguration.class, TransactionAutoConfiguration.class, QueryAutoConfiguration.class));
+
+    @Test
+    void componentsWithoutScan() {
+        // application hors du package nc.deveo.query
+        contextRunner.run(context -> {
+            assertThat(context).hasSingleBean(EntityChangePublisher.class);
+            assertThat(context).hasSingleBean(EntityChangeLog.class);
+            assertThat(context).hasSingleBean(QueryWarmUp.class);
+        });
+    }
+
+    @Test
+    void componentsOnceWithScan() {
+        contextRunner.withUserConfiguration(QueryApplication.class)
+                .withPropertyValues("spring.liquibase.enabled=false", "spring.datasource.url=jdbc:h2:mem:autoconfigure")
+                .run(context -> assertThat(context).hasSingleBean(EntityChangePublisher.class));
+    }
+}
@@ -0,0 +1,80 @@
+package nc.deveo.query;
+
+import nc.deveo.query.datasource.ReplicaPool;
+import nc.deveo.query.datasource.ReplicaRoutingDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplicaRoutingDataSourceTest {
+
+    private ReplicaRoutingDataSource routingDataSource;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readOnlyTransaction;
+    private TransactionTemplate readWriteTransaction;
+
+    @BeforeEach
+    void setup() {
+        DataSource primary = h2("primary");
+        DataSource replica = h2("replica");
+        routingDataSource = new ReplicaRoutingDataSource(primary, List.of(new ReplicaPool("replica", replica)));
+        routingDataSource.setHealthCheckInterval(null);
+        routingDataSource.setMaxLag(Duration.ofSeconds(1));
+        routingDataSource.afterPropertiesSet();
+
+        DataSource dataSource = routingDataSource.lazy();
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        readWriteTransaction = new TransactionTemplate(transactionManager);
+    }
+
+    @AfterEach
+    void tearDown() {
+        routingDataSource.destroy();
+    }
+
+    @Test
+    void readOnlyTransactionsGoToReplica() {
+        String readOnlyNode = readOnlyTransaction.execute(status -> currentNode());
+        String readWriteNode = readWriteTransaction.execute(status -> currentNode());
+
+        assertThat(readOnlyNode).isEqualTo("replica");
+        assertThat(readWriteNode).isEqualTo("primary");
+        assertThat(currentNode()).isEqualTo("primary");
+    }
+
+    @Test
+    void laggingReplicaFallsBackToPrimary() {
+        routingDataSource.setLagProbe(connection -> Duration.ofMinutes(1));
+        routingDataSource.checkReplicas();
+
+        String readOnlyNode = readOnlyTransaction.execute(status -> currentNode());
+
+        assertThat(readOnlyNode).isEqualTo("primary");
+    }
+
+    private String currentNode() {
+        return jdbcTemplate.queryForObject("SELECT name FROM node", String.class);
+    }
+
+    private static DataSource h2(String name) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        template.execute("CREATE TABLE IF NOT EXISTS node (name VARCHAR(20))");
+        template.execute("DELETE FROM node");
+        template.update("INSERT INTO node VALUES (?)", name);
+        return dataSource;
+    }
+}
@@ -0,0 +1,152 @@
+package nc.deveo.query;
+
+import liquibase.integration.spring.SpringLiquibase;
+import nc.deveo.query.datasource.ShardRoutingDataSource;
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.service.ShardedQueryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(classes = {
+        QueryApplication.class, ShardedQueryServiceTest.ShardConfiguration.class},
+        properties = {"spring.liquibase.enabled=true", "spring.jpa.hibernate.ddl-auto=none"})
+class ShardedQueryServiceTest {
+
+    private static final DataSource NORD = h2("shard-nord");
+    private static final DataSource SUD = h2("shard-sud");
+
+    @TestConfiguration
+    static class ShardConfiguration {
+
+        @Bean
+        @Primary
+        public ShardRoutingDataSource shardRoutingDataSource() {
+            Map<String, DataSource> shards = new LinkedHashMap<>();
+            shards.put("nord", NORD);
+            shards.put("sud", SUD);
+            return new ShardRoutingDataSource(shards);
+        }
+
+        @Bean
+        public SpringLiquibase liquibaseNord() {
+            return liquibase(NORD);
+        }
+
+        @Bean
+        public SpringLiquibase liquibaseSud() {
+            return liquibase(SUD);
+        }
+
+        @Bean(destroyMethod = "shutdown")
+        public ExecutorService shardExecutor() {
+            return Executors.newFixedThreadPool(2);
+        }
+
+        @Bean
+        public ShardedQueryService<Contrat> shardedContratQueryService(ContratShardQueryService delegate, ShardRoutingDataSource dataSource,
+                                                                       PlatformTransactionManager transactionManager, ExecutorService shardExecutor) {
+            return new ShardedQueryService<>(delegate, dataSource, transactionManager, shardExecutor);
+        }
+
+        private static SpringLiquibase liquibase(DataSource dataSource) {
+            SpringLiquibase liquibase = new SpringLiquibase();
+            liquibase.setDataSource(dataSource);
+            liquibase.setChangeLog("classpath:config/liquibase/changelog-master.xml");
+            liquibase.setContexts("test");
+            return liquibase;
+        }
+    }
+
+    @Autowired
+    public ShardedQueryService<Contrat> shardedQueryService;
+
+    @Autowired
+    public ContratQueryService plainQueryService;
+
+    @Autowired
+    public ShardRoutingDataSource shardRoutingDataSource;
+
+    @Autowired
+    public PlatformTransactionManager transactionManager;
+
+    @Autowired
+    public ExecutorService shardExecutor;
+
+    @BeforeEach
+    void setup() {
+        insert(NORD, 1, "ALBERT", 100);
+        insert(NORD, 3, "CLAUDE", 300);
+        insert(NORD, 5, "EMILE", 500);
+        insert(SUD, 2, "BERNARD", 200);
+        insert(SUD, 4, "DENIS", 400);
+        insert(SUD, 6, "FELIX", 600);
+    }
+
+    @Test
+    void mergeSortedPages() {
+        Page<Contrat> page = shardedQueryService.findByCriteria(Map.of(), PageRequest.of(1, 2, Sort.by("nom")));
+        assertThat(page.getContent()).extracting(Contrat::getNom).containsExactly("CLAUDE", "DENIS");
+        assertThat(page.getTotalElements()).isEqualTo(6);
+
+        page = shardedQueryService.findByCriteria(Map.of(), PageRequest.of(0, 4, Sort.by(Sort.Direction.DESC, "montant")));
+        assertThat(page.getContent()).extracting(Contrat::getNom).containsExactly("FELIX", "EMILE", "DENIS", "CLAUDE");
+    }
+
+    @Test
+    void rejectSortsWithoutDatabaseSemantics() {
+        // service sans ordre des valeurs nulles ni collation déclarés
+        ShardedQueryService<Contrat> plain = new ShardedQueryService<>(plainQueryService, shardRoutingDataSource, transactionManager, shardExecutor);
+
+        assertThat(plain.findByCriteria(Map.of(), PageRequest.of(0, 2, Sort.by("id"))).getContent())
+                .extracting(Contrat::getId).containsExactly(1L, 2L);
+        assertThatThrownBy(() -> plain.findByCriteria(Map.of(), PageRequest.of(0, 2, Sort.by("nom"))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> plain.findByCriteria(Map.of(), PageRequest.of(0, 2, Sort.by(Sort.Direction.DESC, "montant"))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void filterAndCountOnAllShards() {
+        Map<String, String> params = Map.of("montant|greaterThan", "150");
+        Page<Contrat> page = shardedQueryService.findByCriteria(params, Pageable.unpaged());
+
+        // sans tri : par id
+        assertThat(page.getContent()).extracting(Contrat::getId).containsExactly(2L, 3L, 4L, 5L, 6L);
+        assertThat(page.getTotalElements()).isEqualTo(5);
+        assertThat(shardedQueryService.countByCriteria(params)).isEqualTo(5);
+    }
+
+    private static void insert(DataSource shard, long id, String nom, double montant) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(shard);
+        jdbcTemplate.update("DELETE FROM contrat WHERE id = ?", id);
+        jdbcTemplate.update("INSERT INTO contrat (id, nom, montant) VALUES (?, ?, ?)", id, nom, montant);
+    }
+
+    private static DataSource h2(String name) {
+        return new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+    }
+}
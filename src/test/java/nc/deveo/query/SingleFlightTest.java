@@ -0,0 +1,124 @@
+package nc.deveo.query;
+
+import nc.deveo.query.service.SingleFlight;
+import nc.deveo.query.service.SingleFlightPolicy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, List<String>> singleFlight = new SingleFlight<>();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task);
+        threads.add(thread);
+        return thread;
+    });
+    private final AtomicInteger executions = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void coalesceIdenticalCalls() throws Exception {
+        List<Future<List<String>>> results = callConcurrently(SingleFlightPolicy.builder().build());
+
+        assertThat(executions).hasValue(1);
+        for (Future<List<String>> result : results) {
+            assertThat(result.get()).isSameAs(results.get(0).get());
+        }
+        // aucun résultat n'est conservé
+        assertThat(singleFlight.size()).isZero();
+        singleFlight.execute("contrats", SingleFlightPolicy.builder().build(), this::execute);
+        assertThat(executions).hasValue(2);
+    }
+
+    @Test
+    void executeBeyondMaxWaiters() throws Exception {
+        List<Future<List<String>>> results = callConcurrently(SingleFlightPolicy.builder().maxWaiters(0).build());
+
+        for (Future<List<String>> result : results) {
+            assertThat(result.get()).containsExactly("OLIVE");
+        }
+        assertThat(executions).hasValue(results.size());
+    }
+
+    @Test
+    void executeAfterMaxWait() throws Exception {
+        List<Future<List<String>>> results = callConcurrently(SingleFlightPolicy.builder().maxWait(Duration.ZERO).build());
+
+        for (Future<List<String>> result : results) {
+            assertThat(result.get()).containsExactly("OLIVE");
+        }
+        assertThat(executions).hasValue(results.size());
+    }
+
+    @Test
+    void shareFailure() throws Exception {
+        Future<List<String>> leader = executor.submit(() -> singleFlight.execute("contrats", SingleFlightPolicy.builder().build(), () -> {
+            await();
+            throw new IllegalStateException("Base indisponible");
+        }));
+        awaitFlight();
+        Future<List<String>> follower = executor.submit(() -> singleFlight.execute("contrats", SingleFlightPolicy.builder().build(), this::execute));
+        awaitWaiting(1);
+        release.countDown();
+
+        assertThatThrownBy(leader::get).hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(follower::get).hasCauseInstanceOf(IllegalStateException.class);
+        assertThat(executions).hasValue(0);
+    }
+
+    private List<Future<List<String>>> callConcurrently(SingleFlightPolicy policy) throws InterruptedException {
+        List<Future<List<String>>> results = new ArrayList<>();
+        results.add(executor.submit(() -> singleFlight.execute("contrats", policy, this::execute)));
+        awaitFlight();
+        for (int i = 0; i < 4; i++) {
+            results.add(executor.submit(() -> singleFlight.execute("contrats", policy, this::execute)));
+        }
+        // les appels qui n'attendent pas sont bloqués comme le premier
+        awaitWaiting(4);
+        release.countDown();
+        return results;
+    }
+
+    private List<String> execute() {
+        executions.incrementAndGet();
+        await();
+        return List.of("OLIVE");
+    }
+
+    private void await() {
+        try {
+            release.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitFlight() throws InterruptedException {
+        while (singleFlight.size() == 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitWaiting(int count) throws InterruptedException {
+        while (threads.stream()
+                .filter(thread -> thread.getState() == Thread.State.WAITING || thread.getState() == Thread.State.TIMED_WAITING)
+                .count() < count + 1) {
+            Thread.sleep(1);
+        }
+    }
+}
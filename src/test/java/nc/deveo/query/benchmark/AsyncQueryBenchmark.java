@@ -0,0 +1,173 @@
+package nc.deveo.query.benchmark;
+
+import nc.deveo.query.QueryApplication;
+import nc.deveo.query.controller.QueryController;
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.AsyncQueryPolicy;
+import nc.deveo.query.service.QueryService;
+import org.hibernate.Hibernate;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Throughput of the blocking ({@link QueryController#query}) and asynchronous ({@link QueryController#queryAsync})
+ * endpoints with {@link #CLIENTS} concurrent clients and {@link #TOMCAT_THREADS} servlet threads.
+ * Each request holds its connection {@link #LATENCY_MS} ms, as a slow database round trip: the blocking endpoint
+ * is capped by the servlet threads, the asynchronous one by the executor of the service.
+ * <p>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) nc.deveo.query.benchmark.AsyncQueryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Threads(AsyncQueryBenchmark.CLIENTS)
+@Fork(1)
+public class AsyncQueryBenchmark {
+
+    static final int CLIENTS = 128;
+
+    private static final int TOMCAT_THREADS = 16;
+
+    private static final int EXECUTOR_THREADS = 64;
+
+    private static final long LATENCY_MS = 200;
+
+    private ConfigurableApplicationContext context;
+
+    private HttpClient client;
+
+    private HttpRequest blockingRequest;
+
+    private HttpRequest asyncRequest;
+
+    public static class BenchmarkQueryService extends QueryService<Contrat, ContratRepository> {
+
+        public BenchmarkQueryService(ContratRepository repository) {
+            super(repository);
+        }
+
+        @Override
+        protected Class<Contrat> getType() {
+            return Contrat.class;
+        }
+
+        @Override
+        protected Consumer<Contrat> initializeLazyDependencies() {
+            return contrat -> {
+                Hibernate.initialize(contrat.getFactures());
+                try {
+                    Thread.sleep(LATENCY_MS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+        }
+
+        @Override
+        protected AsyncQueryPolicy getAsyncQueryPolicy() {
+            return AsyncQueryPolicy.builder().maxThreads(EXECUTOR_THREADS).maxQueue(CLIENTS).build();
+        }
+    }
+
+    /**
+     * Not a @RestController: the benchmark package is scanned by the tests.
+     */
+    @RequestMapping("/bench")
+    @ResponseBody
+    public static class BenchmarkController implements QueryController<Contrat, BenchmarkQueryService> {
+
+        private final BenchmarkQueryService service;
+
+        public BenchmarkController(BenchmarkQueryService service) {
+            this.service = service;
+        }
+
+        @Override
+        public BenchmarkQueryService getQueryService() {
+            return service;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(QueryApplication.class)
+                .properties("spring.liquibase.enabled=true", "logging.level.root=warn", "server.port=0",
+                        "server.tomcat.threads.max=" + TOMCAT_THREADS,
+                        "spring.datasource.hikari.maximum-pool-size=" + EXECUTOR_THREADS)
+                .initializers(applicationContext -> {
+                    GenericApplicationContext genericContext = (GenericApplicationContext) applicationContext;
+                    genericContext.registerBean(BenchmarkQueryService.class);
+                    genericContext.registerBean(BenchmarkController.class);
+                })
+                .run();
+
+        List<Contrat> contrats = new ArrayList<>();
+        for (long id = 1; id <= 10; id++) {
+            Contrat contrat = new Contrat();
+            contrat.setId(id);
+            contrat.setNom("CONTRAT " + id);
+            contrats.add(contrat);
+        }
+        context.getBean(ContratRepository.class).saveAll(contrats);
+
+        int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        String query = "?nom%7CstartsWith=contrat%201&size=1&sort=id";
+        blockingRequest = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/bench/query" + query))
+                .timeout(Duration.ofSeconds(30)).build();
+        asyncRequest = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/bench/query/async" + query))
+                .timeout(Duration.ofSeconds(30)).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int blocking() throws IOException, InterruptedException {
+        return send(blockingRequest);
+    }
+
+    @Benchmark
+    public int async() throws IOException, InterruptedException {
+        return send(asyncRequest);
+    }
+
+    private int send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Statut " + response.statusCode() + " : " + response.body());
+        }
+        return response.body().length();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AsyncQueryBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
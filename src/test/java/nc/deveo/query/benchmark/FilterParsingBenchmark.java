@@ -0,0 +1,89 @@
+package nc.deveo.query.benchmark;
+
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.GenericFilter;
+import nc.deveo.query.service.QueryService;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse the parameters of typical requests into filters ({@link QueryService#parseFilters(Map)}), without database.
+ * The allocations per request are the "gc.alloc.rate.norm" of the GC profiler.
+ * <p>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) nc.deveo.query.benchmark.FilterParsingBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterParsingBenchmark {
+
+    private QueryService<Contrat, ContratRepository> queryService;
+
+    /**
+     * Number of distinct requests parsed in turn: their keys differ by operator and by free parameter,
+     * beyond 1000 the keys no longer fit in the cache of the resolved keys.
+     */
+    @Param({"16", "4096"})
+    private int distinctRequests;
+
+    private static final String[] NOM_OPERATORS = {"startsWith", "contains", "endsWith", "equals"};
+
+    private static final String[] MONTANT_OPERATORS = {"greaterThan", "greaterThanOrEqual", "lessThan", "lessThanOrEqual"};
+
+    private List<Map<String, String>> requests;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        queryService = new QueryService<>(null) {
+            @Override
+            protected Class<Contrat> getType() {
+                return Contrat.class;
+            }
+        };
+        requests = new ArrayList<>();
+        for (int i = 0; i < distinctRequests; i++) {
+            Map<String, String> params = new LinkedHashMap<>();
+            params.put("nom|" + NOM_OPERATORS[i % NOM_OPERATORS.length], "oli");
+            params.put(i % 2 == 0 ? "statut|in" : "statut|notIn", "ACTIF,SUSPENDU");
+            params.put("montant|" + MONTANT_OPERATORS[(i / 4) % MONTANT_OPERATORS.length], "100");
+            params.put(i % 3 == 0 ? "factures.libelle/nom|contains" : "nom/factures.libelle|contains", "loyer");
+            params.put("signe", "true");
+            // paramètre libre du client, qui ne désigne aucun champ
+            params.put("trace" + i, "1");
+            params.put("page", "0");
+            params.put("size", "20");
+            params.put("sort", "nom,asc");
+            requests.add(params);
+        }
+    }
+
+    @Benchmark
+    public List<GenericFilter<?>> parseFilters() {
+        Map<String, String> params = requests.get(next);
+        next = (next + 1) % requests.size();
+        return queryService.parseFilters(params);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FilterParsingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
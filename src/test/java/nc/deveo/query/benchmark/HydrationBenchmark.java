@@ -0,0 +1,166 @@
+package nc.deveo.query.benchmark;
+
+import nc.deveo.query.QueryApplication;
+import nc.deveo.query.entity.Contrat;
+import nc.deveo.query.entity.Facture;
+import nc.deveo.query.repository.ContratRepository;
+import nc.deveo.query.service.QueryService;
+import org.hibernate.Hibernate;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Load a page of {@link #ROWS} contrats with their factures, managed or read-only
+ * ({@link QueryService#isReadOnlyHydration()}), in a read-write transaction where the read-only flag of the
+ * QueryService transaction does not apply.
+ * The allocation per page is the "gc.alloc.rate.norm" of the GC profiler; the heap retained per row by the
+ * persistence context (entities and dirty checking snapshots) is the "bytesPerRow" counter of {@link #retainedHeap},
+ * measured after a full GC with the page still loaded.
+ * <p>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt
+ * java -cp target/test-classes:target/classes:$(cat target/classpath.txt) nc.deveo.query.benchmark.HydrationBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HydrationBenchmark {
+
+    private static final int ROWS = 1000;
+
+    @Param({"false", "true"})
+    public boolean readOnly;
+
+    private ConfigurableApplicationContext context;
+
+    private HydrationQueryService queryService;
+
+    private TransactionTemplate transactionTemplate;
+
+    public static class HydrationQueryService extends QueryService<Contrat, ContratRepository> {
+
+        private boolean readOnly;
+
+        public HydrationQueryService(ContratRepository repository) {
+            super(repository);
+        }
+
+        @Override
+        protected Class<Contrat> getType() {
+            return Contrat.class;
+        }
+
+        @Override
+        protected Consumer<Contrat> initializeLazyDependencies() {
+            return contrat -> Hibernate.initialize(contrat.getFactures());
+        }
+
+        @Override
+        protected boolean isReadOnlyHydration() {
+            return readOnly;
+        }
+
+        @Override
+        protected Integer getFetchSize() {
+            return ROWS;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RetainedHeap {
+
+        public long bytesPerRow;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerRow = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        context = new SpringApplicationBuilder(QueryApplication.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.liquibase.enabled=true", "logging.level.root=warn")
+                .initializers(applicationContext -> ((GenericApplicationContext) applicationContext).registerBean(HydrationQueryService.class))
+                .run();
+        queryService = context.getBean(HydrationQueryService.class);
+        queryService.readOnly = readOnly;
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+        List<Contrat> contrats = new ArrayList<>();
+        for (long id = 1; id <= ROWS; id++) {
+            Contrat contrat = new Contrat();
+            contrat.setId(id);
+            contrat.setNom("CONTRAT " + id);
+            contrat.setMontant((double) id);
+            List<Facture> factures = new ArrayList<>();
+            for (long index = 0; index < 2; index++) {
+                Facture facture = new Facture();
+                facture.setId(id * 2 + index);
+                facture.setLibelle("FACTURE " + index);
+                facture.setContrat(contrat);
+                factures.add(facture);
+            }
+            contrat.setFactures(factures);
+            contrats.add(contrat);
+        }
+        context.getBean(ContratRepository.class).saveAll(contrats);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Contrat> loadPage() {
+        return transactionTemplate.execute(status -> queryService.findByCriteria(Map.of(), PageRequest.of(0, ROWS)).getContent());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public void retainedHeap(RetainedHeap retainedHeap) {
+        transactionTemplate.executeWithoutResult(status -> {
+            long before = usedHeapAfterGc();
+            List<Contrat> contrats = queryService.findByCriteria(Map.of(), PageRequest.of(0, ROWS)).getContent();
+            retainedHeap.bytesPerRow = (usedHeapAfterGc() - before) / ROWS;
+            Reference.reachabilityFence(contrats);
+        });
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HydrationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
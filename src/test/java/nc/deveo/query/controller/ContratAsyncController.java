@@ -0,0 +1,20 @@
+package nc.deveo.query.controller;
+
+import lombok.RequiredArgsConstructor;
+import nc.deveo.query.ContratAsyncQueryService;
+import nc.deveo.query.entity.Contrat;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/async")
+@RequiredArgsConstructor
+public class ContratAsyncController implements QueryController<Contrat, ContratAsyncQueryService> {
+
+    private final ContratAsyncQueryService service;
+
+    @Override
+    public ContratAsyncQueryService getQueryService() {
+        return service;
+    }
+}
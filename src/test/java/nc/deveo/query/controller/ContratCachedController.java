@@ -0,0 +1,20 @@
+package nc.deveo.query.controller;
+
+import lombok.RequiredArgsConstructor;
+import nc.deveo.query.ContratCachedQueryService;
+import nc.deveo.query.entity.Contrat;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/cached")
+@RequiredArgsConstructor
+public class ContratCachedController implements QueryController<Contrat, ContratCachedQueryService> {
+
+    private final ContratCachedQueryService service;
+
+    @Override
+    public ContratCachedQueryService getQueryService() {
+        return service;
+    }
+}
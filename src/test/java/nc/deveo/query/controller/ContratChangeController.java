@@ -0,0 +1,20 @@
+package nc.deveo.query.controller;
+
+import lombok.RequiredArgsConstructor;
+import nc.deveo.query.ContratChangeQueryService;
+import nc.deveo.query.entity.Contrat;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/changes")
+@RequiredArgsConstructor
+public class ContratChangeController implements QueryController<Contrat, ContratChangeQueryService> {
+
+    private final ContratChangeQueryService service;
+
+    @Override
+    public ContratChangeQueryService getQueryService() {
+        return service;
+    }
+}
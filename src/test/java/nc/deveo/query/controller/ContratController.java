@@ -15,10 +15,15 @@ import java.util.Map;
 @RestController
 @RequestMapping("/api")
 @RequiredArgsConstructor
-public class ContratController {
+public class ContratController implements QueryController<Contrat, ContratQueryService> {
 
     private final ContratQueryService service;
 
+    @Override
+    public ContratQueryService getQueryService() {
+        return service;
+    }
+
     @GetMapping("/contrat")
     public Page<Contrat> getContrat(@RequestParam Map<String, String> allParams, final Pageable pageable) {
         return service.findByCriteria(allParams, pageable);
@@ -0,0 +1,20 @@
+package nc.deveo.query.controller;
+
+import lombok.RequiredArgsConstructor;
+import nc.deveo.query.ContratCostQueryService;
+import nc.deveo.query.entity.Contrat;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/cost")
+@RequiredArgsConstructor
+public class ContratCostController implements QueryController<Contrat, ContratCostQueryService> {
+
+    private final ContratCostQueryService service;
+
+    @Override
+    public ContratCostQueryService getQueryService() {
+        return service;
+    }
+}
@@ -0,0 +1,20 @@
+package nc.deveo.query.controller;
+
+import lombok.RequiredArgsConstructor;
+import nc.deveo.query.ContratExplainQueryService;
+import nc.deveo.query.entity.Contrat;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/explain")
+@RequiredArgsConstructor
+public class ContratExplainController implements QueryController<Contrat, ContratExplainQueryService> {
+
+    private final ContratExplainQueryService service;
+
+    @Override
+    public ContratExplainQueryService getQueryService() {
+        return service;
+    }
+}
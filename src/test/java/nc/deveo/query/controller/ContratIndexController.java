@@ -0,0 +1,20 @@
+package nc.deveo.query.controller;
+
+import lombok.RequiredArgsConstructor;
+import nc.deveo.query.ContratIndexQueryService;
+import nc.deveo.query.entity.Contrat;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/index")
+@RequiredArgsConstructor
+public class ContratIndexController implements QueryController<Contrat, ContratIndexQueryService> {
+
+    private final ContratIndexQueryService service;
+
+    @Override
+    public ContratIndexQueryService getQueryService() {
+        return service;
+    }
+}
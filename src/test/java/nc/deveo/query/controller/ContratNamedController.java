@@ -0,0 +1,20 @@
+package nc.deveo.query.controller;
+
+import lombok.RequiredArgsConstructor;
+import nc.deveo.query.ContratNamedQueryService;
+import nc.deveo.query.entity.Contrat;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/named")
+@RequiredArgsConstructor
+public class ContratNamedController implements QueryController<Contrat, ContratNamedQueryService> {
+
+    private final ContratNamedQueryService service;
+
+    @Override
+    public ContratNamedQueryService getQueryService() {
+        return service;
+    }
+}
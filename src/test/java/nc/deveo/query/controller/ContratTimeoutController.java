@@ -0,0 +1,20 @@
+package nc.deveo.query.controller;
+
+import lombok.RequiredArgsConstructor;
+import nc.deveo.query.ContratTimeoutQueryService;
+import nc.deveo.query.entity.Contrat;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/timeout")
+@RequiredArgsConstructor
+public class ContratTimeoutController implements QueryController<Contrat, ContratTimeoutQueryService> {
+
+    private final ContratTimeoutQueryService service;
+
+    @Override
+    public ContratTimeoutQueryService getQueryService() {
+        return service;
+    }
+}
@@ -7,8 +7,11 @@ import lombok.Setter;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
+import java.time.LocalDate;
 import java.util.List;
 
 @Entity
@@ -21,6 +24,15 @@ public class Contrat {
 
     private String nom;
 
+    private Double montant;
+
+    private LocalDate dateDebut;
+
+    @Enumerated(EnumType.STRING)
+    private StatutContrat statut;
+
+    private Boolean signe;
+
     @JsonIgnoreProperties("contrat")
     @OneToMany(mappedBy = "contrat", cascade = CascadeType.ALL)
     private List<Facture> factures;
@@ -0,0 +1,7 @@
+package nc.deveo.query.entity;
+
+public enum StatutContrat {
+    ACTIF,
+    SUSPENDU,
+    RESILIE
+}